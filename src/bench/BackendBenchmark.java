@@ -0,0 +1,111 @@
+package bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import drivers.CODES;
+import user_interface.PageModel;
+
+/**
+ * The same database operations against an embedded database and against a
+ * Derby Network Server on the loopback interface (see BenchDatabase).
+ * readPageShared has several threads reading at once, as several operator
+ * clients sharing one store would. getERPFromDatabase empties the ERP cache
+ * before every call, so the whole ERP crosses the connection each time.
+ *
+ * @author Taylor
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class BackendBenchmark {
+	private static final String PAGE = "bench";
+	private static final String ERP  = "bench";
+	private static final int    ERP_SIZE = 1024 * 1024;
+
+	@Param({ "embedded", "network" })
+	String backend;
+
+	BenchDatabase db;
+	PageModel     page;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		db = new BenchDatabase();
+		db.network = backend.equals("network");
+		db.start();
+
+		page = Samples.page(32);
+		if (db.dbman.addPage(PAGE, page) != CODES.OK) {
+			throw new IllegalStateException("The benchmark page could not be stored");
+		}
+
+		File pdf = Samples.pdf(ERP_SIZE);
+		if (db.dbman.setERP(ERP, pdf) == null) {
+			throw new IllegalStateException("The benchmark ERP could not be stored");
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		db.stop();
+	}
+
+	@Benchmark
+	public byte[] readPage() throws SQLException, IOException {
+		return db.dbman.getPageBytes(PAGE);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public byte[] readPageShared() throws SQLException, IOException {
+		return db.dbman.getPageBytes(PAGE);
+	}
+
+	@Benchmark
+	public CODES writePage() {
+		return db.dbman.addPage(PAGE, page);
+	}
+
+	@Benchmark
+	public File getERPCached() {
+		return db.dbman.getERP(ERP);
+	}
+
+	@Benchmark
+	public File getERPFromDatabase(ColdCache cold) {
+		return db.dbman.getERP(ERP);
+	}
+
+	/**
+	 * Empties the ERP cache before each call of the benchmarks that use it
+	 */
+	@State(Scope.Thread)
+	public static class ColdCache {
+		@Setup(Level.Invocation)
+		public void clear(BackendBenchmark benchmark) throws IOException {
+			benchmark.db.clearERPCache();
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.apache.derby.drda.NetworkServerControl;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import database.DBManager;
+import drivers.CODES;
+
+/**
+ * A DBManager over a new Derby database and ERP cache in a temporary
+ * directory, deleted again once the trial is over.
+ * 
+ * With network set, the database is served by a Derby Network Server
+ * started in this JVM on a free loopback port, and the DBManager connects
+ * to it as a client, so the difference from the embedded database is the
+ * cost of the client driver and the round trip. This needs derbynet and
+ * derbyclient on the classpath.
+ * 
+ * @author Taylor
+ *
+ */
+@State(Scope.Benchmark)
+public class BenchDatabase {
+	private static final long SERVER_START_MS = 10000;
+	
+	Path      dir;
+	DBManager dbman;
+	boolean   network;
+	
+	private NetworkServerControl server;
+
+	@Setup(Level.Trial)
+	public void start() throws IOException {
+		dir = Files.createTempDirectory("erp_manager-bench");
+		
+		System.setProperty("java.awt.headless", "true");
+		System.setProperty("derby.system.home", dir.resolve("db").toString());
+		System.setProperty("erp.cache.dir", dir.resolve("cache").toString());
+		
+		if (network) {
+			startServer();
+		}
+		
+		dbman = new DBManager();
+		CODES code = dbman.initialize();
+		if (code != CODES.OK) {
+			throw new IllegalStateException("The benchmark database could not be started: " + code);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void stop() throws IOException {
+		dbman.shutdown();
+		
+		if (server != null) {
+			stopServer();
+		}
+		
+		delete(dir);
+	}
+
+	private void startServer() throws IOException {
+		InetAddress loopback = InetAddress.getLoopbackAddress();
+		int port;
+		try (ServerSocket socket = new ServerSocket(0, 0, loopback)) {
+			port = socket.getLocalPort();
+		}
+		
+		try {
+			server = new NetworkServerControl(loopback, port);
+			server.start(null);
+			
+			long deadline = System.currentTimeMillis() + SERVER_START_MS;
+			while (true) {
+				try {
+					server.ping();
+					break;
+				} catch (Exception e) {
+					if (System.currentTimeMillis() > deadline) { throw e; }
+					
+					Thread.sleep(50);
+				}
+			}
+		} catch (Exception e) {
+			throw new IOException("The Derby Network Server could not be started", e);
+		}
+		
+		System.setProperty("erp.db.backend", "network");
+		System.setProperty("erp.db.host", loopback.getHostAddress());
+		System.setProperty("erp.db.port", Integer.toString(port));
+	}
+
+	/**
+	 * Stops the server, then the Derby engine it ran in, so the database
+	 * files can be deleted
+	 */
+	private void stopServer() {
+		System.clearProperty("erp.db.backend");
+		
+		try {
+			server.shutdown();
+		} catch (Exception e) {
+			throw new IllegalStateException("The Derby Network Server could not be stopped", e);
+		} finally {
+			server = null;
+		}
+		
+		try {
+			DriverManager.getConnection("jdbc:derby:;shutdown=true");
+		} catch (SQLException e) {
+			//Expected, Derby reports a shutdown with an exception
+		}
+	}
+
+	/**
+	 * Empties the ERP cache, so the next read of each ERP comes from the
+	 * database
+	 */
+	void clearERPCache() throws IOException {
+		File[] cached = dir.resolve("cache").toFile().listFiles();
+		if (cached == null) { return; }
+		
+		for (File file : cached) {
+			Files.delete(file.toPath());
+		}
+	}
+
+	static void delete(Path path) throws IOException {
+		try (Stream<Path> paths = Files.walk(path)) {
+			for (Path p : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+				Files.delete(p);
+			}
+		}
+	}
+}
@@ -0,0 +1,39 @@
+package bench;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import user_interface.ImageCache;
+
+/**
+ * Runs the benchmarks and writes the results as JSON
+ * 
+ * @author Taylor
+ *
+ */
+public final class BenchmarkMain {
+	private BenchmarkMain() {
+	}
+
+	/**
+	 * @param args an optional regex of the benchmarks to run, and an
+	 *            optional file to write the results to
+	 */
+	public static void main(String[] args) throws RunnerException {
+		if (ImageCache.class.getResource("resources/main.png") == null) {
+			System.err.println("The page images are not on the classpath, add src to it (see bench/package-info.java)");
+			System.exit(1);
+		}
+		
+		Options options = new OptionsBuilder()
+				.include(args.length > 0 ? args[0] : "bench\\..*")
+				.resultFormat(ResultFormatType.JSON)
+				.result(args.length > 1 ? args[1] : "bench-results.json")
+				.build();
+		
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,146 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import database.Codec;
+import database.DBManager;
+import drivers.CODES;
+
+/**
+ * Compares the codecs on real pages and ERPs: how much smaller they make
+ * them, how fast they compress, and how long it takes to decompress each
+ * one, which is what a user waits for on every navigation.
+ * 
+ * Run without arguments to benchmark the pages and ERPs in the database
+ * configured by the erp.db system properties, or with files or directories
+ * to benchmark those instead. Unlike the JMH benchmarks it needs nothing
+ * but the application on the classpath.
+ * 
+ * @author Taylor
+ *
+ */
+public final class CodecBenchmark {
+	private static final int WARMUP_ROUNDS = 20;
+	private static final int ROUNDS        = 10;
+
+	// ERPs are held in memory while benchmarking
+	private static final long MAX_ERP_BYTES = 256L * 1024 * 1024;
+
+	private CodecBenchmark() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length == 0) {
+			System.out.println(run(databaseSamples()));
+			return;
+		}
+
+		List<byte[]> samples = new ArrayList<byte[]>();
+		for (String arg : args) {
+			try (Stream<Path> paths = Files.walk(Paths.get(arg))) {
+				for (Path path : paths.filter(Files::isRegularFile).collect(Collectors.toList())) {
+					samples.add(Files.readAllBytes(path));
+				}
+			}
+		}
+
+		System.out.println(run("files", samples));
+	}
+
+	/**
+	 * Reads the pages and ERPs out of the database, see
+	 * DBManager.getCodecSamples
+	 */
+	private static Map<String, List<byte[]>> databaseSamples() throws Exception {
+		DBManager dbman = new DBManager();
+		if (dbman.initialize() != CODES.OK) { throw new IOException("The database could not be opened"); }
+
+		try {
+			return dbman.getCodecSamples(MAX_ERP_BYTES);
+		} finally {
+			dbman.shutdown();
+		}
+	}
+
+	/**
+	 * Benchmarks each group of samples, see run(String, List)
+	 * 
+	 * @param groups samples keyed by a name for the group
+	 * @return a table for each group
+	 */
+	public static String run(Map<String, List<byte[]>> groups) throws IOException {
+		StringBuilder report = new StringBuilder();
+		for (Map.Entry<String, List<byte[]>> group : groups.entrySet()) {
+			report.append(run(group.getKey(), group.getValue())).append(System.lineSeparator());
+		}
+		return report.toString();
+	}
+
+	/**
+	 * Compresses and decompresses every sample with every codec, checking
+	 * each round trip gives back the original bytes
+	 * 
+	 * @param name name of the samples for the report
+	 * @param samples raw pages or ERPs
+	 * @return a table of the results
+	 * @throws IOException if a codec did not give back the original bytes
+	 */
+	public static String run(String name, List<byte[]> samples) throws IOException {
+		long raw = samples.stream().mapToLong(s -> s.length).sum();
+		StringBuilder report = new StringBuilder(String.format("%s: %d samples, %dKB%n", name, samples.size(), raw / 1024));
+		report.append(String.format("%-8s %7s %10s %14s %16s %14s%n", 
+				"codec", "ratio", "stored KB", "compress MB/s", "decompress MB/s", "p50 decode us"));
+
+		if (raw == 0) { return report.toString(); }
+
+		for (Codec codec : Codec.values()) {
+			byte[][] encoded = new byte[samples.size()][];
+			long[] decodeNanos = new long[samples.size()];
+			long compressNanos = 0, decompressNanos = 0;
+
+			for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+				boolean measured = round >= WARMUP_ROUNDS;
+
+				for (int i = 0; i < samples.size(); i++) {
+					long start = System.nanoTime();
+					encoded[i] = codec.encode(samples.get(i));
+					long encodedAt = System.nanoTime();
+					byte[] decoded = codec.decode(encoded[i]);
+					long end = System.nanoTime();
+
+					if (!Arrays.equals(decoded, samples.get(i))) {
+						throw new IOException(codec + " did not round trip sample " + i + " of " + name);
+					}
+
+					if (measured) {
+						compressNanos += encodedAt - start;
+						decompressNanos += end - encodedAt;
+						decodeNanos[i] += end - encodedAt;
+					}
+				}
+			}
+
+			long stored = Arrays.stream(encoded).mapToLong(e -> e.length).sum();
+			Arrays.sort(decodeNanos);
+
+			report.append(String.format("%-8s %7.2f %10d %14.1f %16.1f %14.1f%n", codec, (double) raw / stored, stored / 1024, 
+					throughput(raw, compressNanos), throughput(raw, decompressNanos), 
+					decodeNanos[decodeNanos.length / 2] / (double) ROUNDS / 1000));
+		}
+
+		return report.toString();
+	}
+
+	private static double throughput(long bytes, long nanos) {
+		return nanos == 0 ? 0 : bytes * ROUNDS / (1024.0 * 1024.0) / (nanos / 1e9);
+	}
+}
@@ -0,0 +1,76 @@
+package bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * DBManager.getERP and setERP across a range of PDF sizes. getERPCached is
+ * served from the ERP cache; getERPFromDatabase empties the cache before
+ * every call, so the ERP is streamed out of Derby each time.
+ * 
+ * @author Taylor
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ErpBenchmark {
+	private static final String ERP = "bench";
+
+	@Param({ "65536", "1048576", "16777216", "67108864" })
+	int size;
+
+	File pdf;
+
+	@Setup
+	public void setUp(BenchDatabase db) throws IOException {
+		pdf = Samples.pdf(size);
+		
+		if (db.dbman.setERP(ERP, pdf) == null) {
+			throw new IllegalStateException("The benchmark ERP could not be stored");
+		}
+	}
+
+	@Benchmark
+	public File getERPCached(BenchDatabase db) {
+		return db.dbman.getERP(ERP);
+	}
+
+	@Benchmark
+	public File getERPFromDatabase(BenchDatabase db, ColdCache cold) {
+		return db.dbman.getERP(ERP);
+	}
+
+	@Benchmark
+	public File setERP(BenchDatabase db) {
+		return db.dbman.setERP(ERP, pdf);
+	}
+
+	/**
+	 * Empties the ERP cache before each call of the benchmarks that use it
+	 */
+	@State(Scope.Thread)
+	public static class ColdCache {
+		@Setup(Level.Invocation)
+		public void clear(BenchDatabase db) throws IOException {
+			db.clearERPCache();
+		}
+	}
+}
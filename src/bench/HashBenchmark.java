@@ -0,0 +1,63 @@
+package bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import database.DBManager;
+
+/**
+ * DBManager.hash, used for the administrator password, page sources and
+ * the contents of every ERP
+ * 
+ * @author Taylor
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashBenchmark {
+	@Param({ "16", "4096", "1048576" })
+	int size;
+
+	DBManager dbman;
+	String    text;
+	byte[]    bytes;
+
+	@Setup
+	public void setUp() {
+		dbman = new DBManager();
+		bytes = new byte[size];
+		new Random(size).nextBytes(bytes);
+		
+		StringBuilder sb = new StringBuilder(size);
+		for (int i = 0; i < size; i++) {
+			sb.append((char) ('a' + i % 26));
+		}
+		text = sb.toString();
+	}
+
+	@Benchmark
+	public String hashString() {
+		return dbman.hash(text);
+	}
+
+	@Benchmark
+	public String hashBytes() {
+		return DBManager.hash(bytes);
+	}
+}
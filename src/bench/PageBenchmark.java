@@ -0,0 +1,57 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import drivers.CODES;
+import user_interface.IPanel;
+
+/**
+ * DBManager.getPageObj, which is called on every navigation. The uncached
+ * benchmark runs with the page cache turned off, so every call reads and
+ * builds the page.
+ * 
+ * @author Taylor
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class PageBenchmark {
+	private static final String PAGE = "bench";
+
+	@Param({ "8", "64" })
+	int buttons;
+
+	@Setup
+	public void setUp(BenchDatabase db) {
+		if (db.dbman.addPage(PAGE, Samples.page(buttons)) != CODES.OK) {
+			throw new IllegalStateException("The benchmark page could not be stored");
+		}
+	}
+
+	@Benchmark
+	public IPanel getPageObjCached(BenchDatabase db) {
+		return db.dbman.getPageObj(PAGE);
+	}
+
+	@Benchmark
+	@Fork(value = 1, jvmArgsAppend = { "-Djava.awt.headless=true", "-Derp.pageCache.size=0" })
+	public IPanel getPageObjUncached(BenchDatabase db) {
+		return db.dbman.getPageObj(PAGE);
+	}
+}
@@ -0,0 +1,67 @@
+package bench;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import user_interface.IPanel;
+
+/**
+ * Paints a page into an offscreen image: IPanel.paintComponent on its own,
+ * which draws the background, and the whole page with its buttons
+ * 
+ * @author Taylor
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class PaintBenchmark {
+	@Param({ "8", "64" })
+	int buttons;
+
+	IPanel        panel;
+	BufferedImage image;
+	Graphics2D    graphics;
+
+	@Setup
+	public void setUp() {
+		panel = Samples.page(buttons).toPanel(); //Sized and laid out by its PageModel
+		
+		image = new BufferedImage(panel.getWidth(), panel.getHeight(), BufferedImage.TYPE_INT_RGB);
+		graphics = image.createGraphics();
+	}
+
+	@TearDown
+	public void tearDown() {
+		graphics.dispose();
+	}
+
+	@Benchmark
+	public BufferedImage paintComponent() {
+		panel.paintComponent(graphics);
+		return image;
+	}
+
+	@Benchmark
+	public BufferedImage paintPage() {
+		panel.paint(graphics);
+		return image;
+	}
+}
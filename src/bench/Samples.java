@@ -0,0 +1,118 @@
+package bench;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import user_interface.PageModel;
+import user_interface.PageModel.ButtonModel;
+
+/*
+ * Builds the pages and PDFs the benchmarks work on
+ */
+final class Samples {
+	private Samples() {
+	}
+
+	/**
+	 * A page laid out like the site map pages, with a grid of buttons over
+	 * the main background
+	 * 
+	 * @param buttons number of buttons on the page
+	 */
+	static PageModel page(int buttons) {
+		List<ButtonModel> models = new ArrayList<ButtonModel>();
+		
+		for (int i = 0; i < buttons; i++) {
+			Rectangle bounds = new Rectangle(20 + (i % 8) * 180, 20 + (i / 8) * 60, 160, 40);
+			models.add(new ButtonModel("Zone " + i, "zone" + i, i % 2 == 0, bounds, Color.BLACK, Color.WHITE, 
+					new Font("Tahoma", Font.BOLD, 14)));
+		}
+		
+		return new PageModel("resources/main.png", new Rectangle(0, 0, 1462, 760), models);
+	}
+
+	/**
+	 * One page of a site map with a zone per button, labelled like the zones
+	 * of a real site ("Jetty 3 Ammonia Tank 17") and numbered so every
+	 * target id across the site is unique
+	 * 
+	 * @param page number of the page
+	 * @param buttons number of buttons on the page
+	 * @param random source of the labels
+	 */
+	static PageModel zonePage(int page, int buttons, Random random) {
+		String[] areas = { "Jetty", "Tank Farm", "Compound", "Loading Bay", "Pump House", "Warehouse", "Process Unit" };
+		String[] things = { "Ammonia Tank", "Chlorine Store", "Boiler", "Compressor", "Diesel Tank", "Valve Pit",
+				"Control Room", "Substation", "Pipe Rack", "Flare Stack", "Cooling Tower", "Separator" };
+		List<ButtonModel> models = new ArrayList<ButtonModel>();
+		
+		for (int i = 0; i < buttons; i++) {
+			int zone = page * buttons + i;
+			String label = areas[random.nextInt(areas.length)] + " " + (page + 1) + " "
+					+ things[random.nextInt(things.length)] + " " + zone;
+			Rectangle bounds = new Rectangle(20 + (i % 8) * 180, 20 + (i / 8) * 60, 160, 40);
+			models.add(new ButtonModel(label, "z" + zone, i % 2 == 0, bounds, null, null, null));
+		}
+		
+		return new PageModel("resources/main.png", new Rectangle(0, 0, 1462, 760), models);
+	}
+
+	/**
+	 * Writes a file that looks enough like a PDF to be stored as an ERP:
+	 * a PDF header followed by incompressible content, as most PDF
+	 * streams are compressed
+	 * 
+	 * @param size size of the file in bytes
+	 * @return the file, deleted when the JVM exits
+	 */
+	static File pdf(int size) throws IOException {
+		File file = File.createTempFile("erp_manager-bench", ".pdf");
+		file.deleteOnExit();
+		
+		byte[] header = "%PDF-1.4\n".getBytes(StandardCharsets.US_ASCII);
+		byte[] block = new byte[64 * 1024];
+		Random random = new Random(size);
+		
+		try (OutputStream out = Files.newOutputStream(file.toPath())) {
+			out.write(header);
+			for (int written = header.length; written < size; written += block.length) {
+				random.nextBytes(block);
+				out.write(block, 0, Math.min(block.length, size - written));
+			}
+		}
+		
+		return file;
+	}
+
+	/**
+	 * Writes a small PDF whose single page shows some text, as a plan would
+	 * 
+	 * @param words the words on the page
+	 * @return the file, deleted when the JVM exits
+	 */
+	static File textPdf(List<String> words) throws IOException {
+		File file = File.createTempFile("erp_manager-bench", ".pdf");
+		file.deleteOnExit();
+		
+		StringBuilder content = new StringBuilder("BT /F1 10 Tf 72 760 Td 12 TL\n");
+		for (int i = 0; i < words.size(); i += 12) {
+			content.append('(').append(String.join(" ", words.subList(i, Math.min(i + 12, words.size())))).append(") '\n");
+		}
+		content.append("ET\n");
+		
+		String pdf = "%PDF-1.4\n1 0 obj\n<< /Length " + content.length() + " >>\nstream\n" + content 
+				+ "endstream\nendobj\n%%EOF\n";
+		Files.write(file.toPath(), pdf.getBytes(StandardCharsets.US_ASCII));
+		
+		return file;
+	}
+}
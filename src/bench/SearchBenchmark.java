@@ -0,0 +1,86 @@
+package bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import database.SearchHit;
+
+/**
+ * TextIndex.search over a number of indexed ERPs of 500 words each. Words
+ * are drawn from a vocabulary of 5000, so each appears in about a tenth of
+ * the ERPs, and the words of the queries are put into a few of them.
+ * 
+ * @author Taylor
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class SearchBenchmark {
+	private static final int WORDS = 500;
+	private static final int VOCABULARY = 5000;
+
+	@Param({ "100", "1000" })
+	int erps;
+
+	@Setup
+	public void setUp(BenchDatabase db) throws IOException, SQLException, InterruptedException {
+		Random random = new Random(erps);
+		Map<String, File> files = new LinkedHashMap<String, File>();
+		
+		for (int i = 0; i < erps; i++) {
+			List<String> words = new ArrayList<String>();
+			for (int w = 0; w < WORDS; w++) {
+				words.add("word" + random.nextInt(VOCABULARY));
+			}
+			if (i % 20 == 0) { words.add("ammonia"); }
+			if (i % 5 == 0) { words.addAll(List.of("muster", "point", "B")); }
+			
+			files.put("erp" + i, Samples.textPdf(words));
+		}
+		
+		db.dbman.setERPs(files);
+		db.dbman.getTextIndex().awaitIdle();
+		
+		if (db.dbman.getTextIndex().search("ammonia", 1).isEmpty()) {
+			throw new IllegalStateException("The benchmark ERPs were not indexed");
+		}
+	}
+
+	@Benchmark
+	public List<SearchHit> searchOneWord(BenchDatabase db) throws SQLException {
+		return db.dbman.getTextIndex().search("ammonia", 20);
+	}
+
+	@Benchmark
+	public List<SearchHit> searchThreeWords(BenchDatabase db) throws SQLException {
+		return db.dbman.getTextIndex().search("muster point B", 20);
+	}
+
+	@Benchmark
+	public List<SearchHit> searchCommonWord(BenchDatabase db) throws SQLException {
+		return db.dbman.getTextIndex().search("word42", 20);
+	}
+}
@@ -0,0 +1,83 @@
+package bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import database.DBManager;
+import user_interface.IPanel;
+import user_interface.PageModel;
+
+/**
+ * Java serialization through DBManager.toByteArray and fromByteArray, which
+ * is how pages were stored before PageModels and how legacy rows are still
+ * read, against the PageModel encoding that replaced it
+ * 
+ * @author Taylor
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class SerializationBenchmark {
+	@Param({ "8", "64" })
+	int buttons;
+
+	DBManager dbman;
+	IPanel    panel;
+	PageModel page;
+	byte[]    serializedPanel;
+	byte[]    serializedFile;
+	byte[]    pageBytes;
+
+	@Setup
+	public void setUp() {
+		dbman = new DBManager(); //Serialization does not need a database
+		page = Samples.page(buttons);
+		panel = page.toPanel();
+		
+		serializedPanel = dbman.toByteArray(panel);
+		serializedFile = dbman.toByteArray(new File("erps/zone1.pdf"));
+		pageBytes = page.toBytes();
+	}
+
+	@Benchmark
+	public byte[] panelToByteArray() {
+		return dbman.toByteArray(panel);
+	}
+
+	@Benchmark
+	public Object panelFromByteArray() {
+		return dbman.fromByteArray(serializedPanel);
+	}
+
+	@Benchmark
+	public Object fileFromByteArray() {
+		return dbman.fromByteArray(serializedFile);
+	}
+
+	@Benchmark
+	public byte[] pageModelToBytes() {
+		return page.toBytes();
+	}
+
+	@Benchmark
+	public IPanel pageModelToPanel() throws IOException {
+		return PageModel.fromBytes(pageBytes).toPanel();
+	}
+}
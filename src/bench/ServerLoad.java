@@ -0,0 +1,187 @@
+package bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import database.LatencyHistogram;
+import database.OperationStats;
+import drivers.CODES;
+import server.ErpServer;
+
+/**
+ * Load test for server.ErpServer. Fills a temporary database with pages
+ * and ERPs, serves it on a local port, and has many simulated terminals
+ * request them as fast as they can. Most requests send back the ETag from
+ * the terminal's last copy, as a terminal that is already up to date
+ * would. A final run has every terminal read random 64KB ranges of the
+ * ERPs, as a viewer jumping between pages of a plan does.
+ *
+ * The peak heap use during each run is reported alongside the throughput.
+ * Response bodies are counted and thrown away as they arrive, so the heap
+ * is the server's own.
+ *
+ * This is not a JMH benchmark, as it measures a whole server:
+ *
+ * <pre>
+ * java -cp "out:lib/*" bench.ServerLoad [terminals] [seconds] [pdfKB]
+ * </pre>
+ *
+ * @author Taylor
+ *
+ */
+public final class ServerLoad {
+	private static final int PAGES = 100;
+	private static final int ERPS  = 100;
+	private static final double CONDITIONAL = 0.9;
+	private static final int RANGE_SIZE = 64 * 1024;
+
+	private ServerLoad() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		int terminals = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		int pdfSize = (args.length > 2 ? Integer.parseInt(args[2]) : 512) * 1024;
+
+		BenchDatabase db = new BenchDatabase();
+		db.start();
+		ErpServer server = null;
+
+		try {
+			fill(db, pdfSize);
+			server = ErpServer.start(new InetSocketAddress("127.0.0.1", 0), db.dbman);
+
+			String base = "http://127.0.0.1:" + server.getPort();
+			System.out.println(run("pages", base + "/pages/page", PAGES, terminals, seconds));
+			System.out.println(run("erps", base + "/erps/erp", ERPS, terminals, seconds));
+			System.out.println(run("erp ranges", base + "/erps/erp", -pdfSize, terminals, seconds));
+		} finally {
+			if (server != null) { server.stop(); }
+			db.stop();
+		}
+	}
+
+	private static void fill(BenchDatabase db, int pdfSize) throws IOException {
+		for (int i = 0; i < PAGES; i++) {
+			if (db.dbman.addPage("page" + i, Samples.page(32)) != CODES.OK) {
+				throw new IllegalStateException("The pages could not be stored");
+			}
+		}
+
+		File pdf = Samples.pdf(pdfSize);
+		for (int i = 0; i < ERPS; i++) {
+			if (db.dbman.setERP("erp" + i, pdf) == null) {
+				throw new IllegalStateException("The ERPs could not be stored");
+			}
+		}
+	}
+
+	/**
+	 * Runs the terminals against one kind of resource
+	 *
+	 * @param name name of the resource in the summary
+	 * @param prefix URL of the resources without their number
+	 * @param count number of resources, or minus the size of the ERPs to
+	 *            request random ranges of them instead
+	 * @return a summary of the throughput, latency and heap use
+	 */
+	private static String run(String name, String prefix, int count, int terminals, int seconds) throws InterruptedException {
+		HttpClient client = HttpClient.newHttpClient();
+		LatencyHistogram latency = new LatencyHistogram();
+		AtomicLong notModified = new AtomicLong();
+		AtomicLong bytes = new AtomicLong();
+		long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+
+		int ranged = Math.max(-count, 0);
+		int resources = ranged > 0 ? ERPS : count;
+		resetHeapPeak();
+
+		ExecutorService pool = Executors.newFixedThreadPool(terminals);
+		List<Runnable> work = new ArrayList<Runnable>();
+		for (int t = 0; t < terminals; t++) {
+			work.add(() -> {
+				String[] etags = new String[resources];
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+
+				while (System.nanoTime() < end) {
+					int id = random.nextInt(resources);
+					HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(prefix + id));
+					if (ranged > 0) {
+						int first = random.nextInt(ranged);
+						request.header("Range", "bytes=" + first + "-" + (first + RANGE_SIZE - 1));
+					} else if (etags[id] != null && random.nextDouble() < CONDITIONAL) {
+						request.header("If-None-Match", etags[id]);
+					}
+
+					long start = System.nanoTime();
+					try {
+						HttpResponse<InputStream> response = client.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+						try (InputStream body = response.body()) {
+							bytes.addAndGet(body.transferTo(OutputStream.nullOutputStream()));
+						}
+
+						int status = response.statusCode();
+						latency.record(start, status == 200 || status == 304 || status == 206);
+
+						if (status == 304) { notModified.incrementAndGet(); }
+						etags[id] = response.headers().firstValue("ETag").orElse(null);
+					} catch (IOException | InterruptedException e) {
+						latency.record(start, false);
+					}
+				}
+			});
+		}
+
+		long start = System.nanoTime();
+		work.forEach(pool::execute);
+		pool.shutdown();
+		pool.awaitTermination(seconds + 60, TimeUnit.SECONDS);
+		double elapsed = (System.nanoTime() - start) / 1e9;
+
+		OperationStats stats = latency.snapshot(name);
+		return String.format("%s: %d terminals, %.0f requests/s, %.1f MB/s, %d not modified, %dMB peak heap%n  %s", name,
+				terminals, stats.getCount() / elapsed, bytes.get() / elapsed / (1024 * 1024), notModified.get(),
+				heapPeak() / (1024 * 1024), stats);
+	}
+
+	private static void resetHeapPeak() {
+		System.gc();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				pool.resetPeakUsage();
+			}
+		}
+	}
+
+	/**
+	 * @return the sum of the peak use of each heap pool since the last
+	 *         reset, which slightly overstates the peak of the heap as a
+	 *         whole
+	 */
+	private static long heapPeak() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				peak += pool.getPeakUsage().getUsed();
+			}
+		}
+		return peak;
+	}
+}
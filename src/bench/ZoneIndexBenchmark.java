@@ -0,0 +1,87 @@
+package bench;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import database.ZoneIndex.Zone;
+import user_interface.PageModel;
+
+/**
+ * ZoneIndex.search over a site map of a number of zones, ten to a page, as
+ * the jump box runs it on every key press. oneLetter matches nearly every
+ * zone, misspelled only matches with a typing mistake.
+ * 
+ * @author Taylor
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ZoneIndexBenchmark {
+	private static final int BUTTONS = 10;
+	private static final int RESULTS = 10;
+
+	@Param({ "1000", "10000" })
+	int zones;
+
+	@Setup
+	public void setUp(BenchDatabase db) throws IOException, SQLException {
+		Random random = new Random(zones);
+		Map<String, PageModel> pages = new LinkedHashMap<String, PageModel>();
+		
+		for (int page = 0; page < zones / BUTTONS; page++) {
+			pages.put("site" + page, Samples.zonePage(page, BUTTONS, random));
+		}
+		db.dbman.addPages(pages, new HashMap<String, String>());
+		
+		if (db.dbman.getZoneIndex().size() < zones) {
+			throw new IllegalStateException("The benchmark pages were not indexed");
+		}
+	}
+
+	@Benchmark
+	public List<Zone> prefix(BenchDatabase db) {
+		return db.dbman.getZoneIndex().search("amm", RESULTS);
+	}
+
+	@Benchmark
+	public List<Zone> targetId(BenchDatabase db) {
+		return db.dbman.getZoneIndex().search("z17", RESULTS);
+	}
+
+	@Benchmark
+	public List<Zone> threeWords(BenchDatabase db) {
+		return db.dbman.getZoneIndex().search("ammonia tank 3", RESULTS);
+	}
+
+	@Benchmark
+	public List<Zone> misspelled(BenchDatabase db) {
+		return db.dbman.getZoneIndex().search("amonia", RESULTS);
+	}
+
+	@Benchmark
+	public List<Zone> oneLetter(BenchDatabase db) {
+		return db.dbman.getZoneIndex().search("t", RESULTS);
+	}
+}
@@ -0,0 +1,24 @@
+/**
+ * JMH benchmarks for the persistence and rendering hot paths. Every
+ * performance change should come with before and after numbers from here.
+ * 
+ * The project has no build file, so the benchmarks are compiled by hand
+ * with jmh-core, jmh-generator-annprocess and derby on the classpath,
+ * alongside the rest of src. javac does not copy the page images, so src
+ * itself goes on the classpath when running, for user_interface/resources:
+ * 
+ * <pre>
+ * javac -cp "lib/*" -d out $(find src -name "*.java" ! -name "*Tests.java")
+ * java -cp "out:src:lib/*" bench.BenchmarkMain [regex] [results.json]
+ * </pre>
+ * 
+ * Benchmarks that need a database run against a new Derby database in a
+ * temporary directory (see BenchDatabase), so the real erp_manager
+ * database is never touched. BenchmarkMain writes its results as JSON.
+ * 
+ * Scores only compare on the same machine, so baselines are not kept in
+ * the repository. Before a performance change, run the affected benchmarks
+ * on the unchanged tree and keep the JSON; run them again with the change,
+ * and put both sets of numbers in the change's description.
+ */
+package bench;
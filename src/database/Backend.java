@@ -0,0 +1,143 @@
+package database;
+
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+import drivers.CODES;
+import drivers.Logger;
+
+/*
+ * Where the database lives, chosen with the erp.db.backend system property.
+ *
+ * EMBEDDED, the default, runs Derby inside the application. Only one JVM
+ * can have an embedded database open at a time, and it must be shut down
+ * before the application exits.
+ *
+ * NETWORK connects to a Derby Network Server at erp.db.host:erp.db.port
+ * (localhost:1527), so several operator clients can share one store. The
+ * server owns the database; for testing, one can be started from the Derby
+ * distribution with
+ *
+ *   java -jar derbyrun.jar server start
+ *
+ * erp.db.user and erp.db.password are passed on if the server has
+ * authentication turned on.
+ */
+enum Backend {
+	EMBEDDED("org.apache.derby.jdbc.EmbeddedDriver", false) {
+		@Override
+		String url() { return "jdbc:derby:" + DATABASE_NAME + ";create=true"; }
+
+		@Override
+		String location() { return DATABASE_NAME; }
+
+		/**
+		 * Shuts down the Derby engine, which Derby reports by throwing an
+		 * SQLException with the state XJ015
+		 */
+		@Override
+		void shutdown() throws SQLException {
+			try {
+				DriverManager.getConnection("jdbc:derby:;shutdown=true");
+			} catch (SQLException e) {
+				if (CODES.SHUTDOWN_OK.getCode().equals(e.getSQLState())) { return; }
+
+				throw e;
+			}
+
+			throw new SQLException("Derby did not report that it had shut down");
+		}
+	},
+	NETWORK("org.apache.derby.jdbc.ClientDriver", true) {
+		@Override
+		String url() {
+			String user = System.getProperty("erp.db.user");
+			String password = System.getProperty("erp.db.password");
+
+			return "jdbc:derby://" + location() + ";create=true"
+					+ (user == null ? "" : ";user=" + user)
+					+ (password == null ? "" : ";password=" + password);
+		}
+
+		@Override
+		String location() {
+			return System.getProperty("erp.db.host", "localhost") + ":" + Integer.getInteger("erp.db.port", DEFAULT_PORT) + "/" + DATABASE_NAME;
+		}
+
+		/**
+		 * Does nothing. The database belongs to the server, and other clients
+		 * may still be using it, so closing this client's connections is all
+		 * there is to do.
+		 */
+		@Override
+		void shutdown() {
+		}
+	};
+
+	static final String DATABASE_NAME = "erp_manager";
+	static final int    DEFAULT_PORT  = 1527;
+
+	private final String  driver;
+	private final boolean shared;
+
+	private Backend(String driver, boolean shared) {
+		this.driver = driver;
+		this.shared = shared;
+	}
+
+	/**
+	 * @return the JDBC url to open connections with
+	 */
+	abstract String url();
+
+	/**
+	 * @return where the database is, without any credentials, for logging
+	 */
+	abstract String location();
+
+	/**
+	 * Releases the database once every connection to it has been closed
+	 *
+	 * @throws SQLException if it did not shut down cleanly
+	 */
+	abstract void shutdown() throws SQLException;
+
+	/**
+	 * Loads the JDBC driver for this backend. An instance is created as
+	 * well, as shutting down the embedded engine deregisters its driver and
+	 * loading the class again does not register it a second time.
+	 *
+	 * @throws ClassNotFoundException if the driver is not on the classpath
+	 */
+	void loadDriver() throws ClassNotFoundException {
+		try {
+			Class.forName(driver).getDeclaredConstructor().newInstance();
+		} catch (ClassNotFoundException e) {
+			throw e;
+		} catch (ReflectiveOperationException e) {
+			throw new ClassNotFoundException("The driver " + driver + " could not be created", e);
+		}
+	}
+
+	/**
+	 * @return true if other clients may be changing the database at the same
+	 *         time, so anything cached from it can go out of date
+	 */
+	boolean isShared() { return this.shared; }
+
+	/**
+	 * @return the backend named by erp.db.backend, or EMBEDDED if it is not
+	 *         set or not recognised
+	 */
+	static Backend fromSystemProperties() {
+		String name = System.getProperty("erp.db.backend");
+		if (name == null) { return EMBEDDED; }
+
+		try {
+			return valueOf(name.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			Logger.warn("Unknown database backend {}, using {}", name, EMBEDDED);
+			return EMBEDDED;
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package database;
+
+/**
+ * An immutable snapshot of the counters kept by one of the application's
+ * caches
+ * 
+ * @author Taylor
+ *
+ */
+public final class CacheStats {
+	private final long hits;
+	private final long misses;
+	private final long evictions;
+	private final long size;
+
+	/**
+	 * @param hits number of lookups answered from the cache
+	 * @param misses number of lookups that had to load the value
+	 * @param evictions number of entries removed to make room
+	 * @param size number of entries currently held
+	 */
+	public CacheStats(long hits, long misses, long evictions, long size) {
+		this.hits = hits;
+		this.misses = misses;
+		this.evictions = evictions;
+		this.size = size;
+	}
+
+	public long getHits() { return this.hits; }
+
+	public long getMisses() { return this.misses; }
+
+	public long getEvictions() { return this.evictions; }
+
+	public long getSize() { return this.size; }
+
+	/**
+	 * @return the fraction of lookups that were hits, or 0 if there have been
+	 *         no lookups
+	 */
+	public double getHitRate() {
+		long total = hits + misses;
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	public String toString() {
+		return String.format("hits=%d misses=%d evictions=%d size=%d hitRate=%.2f", 
+				hits, misses, evictions, size, getHitRate());
+	}
+}
@@ -0,0 +1,56 @@
+package database;
+
+/**
+ * An immutable snapshot of how much space ERP revisions take up in the
+ * chunk store. The full copy of each ERP's newest revision kept in the erp
+ * table for reads is counted separately, as currentBytes.
+ * 
+ * @author Taylor
+ *
+ */
+public final class ChunkStats {
+	private final long revisions;
+	private final long chunks;
+	private final long logicalBytes;
+	private final long storedBytes;
+	private final long currentBytes;
+
+	/**
+	 * @param revisions number of ERP revisions kept
+	 * @param chunks number of distinct chunks stored
+	 * @param logicalBytes total size of every revision
+	 * @param storedBytes total size of the distinct chunks
+	 * @param currentBytes total size of the copies of the newest revisions
+	 *            in the erp table
+	 */
+	public ChunkStats(long revisions, long chunks, long logicalBytes, long storedBytes, long currentBytes) {
+		this.revisions = revisions;
+		this.chunks = chunks;
+		this.logicalBytes = logicalBytes;
+		this.storedBytes = storedBytes;
+		this.currentBytes = currentBytes;
+	}
+
+	public long getRevisions() { return this.revisions; }
+
+	public long getChunks() { return this.chunks; }
+
+	public long getLogicalBytes() { return this.logicalBytes; }
+
+	public long getStoredBytes() { return this.storedBytes; }
+
+	public long getCurrentBytes() { return this.currentBytes; }
+
+	/**
+	 * @return how many times smaller the chunk store is than a full copy of
+	 *         every revision would be, or 1 if nothing is stored
+	 */
+	public double getDedupRatio() {
+		return storedBytes == 0 ? 1 : (double) logicalBytes / storedBytes;
+	}
+
+	public String toString() {
+		return String.format("revisions=%d chunks=%d logical=%dKB stored=%dKB dedup=%.2fx current=%dKB", 
+				revisions, chunks, logicalBytes / 1024, storedBytes / 1024, getDedupRatio(), currentBytes / 1024);
+	}
+}
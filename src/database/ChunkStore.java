@@ -0,0 +1,302 @@
+package database;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import drivers.Logger;
+
+/*
+ * Keeps every revision of every ERP as a list of content-defined chunks
+ * (see database.Chunker). Chunks are stored once in erp_chunk, keyed by the
+ * SHA-256 of their content, and shared between every revision and every
+ * ERP that contains them. A new revision of a plan only adds the chunks
+ * around what was changed, and boilerplate shared between zones is only
+ * stored once.
+ * 
+ * Every method takes the connection to use, so revisions can be written in
+ * the same transaction as the erp row they belong to.
+ * 
+ * The erp row still holds a full copy of the newest revision, so reads,
+ * the ERP cache and the server stream a single BLOB rather than fetching
+ * chunk by chunk. That copy is replaced by each upload, so it costs one
+ * copy per ERP rather than one per revision, and stats() reports it apart
+ * from the chunks.
+ */
+final class ChunkStore {
+	private static final String GET_CHUNK        = "SELECT data FROM erp_chunk WHERE hash = ?";
+	private static final String HAS_CHUNK        = "SELECT 1 FROM erp_chunk WHERE hash = ?";
+	private static final String ADD_CHUNK        = "INSERT INTO erp_chunk(hash, length, data) VALUES(?, ?, ?)";
+	private static final String GET_LATEST       = "SELECT revision, hash FROM erp_revision WHERE id = ? ORDER BY revision DESC FETCH FIRST 1 ROWS ONLY";
+	private static final String GET_REVISIONS    = "SELECT revision, hash, pdf_size, created FROM erp_revision WHERE id = ? ORDER BY revision";
+	private static final String ADD_REVISION     = "INSERT INTO erp_revision(id, revision, hash, pdf_size, created) VALUES(?, ?, ?, ?, ?)";
+	private static final String ADD_REVISION_CHUNK = "INSERT INTO erp_revision_chunk(id, revision, seq, chunk) VALUES(?, ?, ?, ?)";
+	private static final String GET_REVISION_CHUNKS = "SELECT chunk FROM erp_revision_chunk WHERE id = ? AND revision = ? ORDER BY seq";
+	private static final String COUNT_CHUNKS     = "SELECT COUNT(*), COALESCE(SUM(CAST(length AS BIGINT)), 0) FROM erp_chunk";
+	private static final String COUNT_REVISIONS  = "SELECT COUNT(*), COALESCE(SUM(pdf_size), 0) FROM erp_revision";
+	private static final String COUNT_CURRENT    = "SELECT COALESCE(SUM(pdf_size), 0) FROM erp";
+
+	// Rows of erp_revision_chunk sent to the database at once
+	private static final int BATCH_SIZE = 500;
+
+	private ChunkStore() {
+	}
+
+	/**
+	 * Stores the content of an ERP as its newest revision. Nothing is stored
+	 * if the newest revision already has the same content.
+	 * 
+	 * The content is read separately from the copy in the erp row, so it is
+	 * hashed again as it is chunked. If it does not match the hash the erp
+	 * row was stored with, the file changed in between and the transaction
+	 * must be rolled back.
+	 * 
+	 * @param conn connection to write with, which should be in a transaction
+	 * @param id id of the ERP
+	 * @param in content of the ERP, which is read to the end but not closed
+	 * @param hash SHA-256 of the content as hex
+	 * @return the new revision, or null if the content was unchanged
+	 * @throws IOException if the content could not be read, or does not
+	 *             match the hash
+	 */
+	static ErpRevision addRevision(PooledConnection conn, String id, InputStream in, String hash)
+			throws SQLException, IOException {
+		int revision = 1;
+		
+		PreparedStatement prep = conn.prepare(GET_LATEST, ResultSet.TYPE_FORWARD_ONLY);
+		prep.setString(1, id);
+		try (ResultSet rs = prep.executeQuery()) {
+			if (rs.next()) {
+				if (hash.equals(rs.getString(2))) {
+					Logger.debug("ERP {} is unchanged from revision {}", id, rs.getInt(1));
+					return null;
+				}
+				revision = rs.getInt(1) + 1;
+			}
+		}
+
+		Chunker chunker = new Chunker(in);
+		MessageDigest digest = DBManager.sha256();
+		MessageDigest whole = DBManager.sha256();
+		Set<String> added = new HashSet<String>();
+		PreparedStatement links = conn.prepare(ADD_REVISION_CHUNK);
+		long size = 0;
+		int seq = 0;
+		long newBytes = 0;
+		
+		for (byte[] chunk = chunker.next(); chunk != null; chunk = chunker.next()) {
+			String chunkHash = DBManager.toHex(digest.digest(chunk));
+			whole.update(chunk);
+			size += chunk.length;
+			
+			if (added.add(chunkHash) && addChunk(conn, chunkHash, chunk)) {
+				newBytes += chunk.length;
+			}
+			
+			links.setString(1, id);
+			links.setInt(2, revision);
+			links.setInt(3, seq++);
+			links.setString(4, chunkHash);
+			links.addBatch();
+			
+			if (seq % BATCH_SIZE == 0) { links.executeBatch(); }
+		}
+		links.executeBatch();
+
+		if (!hash.equals(DBManager.toHex(whole.digest()))) {
+			throw new IOException("ERP " + id + " changed while it was being stored");
+		}
+
+		Timestamp created = new Timestamp(System.currentTimeMillis());
+		prep = conn.prepare(ADD_REVISION);
+		prep.setString(1, id);
+		prep.setInt(2, revision);
+		prep.setString(3, hash);
+		prep.setLong(4, size);
+		prep.setTimestamp(5, created);
+		prep.executeUpdate();
+
+		Logger.debug("Stored revision {} of ERP {} in {} chunks", revision, id, seq);
+		Logger.debug("{}KB of the {}KB of ERP {} were new chunks", newBytes / 1024, size / 1024, id);
+		
+		return new ErpRevision(id, revision, hash, size, created);
+	}
+
+	/*
+	 * Stores a chunk unless it is already stored. Another upload sharing the
+	 * chunk may store it between the check and the insert, in which case the
+	 * duplicate key means it is already stored, and the transaction carries on.
+	 * 
+	 * @return true if the chunk was new
+	 */
+	private static boolean addChunk(PooledConnection conn, String hash, byte[] chunk) throws SQLException {
+		PreparedStatement prep = conn.prepare(HAS_CHUNK, ResultSet.TYPE_FORWARD_ONLY);
+		prep.setString(1, hash);
+		try (ResultSet rs = prep.executeQuery()) {
+			if (rs.next()) { return false; }
+		}
+
+		prep = conn.prepare(ADD_CHUNK);
+		prep.setString(1, hash);
+		prep.setInt(2, chunk.length);
+		prep.setBytes(3, chunk);
+		
+		try {
+			prep.executeUpdate();
+		} catch (SQLIntegrityConstraintViolationException e) {
+			return false;
+		}
+		
+		return true;
+	}
+
+	/**
+	 * @param conn connection to read with
+	 * @param id id of the ERP
+	 * @return every stored revision of the ERP, oldest first
+	 */
+	static List<ErpRevision> revisions(PooledConnection conn, String id) throws SQLException {
+		List<ErpRevision> revisions = new ArrayList<ErpRevision>();
+		
+		PreparedStatement prep = conn.prepare(GET_REVISIONS, ResultSet.TYPE_FORWARD_ONLY);
+		prep.setString(1, id);
+		try (ResultSet rs = prep.executeQuery()) {
+			while (rs.next()) {
+				revisions.add(new ErpRevision(id, rs.getInt(1), rs.getString(2), rs.getLong(3), rs.getTimestamp(4)));
+			}
+		}
+		
+		return revisions;
+	}
+
+	/**
+	 * Opens a revision of an ERP. Chunks are read one at a time as the stream
+	 * is read, so it must be read to the end before the connection is used
+	 * for anything else.
+	 * 
+	 * @param conn connection to read with
+	 * @param id id of the ERP
+	 * @param revision revision to open
+	 * @return the content of the revision, or null if there is no such
+	 *         revision
+	 */
+	static InputStream open(PooledConnection conn, String id, int revision) throws SQLException {
+		List<String> chunks = new ArrayList<String>();
+		
+		PreparedStatement prep = conn.prepare(GET_REVISION_CHUNKS, ResultSet.TYPE_FORWARD_ONLY);
+		prep.setString(1, id);
+		prep.setInt(2, revision);
+		try (ResultSet rs = prep.executeQuery()) {
+			while (rs.next()) {
+				chunks.add(rs.getString(1));
+			}
+		}
+		
+		if (chunks.isEmpty() && revisions(conn, id).stream().noneMatch(r -> r.getRevision() == revision)) {
+			return null;
+		}
+		
+		return new ChunkInputStream(conn, chunks);
+	}
+
+	/**
+	 * @param conn connection to read with
+	 * @return how much space revisions take up, compared with storing a full
+	 *         copy of each, and the size of the current copies in the erp table
+	 */
+	static ChunkStats stats(PooledConnection conn) throws SQLException {
+		long chunks, storedBytes, revisions, logicalBytes, currentBytes;
+		
+		try (ResultSet rs = conn.prepare(COUNT_CHUNKS, ResultSet.TYPE_FORWARD_ONLY).executeQuery()) {
+			rs.next();
+			chunks = rs.getLong(1);
+			storedBytes = rs.getLong(2);
+		}
+		
+		try (ResultSet rs = conn.prepare(COUNT_REVISIONS, ResultSet.TYPE_FORWARD_ONLY).executeQuery()) {
+			rs.next();
+			revisions = rs.getLong(1);
+			logicalBytes = rs.getLong(2);
+		}
+		
+		try (ResultSet rs = conn.prepare(COUNT_CURRENT, ResultSet.TYPE_FORWARD_ONLY).executeQuery()) {
+			rs.next();
+			currentBytes = rs.getLong(1);
+		}
+		
+		return new ChunkStats(revisions, chunks, logicalBytes, storedBytes, currentBytes);
+	}
+
+	/*
+	 * Reads the chunks of a revision in order, fetching each one as it is
+	 * needed so only a single chunk is held in memory
+	 */
+	private static final class ChunkInputStream extends InputStream {
+		private final PooledConnection conn;
+		private final List<String>     chunks;
+		private int                    next;
+		private byte[]                 current = new byte[0];
+		private int                    position;
+
+		ChunkInputStream(PooledConnection conn, List<String> chunks) {
+			this.conn = conn;
+			this.chunks = chunks;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (!advance()) { return -1; }
+			
+			return current[position++] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) { return 0; }
+			if (!advance()) { return -1; }
+			
+			int read = Math.min(len, current.length - position);
+			System.arraycopy(current, position, b, off, read);
+			position += read;
+			
+			return read;
+		}
+
+		/*
+		 * Loads the next chunk once the current one has been read
+		 * 
+		 * @return false at the end of the revision
+		 */
+		private boolean advance() throws IOException {
+			while (position == current.length) {
+				if (next == chunks.size()) { return false; }
+				
+				try {
+					PreparedStatement prep = conn.prepare(GET_CHUNK, ResultSet.TYPE_FORWARD_ONLY);
+					prep.setString(1, chunks.get(next));
+					
+					try (ResultSet rs = prep.executeQuery()) {
+						if (!rs.next()) { throw new IOException("Chunk " + chunks.get(next) + " is missing"); }
+						
+						current = rs.getBytes(1);
+						position = 0;
+						next++;
+					}
+				} catch (SQLException e) {
+					throw new IOException(e);
+				}
+			}
+			
+			return true;
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package database;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/*
+ * Splits a stream into content-defined chunks. A boundary is placed
+ * wherever a Gear rolling hash of the last 64 bytes has its top bits clear,
+ * so boundaries move with the content: inserting or removing bytes only
+ * changes the chunks around the edit, and the rest of the stream splits
+ * into exactly the same chunks as before.
+ * 
+ * Chunks are between MIN_SIZE and MAX_SIZE bytes long, and AVERAGE_SIZE
+ * bytes long on average.
+ */
+final class Chunker {
+	static final int MIN_SIZE     = 2 * 1024;
+	static final int AVERAGE_SIZE = 8 * 1024;
+	static final int MAX_SIZE     = 64 * 1024;
+
+	// Bytes that affect the hash, after which it depends only on the content
+	private static final int  WINDOW = 64;
+	private static final long MASK   = (long) (AVERAGE_SIZE - 1) << (Long.SIZE - Integer.numberOfTrailingZeros(AVERAGE_SIZE));
+	private static final long[] GEAR = gearTable();
+
+	private final InputStream in;
+	private final byte[]      buffer = new byte[MAX_SIZE];
+	private int               length;
+	private boolean           eof;
+
+	Chunker(InputStream in) {
+		this.in = in;
+	}
+
+	/**
+	 * @return the next chunk of the stream, or null once it has all been read
+	 * @throws IOException if the stream could not be read
+	 */
+	byte[] next() throws IOException {
+		fill();
+		if (length == 0) { return null; }
+
+		int cut = boundary(buffer, length);
+		byte[] chunk = Arrays.copyOf(buffer, cut);
+
+		System.arraycopy(buffer, cut, buffer, 0, length - cut);
+		length -= cut;
+
+		return chunk;
+	}
+
+	private void fill() throws IOException {
+		while (!eof && length < MAX_SIZE) {
+			int read = in.read(buffer, length, MAX_SIZE - length);
+
+			if (read < 0) {
+				eof = true;
+			} else {
+				length += read;
+			}
+		}
+	}
+
+	/*
+	 * Finds the end of the first chunk in data
+	 */
+	static int boundary(byte[] data, int length) {
+		if (length <= MIN_SIZE) { return length; }
+
+		long hash = 0;
+		for (int i = MIN_SIZE - WINDOW; i < length; i++) {
+			hash = (hash << 1) + GEAR[data[i] & 0xFF];
+
+			if (i >= MIN_SIZE && (hash & MASK) == 0) { return i + 1; }
+		}
+
+		return length;
+	}
+
+	/*
+	 * A fixed table of random values for each byte. It must never change, or
+	 * chunks already stored would no longer be found again.
+	 */
+	private static long[] gearTable() {
+		long[] table = new long[256];
+		long seed = 0x4552504D414E4147L; //"ERPMANAG"
+
+		for (int i = 0; i < table.length; i++) {
+			//SplitMix64
+			long z = (seed += 0x9E3779B97F4A7C15L);
+			z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+			z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+			table[i] = z ^ (z >>> 31);
+		}
+
+		return table;
+	}
+}
@@ -0,0 +1,184 @@
+package database;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import drivers.Logger;
+
+/**
+ * The compression used for a stored page or ERP. The id of the codec is
+ * stored alongside each row, so rows written with any codec stay readable
+ * whichever codec new rows are written with.
+ * 
+ * Ids are stored in the database and must never be changed or reused.
+ * 
+ * @author Taylor
+ *
+ */
+public enum Codec {
+	/** Stored as it is. Rows written before codecs existed use this. */
+	NONE(0) {
+		@Override
+		public InputStream compressing(InputStream raw) { return raw; }
+
+		@Override
+		public InputStream decompressing(InputStream stored) { return stored; }
+	},
+	/** java.util.zip Deflate. Smallest, but the slowest to compress. */
+	DEFLATE(1) {
+		@Override
+		public InputStream compressing(InputStream raw) { return new DeflaterInputStream(raw); }
+
+		@Override
+		public InputStream decompressing(InputStream stored) { return new InflaterInputStream(stored); }
+
+		@Override
+		public byte[] encode(byte[] raw) {
+			Deflater deflater = new Deflater();
+			try {
+				deflater.setInput(raw);
+				deflater.finish();
+				
+				ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(raw.length / 2, 32));
+				byte[] buffer = new byte[8192];
+				while (!deflater.finished()) {
+					out.write(buffer, 0, deflater.deflate(buffer));
+				}
+				return out.toByteArray();
+			} finally {
+				deflater.end();
+			}
+		}
+
+		@Override
+		public byte[] decode(byte[] stored) throws IOException {
+			Inflater inflater = new Inflater();
+			try {
+				inflater.setInput(stored);
+				
+				ByteArrayOutputStream out = new ByteArrayOutputStream(stored.length * 4);
+				byte[] buffer = new byte[8192];
+				while (!inflater.finished()) {
+					int read = inflater.inflate(buffer);
+					if (read == 0 && !inflater.finished() && (inflater.needsInput() || inflater.needsDictionary())) {
+						throw new EOFException("Deflate stream is truncated");
+					}
+					out.write(buffer, 0, read);
+				}
+				return out.toByteArray();
+			} catch (DataFormatException e) {
+				throw new IOException("Corrupt Deflate stream", e);
+			} finally {
+				inflater.end();
+			}
+		}
+	},
+	/** A fast LZ77 codec, see database.Lz. Larger than Deflate, but much quicker both ways. */
+	LZ(2) {
+		@Override
+		public InputStream compressing(InputStream raw) { return new Lz.CompressingInputStream(raw); }
+
+		@Override
+		public InputStream decompressing(InputStream stored) { return new Lz.DecompressingInputStream(stored); }
+
+		@Override
+		public byte[] encode(byte[] raw) { return Lz.encode(raw); }
+
+		@Override
+		public byte[] decode(byte[] stored) throws IOException { return Lz.decode(stored); }
+	};
+
+	private final int id;
+
+	private Codec(int id) {
+		this.id = id;
+	}
+
+	/**
+	 * @return the id stored alongside rows written with this codec
+	 */
+	public int getId() { return this.id; }
+
+	/**
+	 * @param raw stream to compress
+	 * @return a stream of the compressed bytes of raw. Closing it closes raw.
+	 */
+	public abstract InputStream compressing(InputStream raw);
+
+	/**
+	 * @param stored stream written by compressing()
+	 * @return a stream of the original bytes. Closing it closes stored.
+	 */
+	public abstract InputStream decompressing(InputStream stored);
+
+	/**
+	 * @param raw bytes to compress
+	 * @return the compressed bytes
+	 */
+	public byte[] encode(byte[] raw) throws IOException {
+		if (this == NONE) { return raw; }
+		
+		return readFully(compressing(new ByteArrayInputStream(raw)), raw.length / 2);
+	}
+
+	/**
+	 * @param stored bytes written by encode()
+	 * @return the original bytes
+	 * @throws IOException if the bytes are corrupt
+	 */
+	public byte[] decode(byte[] stored) throws IOException {
+		if (this == NONE) { return stored; }
+		
+		return readFully(decompressing(new ByteArrayInputStream(stored)), stored.length * 4);
+	}
+
+	private static byte[] readFully(InputStream in, int sizeHint) throws IOException {
+		try (InputStream stream = in) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(sizeHint, 32));
+			DBManager.copy(stream, out);
+			return out.toByteArray();
+		}
+	}
+
+	/**
+	 * @param id id stored alongside a row
+	 * @return the codec the row was written with
+	 * @throws IOException if no codec has that id, which means the row was
+	 *             written by a newer version of the application
+	 */
+	public static Codec fromId(int id) throws IOException {
+		for (Codec codec : values()) {
+			if (codec.id == id) { return codec; }
+		}
+
+		throw new IOException("Unknown codec " + id);
+	}
+
+	/**
+	 * Reads the codec to use from a system property, such as
+	 * -Derp.codec.page=deflate
+	 * 
+	 * @param property name of the system property
+	 * @param fallback codec to use if the property is not set or not valid
+	 * @return the configured codec
+	 */
+	public static Codec fromProperty(String property, Codec fallback) {
+		String name = System.getProperty(property);
+		if (name == null) { return fallback; }
+
+		try {
+			return valueOf(name.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			Logger.warn("Unknown codec {} for {}, using {}", name, property, fallback);
+			return fallback;
+		}
+	}
+}
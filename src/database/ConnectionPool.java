@@ -0,0 +1,193 @@
+package database;
+
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import drivers.Logger;
+
+/*
+ * A fixed-size pool of connections to the database. Connections are opened
+ * lazily, up to the maximum size, and each keeps its own cache of prepared
+ * statements. A caller that cannot get a connection within the acquire
+ * timeout receives an SQLTimeoutException.
+ * 
+ * Connections are lent out as PooledConnections, which go back to the pool
+ * when they are closed, so they should always be used in a
+ * try-with-resources block.
+ */
+final class ConnectionPool {
+	private final String url;
+	private final int    maxSize;
+	private final long   timeoutMillis;
+
+	private final Semaphore                             permits;
+	private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<PooledConnection>();
+	private final List<PooledConnection>                all  = new ArrayList<PooledConnection>();
+	private volatile boolean                            closed;
+
+	private final AtomicLong acquisitions   = new AtomicLong();
+	private final AtomicLong timeouts       = new AtomicLong();
+	private final AtomicLong totalWaitNanos = new AtomicLong();
+	private final AtomicLong maxWaitNanos   = new AtomicLong();
+
+	/**
+	 * @param url JDBC url every connection is opened with
+	 * @param maxSize maximum number of open connections
+	 * @param timeoutMillis how long acquire() waits for a free connection
+	 */
+	ConnectionPool(String url, int maxSize, long timeoutMillis) {
+		this.url = url;
+		this.maxSize = maxSize;
+		this.timeoutMillis = timeoutMillis;
+		this.permits = new Semaphore(maxSize, true);
+	}
+
+	/**
+	 * Borrows a connection from the pool, opening a new one if none are idle
+	 * and the pool is not yet full
+	 * 
+	 * @return a connection that must be closed to return it to the pool
+	 * @throws SQLTimeoutException if no connection became free in time
+	 * @throws SQLException if a new connection could not be opened
+	 */
+	PooledConnection acquire() throws SQLException {
+		if (closed) { throw new SQLException("The connection pool has been closed"); }
+		
+		long start = System.nanoTime();
+		
+		try {
+			if (!permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+				timeouts.incrementAndGet();
+				throw new SQLTimeoutException("Timed out after " + timeoutMillis + "ms waiting for a database connection");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted waiting for a database connection", e);
+		}
+		
+		long waited = System.nanoTime() - start;
+		totalWaitNanos.addAndGet(waited);
+		maxWaitNanos.accumulateAndGet(waited, Math::max);
+		
+		return take();
+	}
+
+	/**
+	 * Borrows a connection only if one is free straight away, and more than
+	 * reserve connections would still be free afterwards. Used for
+	 * background work that should never hold up anything else.
+	 * 
+	 * @param reserve number of connections to leave free for other callers
+	 * @return a connection that must be closed to return it to the pool, or
+	 *         null if none could be spared
+	 * @throws SQLException if a new connection could not be opened
+	 */
+	PooledConnection tryAcquire(int reserve) throws SQLException {
+		if (closed || permits.availablePermits() <= reserve || !permits.tryAcquire()) { return null; }
+		
+		return take();
+	}
+
+	/*
+	 * Hands out an idle connection, or opens a new one. The caller must
+	 * already hold a permit.
+	 */
+	private PooledConnection take() throws SQLException {
+		acquisitions.incrementAndGet();
+		
+		PooledConnection conn = idle.pollFirst();
+		if (conn != null) {
+			conn.lend();
+			return conn;
+		}
+		
+		try {
+			conn = new PooledConnection(this, DriverManager.getConnection(url));
+		} catch (SQLException e) {
+			permits.release();
+			throw e;
+		}
+		
+		synchronized (all) {
+			all.add(conn);
+		}
+		Logger.debug("Opened database connection {} of {}", all.size(), maxSize);
+		
+		return conn;
+	}
+
+	/**
+	 * Returns a connection to the pool. Called by PooledConnection.close().
+	 * A connection that cannot be reset is closed instead, and a new one is
+	 * opened when it is next needed.
+	 */
+	void release(PooledConnection conn) {
+		if (closed || !conn.reset()) {
+			discard(conn);
+		} else {
+			idle.offerFirst(conn); //Most recently used first, its statements are warm
+		}
+		
+		permits.release();
+	}
+
+	/**
+	 * @return the current state of the pool
+	 */
+	PoolStats stats() {
+		int idleCount = idle.size();
+		int open;
+		synchronized (all) {
+			open = all.size();
+		}
+		
+		return new PoolStats(open - idleCount, idleCount, maxSize, acquisitions.get(), timeouts.get(), 
+				totalWaitNanos.get(), maxWaitNanos.get());
+	}
+
+	/**
+	 * Sums the statement cache counters of every open connection
+	 */
+	CacheStats statementCacheStats() {
+		long hits = 0, misses = 0, evictions = 0, size = 0;
+		
+		synchronized (all) {
+			for (PooledConnection conn : all) {
+				CacheStats stats = conn.statementCacheStats();
+				hits += stats.getHits();
+				misses += stats.getMisses();
+				evictions += stats.getEvictions();
+				size += stats.getSize();
+			}
+		}
+		
+		return new CacheStats(hits, misses, evictions, size);
+	}
+
+	/**
+	 * Closes every idle connection. Connections still lent out are closed
+	 * when they are returned.
+	 */
+	void close() {
+		closed = true;
+		
+		PooledConnection conn;
+		while ((conn = idle.pollFirst()) != null) {
+			discard(conn);
+		}
+	}
+
+	private void discard(PooledConnection conn) {
+		conn.closeConnection();
+		synchronized (all) {
+			all.remove(conn);
+		}
+	}
+}
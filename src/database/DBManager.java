@@ -1,50 +1,127 @@
 package database;
 
+import java.awt.GraphicsEnvironment;
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.ObjectStreamException;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.file.Files;
+import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.sql.BatchUpdateException;
+import java.sql.Blob;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.SQLNonTransientConnectionException;
 import java.sql.SQLTimeoutException;
-
-import org.apache.derby.shared.common.error.DerbySQLIntegrityConstraintViolationException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
 
 import drivers.CODES;
-import drivers.Driver;
+import drivers.Logger;
+import drivers.Threads;
 import user_interface.FrontendDriver;
 import user_interface.IPanel;
+import user_interface.PageModel;
 
 /*
  * Acts as a wrapper for the Database class Contains methods for querying,
  * creating prepared queries and calling startup/shutdown of the database.
  * For actual implementation of these methods, see the database.Database
  * class
+ * 
+ * Every method borrows its own connection from the Database's connection
+ * pool, so a DBManager can be shared between threads.
  */
 public final class DBManager {
-	private static final String ADD_PAGE_OBJECT = "INSERT INTO site(id, panel) VALUES(?, ?)";
-	private static final String UPDATE_PAGE_OBJECT = "UPDATE site SET panel = ? WHERE id = ?";
-	private static final String GET_PAGE_OBJECT = "SELECT panel FROM site WHERE id=?";
+	private static final String ADD_PAGE_OBJECT = "INSERT INTO site(id, panel, panel_codec, page_format) VALUES(?, ?, ?, " + PageModel.VERSION + ")";
+	private static final String UPDATE_PAGE_OBJECT = "UPDATE site SET panel = ?, panel_codec = ?, page_format = " + PageModel.VERSION + ", source_hash = NULL WHERE id = ?";
+	private static final String GET_PAGE_OBJECT = "SELECT panel, panel_codec FROM site WHERE id=?";
+	private static final String GET_LEGACY_PAGES = "SELECT id, panel, panel_codec FROM site WHERE page_format = 0";
+	private static final String GET_PAGE_SOURCES = "SELECT id, source_hash FROM site";
+	private static final String GET_ALL_PAGES = "SELECT panel, panel_codec FROM site";
+	private static final String ADD_COMPILED_PAGE = "INSERT INTO site(id, panel, panel_codec, page_format, source_hash) VALUES(?, ?, ?, " + PageModel.VERSION + ", ?)";
+	private static final String UPDATE_COMPILED_PAGE = "UPDATE site SET panel = ?, panel_codec = ?, page_format = " + PageModel.VERSION + ", source_hash = ? WHERE id = ?";
 
-	private static final String ADD_ERP_OBJECT = "INSERT INTO erp(id, pdf) VALUES(?, ?)";
-	private static final String UPDATE_ERP_OBJECT = "UPDATE erp SET pdf = ? WHERE id = ?";
-	private static final String GET_ERP_OBJECT = "SELECT pdf FROM erp WHERE id=?";
+	private static final String ADD_ERP_OBJECT = "INSERT INTO erp(id, pdf, pdf_codec) VALUES(?, ?, ?)";
+	private static final String UPDATE_ERP_OBJECT = "UPDATE erp SET pdf = ?, pdf_codec = ? WHERE id = ?";
+	private static final String GET_ERP_OBJECT = "SELECT pdf, pdf_codec FROM erp WHERE id=?";
+	private static final String GET_ERP_IDS = "SELECT id FROM erp";
+	private static final String GET_ERP_HASH = "SELECT COALESCE(hash, ''), pdf_size FROM erp WHERE id=?";
+	private static final String GET_ERP_HASHES = "SELECT id, COALESCE(hash, '') FROM erp";
+	private static final String HAS_ERP = "SELECT 1 FROM erp WHERE id = ?";
+	
+	// SQLState of a unique or primary key violation
+	private static final String DUPLICATE_KEY_STATE = "23505";
+	private static final String SET_ERP_HASH = "UPDATE erp SET hash = ?, pdf_size = ? WHERE id = ?";
 	
 	private static final String SET_PASS = "INSERT INTO password(id, pass) VALUES(1, ?)";
 	private static final String UPDATE_PASS = "UPDATE password SET pass = ? WHERE id = 1";
 	private static final String GET_PASS = "SELECT pass FROM password WHERE id = 1";
 	
-	public static final int MAX_PDF_SIZE = 2048; //Maximum pdf size in megabytes
+	public static final int MAX_PDF_SIZE = 2047; //Maximum pdf size in megabytes, under Derby's 2GB - 1 byte BLOB limit
+	public static final long MAX_PDF_BYTES = MAX_PDF_SIZE * 1024L * 1024L;
 	
-	private String hashedPassword;
+	static final int STREAM_BUFFER_SIZE = 64 * 1024; //Buffer used when streaming ERPs to and from the database
+	
+	private volatile String hashedPassword;
 	private Database database;
+	private ErpCache erpCache;
+	
+	// Embedded or network, set by erp.db.backend
+	private final Backend backend = Backend.fromSystemProperties();
+	
+	// Deserialized pages, keyed by page id. Size set by erp.pageCache.size. Off
+	// by default when the database is shared, as another client may change a page.
+	private final LruCache<String, IPanel> pageCache = new LruCache<String, IPanel>(
+			Integer.getInteger("erp.pageCache.size", backend.isShared() ? 0 : 32));
+	
+	// Compression for new rows, set by erp.codec.page and erp.codec.erp. Most
+	// PDFs are already compressed internally, so ERPs are stored as they are
+	// unless configured otherwise.
+	private final Codec pageCodec = Codec.fromProperty("erp.codec.page", Codec.LZ);
+	private final Codec erpCodec  = Codec.fromProperty("erp.codec.erp", Codec.NONE);
+	
+	// Runs the asynchronous variants of the database operations
+	private final ExecutorService executor = Threads.newTaskExecutor("dbmanager", 8);
+	
+	// Number of submitted operations still running, which prefetching gives way to
+	private final AtomicInteger foreground = new AtomicInteger();
+	
+	private final Prefetcher prefetcher = new Prefetcher(this);
+	
+	// Indexes the text of the ERPs in the background, for searchERPsAsync
+	private final TextIndex textIndex = new TextIndex(this);
+	
+	// Labels and targets of the buttons on every page, for jumping to a zone
+	private final ZoneIndex zoneIndex = new ZoneIndex(this, backend.isShared());
+	
+	// Latencies of every operation, published over JMX once initialized
+	private final DatabaseMetrics metrics = new DatabaseMetrics(this);
 
 	/**
 	 * Initializes the database connection, and creates necessary tables if
@@ -58,15 +135,23 @@ public final class DBManager {
 	 */
 	public CODES initialize() {
 		try {
-			database = new Database();
-			boolean nopass = database.createTables();
-			
-			if (nopass) {
-				FrontendDriver.setPasswordPrompt(); //If the password table didnt exist, prompt the user to create a password
-			}
+			database = new Database(backend);
+			erpCache = ErpCache.fromSystemProperties();
+			database.createTables();
+			metrics.start();
+			migratePages();
+			textIndex.start();
+			zoneIndex.start();
 			
 			getPassword();
 			
+			if (hashedPassword == null && GraphicsEnvironment.isHeadless()) {
+				Logger.info("No administrator password is set, it will be asked for the next time the application starts with a display");
+			} else if (hashedPassword == null) {
+				FrontendDriver.setPasswordPrompt(this); //If no password has been set, prompt the user to create a password
+				getPassword();
+			}
+			
 			return CODES.OK;
 		} catch (ClassNotFoundException e) {
 			return CODES.NO_DRIVER;
@@ -74,16 +159,16 @@ public final class DBManager {
 			return CODES.CONNECT_TIMEOUT;
 		} catch (SQLException e) {
 			if (e.getSQLState() == CODES.SYNTAX_ERROR.getCode()) {
-				if(Driver.debugmode()) {
-					System.out.println(e);
-				}
+				Logger.error("The database tables could not be created", e);
 				return CODES.SYNTAX_ERROR;
 			}
 			
-			if (Driver.debugmode())
-				e.printStackTrace();
-			
+			Logger.error("Could not connect to the database", e);
 			return CODES.CONNECT_FAIL;
+		} catch (IOException e) {
+			Logger.error("The ERP cache directory could not be created", e);
+			
+			return CODES.ERROR;
 		}
 	}
 	
@@ -97,14 +182,9 @@ public final class DBManager {
 		ResultSet test = executeQuery(GET_PASS);
 		
 		try {
-			test.first();
-			String test2 = test.getString(1);
-			this.hashedPassword = test2;			
+			this.hashedPassword = test.first() ? test.getString(1) : null;
 		} catch (SQLException e) {
-			Driver.Log("An SQLException occured when trying to retrieve the password");
-			
-			if(Driver.debugmode())
-				e.printStackTrace();
+			Logger.error("An SQLException occured when trying to retrieve the password", e);
 		}
 	}
 	
@@ -120,23 +200,41 @@ public final class DBManager {
 		try {
 			MessageDigest dig = MessageDigest.getInstance("SHA-256");
 			dig.update(in.getBytes());
-			byte[] test = dig.digest();
-			
-			StringBuilder sb = new StringBuilder();
-            for(int i=0; i< test.length ;i++)
-            {
-                sb.append(Integer.toString((test[i] & 0xff) + 0x100, 16).substring(1));
-            }
-			
-			return sb.toString();
+			return toHex(dig.digest());
 		} catch (NoSuchAlgorithmException e) {
 			/* We know for sure the SHA-256 algorithm exists, its ok */
-			e.printStackTrace();
+			Logger.error("SHA-256 is not available", e);
 		}
 		
 		return null; //stop dumb compilation problems
 	}
 	
+	/**
+	 * Perform a SHA256 transformation on an array of bytes
+	 * 
+	 * @param in bytes to be transformed
+	 * @return a hex SHA256 representation of the input
+	 */
+	public static String hash(byte[] in) {
+		return toHex(sha256().digest(in));
+	}
+	
+	/**
+	 * Converts a byte array to a lowercase hexadecimal string
+	 * 
+	 * @param bytes bytes to convert
+	 * @return the hex representation of bytes
+	 */
+	static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for(int i=0; i< bytes.length ;i++)
+		{
+			sb.append(Integer.toString((bytes[i] & 0xff) + 0x100, 16).substring(1));
+		}
+		
+		return sb.toString();
+	}
+	
 	/**
 	 * Converts any object that implements the Serializable interface to a byte array
 	 * 
@@ -153,8 +251,8 @@ public final class DBManager {
 			oos.writeObject(obj);
 			stream = baos.toByteArray();
 		} catch (IOException e) {
+			Logger.error("The object could not be converted to a byte array", e);
 			FrontendDriver.showErrCode(CODES.BYTE_ARRAY_ERROR, "The object could not be converted to a byte array");
-			e.printStackTrace();
 		}
 		
 		return stream;
@@ -172,8 +270,8 @@ public final class DBManager {
 			try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(stream))){
 				return ois.readObject();
 			} catch (IOException | ClassNotFoundException e) {
+				Logger.error("The stream could not be converted to an object", e);
 				FrontendDriver.showErrCode(CODES.BYTE_ARRAY_ERROR, "The stream could not be converted to an object");
-				e.printStackTrace();
 			}
 		}
 		
@@ -184,8 +282,8 @@ public final class DBManager {
 	 * Adds an IPanel to the SITE table
 	 * If the specified ID already exists, it will be updated with the given panel
 	 * 
-	 * Code modified from
-	 * https://javapapers.com/core-java/serialize-de-serialize-java-object-from-database/
+	 * The panel is stored as a PageModel, which only keeps the background
+	 * image and the IButtons on the panel.
 	 * 
 	 * @param name
 	 *            Page name to be INSERT'd or UPDATE'd
@@ -194,40 +292,201 @@ public final class DBManager {
 	 * @return true if the insert completed successfully
 	 */
 	public CODES addPageObj(String name, IPanel panel) {
-		PreparedStatement prep = database.prepare(ADD_PAGE_OBJECT);
-
-		byte[] stream = toByteArray(panel);
-
+		return addPage(name, PageModel.fromPanel(panel));
+	}
+	
+	/**
+	 * Adds several IPanels to the SITE table in one go, see addPages
+	 * 
+	 * @param panels IPanel page objects keyed by page name
+	 * @return CODES.OK if every page was stored, otherwise the error that
+	 *         stopped them being stored
+	 */
+	public CODES addPageObjs(Map<String, IPanel> panels) {
+		Map<String, PageModel> pages = new LinkedHashMap<String, PageModel>();
+		for (Map.Entry<String, IPanel> panel : panels.entrySet()) {
+			pages.put(panel.getKey(), PageModel.fromPanel(panel.getValue()));
+		}
+		
+		long start = System.nanoTime();
+		boolean stored = false;
+		
 		try {
-			prep.setString(1, name);
-			prep.setBytes(2, stream);
-
-			prep.executeUpdate();
+			addPages(pages, new HashMap<String, String>());
+			stored = true;
 			return CODES.OK;
-		}catch (DerbySQLIntegrityConstraintViolationException e ) {
-			Driver.Log("Panel " + name + " already exists, updating record...");
-			prep = database.prepare(UPDATE_PAGE_OBJECT);
+		} catch (SQLException | IOException e) {
+			Logger.error("{} pages could not be stored", pages.size(), e);
+			return errorCode(e);
+		} finally {
+			metrics.pageWrite.record(start, stored);
+		}
+	}
+	
+	/**
+	 * Adds a page to the SITE table
+	 * If the specified ID already exists, it will be updated with the given page
+	 * 
+	 * The page is updated first, and only inserted if no row was updated,
+	 * in a single transaction.
+	 * 
+	 * @param name
+	 *            Page name to be INSERT'd or UPDATE'd
+	 * @param page
+	 *            description of the page
+	 * @return CODES.OK if the page was stored, otherwise the error that
+	 *         stopped it being stored
+	 */
+	public CODES addPage(String name, PageModel page) {
+		long start = System.nanoTime();
+		boolean stored = false;
+		
+		try (PooledConnection conn = database.lease()) {
+			byte[] stream = pageCodec.encode(page.toBytes());
+			conn.getConnection().setAutoCommit(false);
 			
-			try {
-				prep.setString(2, name);
-				prep.setBytes(1, stream);
+			PreparedStatement update = conn.prepare(UPDATE_PAGE_OBJECT);
+			update.setBytes(1, stream);
+			update.setInt(2, pageCodec.getId());
+			update.setString(3, name);
+			
+			if (update.executeUpdate() == 0) {
+				Logger.debug("Panel {} does not exist yet, inserting record...", name);
+				PreparedStatement insert = conn.prepare(ADD_PAGE_OBJECT);
+				insert.setString(1, name);
+				insert.setBytes(2, stream);
+				insert.setInt(3, pageCodec.getId());
+				insertOrUpdate(insert, update);
+			}
+			
+			conn.getConnection().commit();
+			pageCache.invalidate(name);
+			zoneIndex.putPage(name, page);
+			stored = true;
+			return CODES.OK;
+		} catch (SQLException | IOException e) {
+			Logger.error("Page {} could not be stored", name, e);
+			return errorCode(e);
+		} finally {
+			metrics.pageWrite.record(start, stored);
+		}
+	}
+
+	/**
+	 * Stores many pages in a single transaction, used by the LayoutCompiler.
+	 * Every page is first updated in one batch, and the pages that did not
+	 * already exist are then inserted in a second batch. If the
+	 * erp.db.commitBatch system property is set, a transaction is committed
+	 * after every that many pages instead.
+	 * 
+	 * @param pages the pages to store, keyed by page id
+	 * @param sourceHashes hash of the layout each page was compiled from,
+	 *            keyed by page id
+	 * @return the number of pages written
+	 * @throws SQLException if the pages could not be stored, in which case
+	 *             none of them are, apart from those in transactions that
+	 *             were already committed
+	 * @throws IOException if a page could not be compressed
+	 */
+	public int addPages(Map<String, PageModel> pages, Map<String, String> sourceHashes) throws SQLException, IOException {
+		List<String> ids = new ArrayList<String>(pages.keySet());
+		Map<String, byte[]> streams = new HashMap<String, byte[]>();
+		for (String id : ids) {
+			streams.put(id, pageCodec.encode(pages.get(id).toBytes()));
+		}
+		
+		int commitBatch = Math.max(Integer.getInteger("erp.db.commitBatch", Integer.MAX_VALUE), 1);
+		
+		try (PooledConnection conn = database.lease()) {
+			conn.getConnection().setAutoCommit(false);
+			
+			for (int from = 0; from < ids.size(); from += commitBatch) {
+				List<String> batch = ids.subList(from, (int) Math.min((long) from + commitBatch, ids.size()));
 				
-				prep.executeUpdate();
+				PreparedStatement update = conn.prepare(UPDATE_COMPILED_PAGE);
+				for (String id : batch) {
+					update.setBytes(1, streams.get(id));
+					update.setInt(2, pageCodec.getId());
+					update.setString(3, sourceHashes.get(id));
+					update.setString(4, id);
+					update.addBatch();
+				}
+				int[] updated = update.executeBatch();
 				
-				return CODES.OK;
-			} catch (SQLException e1) {
-				if(Driver.debugmode()) {
-					e1.printStackTrace();
+				PreparedStatement insert = conn.prepare(ADD_COMPILED_PAGE);
+				boolean inserts = false;
+				for (int i = 0; i < batch.size(); i++) {
+					if (updated[i] == 0) {
+						insert.setString(1, batch.get(i));
+						insert.setBytes(2, streams.get(batch.get(i)));
+						insert.setInt(3, pageCodec.getId());
+						insert.setString(4, sourceHashes.get(batch.get(i)));
+						insert.addBatch();
+						inserts = true;
+					}
+				}
+				if (inserts) {
+					try {
+						insert.executeBatch();
+					} catch (BatchUpdateException e) {
+						if (!isDuplicateKey(e)) { throw e; }
+						
+						//Another client inserted some of the pages first, so store the batch one page at a time
+						Logger.debug("Pages were added by another client, storing {} pages one at a time", batch.size());
+						for (String id : batch) {
+							update = conn.prepare(UPDATE_COMPILED_PAGE);
+							update.setBytes(1, streams.get(id));
+							update.setInt(2, pageCodec.getId());
+							update.setString(3, sourceHashes.get(id));
+							update.setString(4, id);
+							if (update.executeUpdate() == 0) {
+								insert = conn.prepare(ADD_COMPILED_PAGE);
+								insert.setString(1, id);
+								insert.setBytes(2, streams.get(id));
+								insert.setInt(3, pageCodec.getId());
+								insert.setString(4, sourceHashes.get(id));
+								insertOrUpdate(insert, update);
+							}
+						}
+					}
 				}
 				
-				return CODES.ERROR;
+				conn.getConnection().commit();
+				
+				Map<String, PageModel> committed = new HashMap<String, PageModel>();
+				batch.forEach(id -> committed.put(id, pages.get(id)));
+				zoneIndex.putPages(committed);
 			}
-		} catch (SQLException e) {
-			if(Driver.debugmode()) {
-				e.printStackTrace();
+		} finally {
+			for (String id : ids) {
+				pageCache.invalidate(id);
+			}
+		}
+		
+		return ids.size();
+	}
+	
+	/**
+	 * Reads the hash of the layout every compiled page was built from
+	 * 
+	 * @return layout hashes keyed by page id. Pages that were not compiled
+	 *         from a layout map to null.
+	 * @throws SQLException if the site table could not be read
+	 */
+	public Map<String, String> getPageSourceHashes() throws SQLException {
+		Map<String, String> hashes = new HashMap<String, String>();
+		
+		try (PooledConnection conn = database.lease()) {
+			PreparedStatement prep = conn.prepare(GET_PAGE_SOURCES, ResultSet.TYPE_FORWARD_ONLY);
+			
+			try (ResultSet rs = prep.executeQuery()) {
+				while (rs.next()) {
+					hashes.put(rs.getString(1), rs.getString(2));
+				}
 			}
-			return CODES.ERROR;
 		}
+		
+		return hashes;
 	}
 
 	/**
@@ -235,145 +494,1058 @@ public final class DBManager {
 	 * 
 	 * @param name
 	 *            id of the object in the database
-	 * @return an IPanel object
+	 * @return an IPanel object, or null if it could not be loaded
 	 */
 	public IPanel getPageObj(String name) {
-		IPanel panel = null;
-		PreparedStatement prep = database.prepare(GET_PAGE_OBJECT);
-
+		long start = System.nanoTime();
+		DatabaseEvent event = DatabaseEvent.start("page.load", name);
+		boolean loaded = false;
+		
 		try {
-			prep.setString(1, name);
-			ResultSet rs = prep.executeQuery();
-
-			rs.next();
-
-			panel = (IPanel) fromByteArray(rs.getBytes(1));
-
+			IPanel panel = loadPageObj(name, false);
+			loaded = true;
+			
+			if (panel == null) {
+				Logger.warn("No page found for {}", name);
+				FrontendDriver.showErrCode(CODES.ERROR);
+			}
+			
+			return panel;
 		} catch (SQLException e) {
+			Logger.error("Page {} could not be read", name, e);
 			FrontendDriver.showErrCode(CODES.ERROR);
-			e.printStackTrace();
+		} catch (IOException | ClassCastException | ClassNotFoundException e) {
+			Logger.error("Page {} could not be converted to an object", name, e);
+			FrontendDriver.showErrCode(CODES.BYTE_ARRAY_ERROR, "The stream could not be converted to an object");
+		} finally {
+			metrics.pageLoad.record(start, loaded);
+			event.finish(loaded, 0);
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Loads an IPanel on the database thread pool, so the caller does not
+	 * wait on the database. No error messages are shown; if the page could
+	 * not be loaded the future completes exceptionally.
+	 * 
+	 * @param name
+	 *            id of the object in the database
+	 * @return a future completed with the IPanel, or null if no page has that
+	 *         id
+	 */
+	public CompletableFuture<IPanel> getPageObjAsync(String name) {
+		long start = System.nanoTime();
+		DatabaseEvent event = DatabaseEvent.start("page.load", name);
+		
+		IPanel cached = pageCache.get(name);
+		if (cached != null) {
+			metrics.pageLoad.record(start, true);
+			event.finish(true, 0);
+			return CompletableFuture.completedFuture(cached);
+		}
+		
+		return timed(metrics.pageLoad, start, event, panel -> 0, submit(() -> loadPageObj(name, true)));
+	}
+	
+	/**
+	 * Gets a page from the page cache, or reads it and builds its Swing
+	 * components.
+	 * 
+	 * Cached pages are shared, so the same IPanel is returned every time a
+	 * page is opened. Swing removes a component from its old parent when it
+	 * is added to a new one, so the Window can attach a cached page as many
+	 * times as it likes.
+	 * 
+	 * @param name id of the page
+	 * @param counted true if the caller has already looked the page up, so
+	 *            the cache is checked again without counting a second miss
+	 * @return the page, or null if no page has that id
+	 */
+	private IPanel loadPageObj(String name, boolean counted) throws SQLException, IOException, ClassNotFoundException {
+		IPanel panel = counted ? pageCache.peek(name) : pageCache.get(name);
+		if (panel != null) { return panel; }
+		
+		try (PooledConnection conn = database.lease()) {
+			return readPageObj(conn, name);
+		}
+	}
+	
+	/**
+	 * Reads a page from the database and adds it to the page cache
+	 * 
+	 * @param conn connection to read the page with
+	 * @param name id of the page
+	 * @return the page, or null if no page has that id
+	 */
+	private IPanel readPageObj(PooledConnection conn, String name) throws SQLException, IOException, ClassNotFoundException {
+		IPanel panel;
+		long generation = pageCache.generation();
+		
+		SqlEvent sql = SqlEvent.start("page.select", name);
+		PreparedStatement prep = conn.prepare(GET_PAGE_OBJECT, ResultSet.TYPE_FORWARD_ONLY);
+		prep.setString(1, name);
+		
+		try (ResultSet rs = prep.executeQuery()) {
+			if (!rs.next()) { return null; }
+			
+			byte[] stored = rs.getBytes(1);
+			Codec codec = Codec.fromId(rs.getInt(2));
+			sql.finish(stored.length);
+			
+			panel = decodePage(name, stored, codec);
 		}
+		
+		panel.setPageID(name);
+		pageCache.putIfCurrent(name, panel, generation); //Unless the page was saved while it was loading
+		return panel;
+	}
 
-		panel.setImage(panel.getImagePath());
+	/**
+	 * Reads a page in its stored PageModel form, without building its Swing
+	 * components. Used to send pages to other machines, see server.ErpServer.
+	 * 
+	 * @param name id of the page
+	 * @return the page as written by PageModel.toBytes, or null if no page
+	 *         has that id
+	 * @throws SQLException if the page could not be read
+	 * @throws IOException if the page could not be decompressed or converted
+	 */
+	public byte[] getPageBytes(String name) throws SQLException, IOException {
+		long start = System.nanoTime();
+		boolean loaded = false;
+		
+		try (PooledConnection conn = database.lease()) {
+			SqlEvent sql = SqlEvent.start("page.select", name);
+			PreparedStatement prep = conn.prepare(GET_PAGE_OBJECT, ResultSet.TYPE_FORWARD_ONLY);
+			prep.setString(1, name);
+			
+			byte[] page;
+			try (ResultSet rs = prep.executeQuery()) {
+				if (!rs.next()) {
+					loaded = true;
+					return null;
+				}
+				
+				byte[] stored = rs.getBytes(1);
+				sql.finish(stored.length);
+				page = Codec.fromId(rs.getInt(2)).decode(stored);
+			}
+			
+			if (!PageModel.isPageModel(page)) { //Not yet converted by migratePages
+				page = PageModel.fromPanel(toPanel(page)).toBytes();
+			}
+			
+			loaded = true;
+			return page;
+		} catch (ClassNotFoundException | ClassCastException e) {
+			throw new IOException("Page " + name + " could not be converted", e);
+		} finally {
+			metrics.pageLoad.record(start, loaded);
+		}
+	}
+	
+	/**
+	 * Decompresses a stored page and builds it, recording a PageDecodeEvent
+	 */
+	private static IPanel decodePage(String name, byte[] stored, Codec codec) throws IOException, ClassNotFoundException {
+		PageDecodeEvent event = new PageDecodeEvent();
+		event.begin();
+		
+		IPanel panel = toPanel(codec.decode(stored));
+		
+		if (event.shouldCommit()) {
+			event.pageId = name;
+			event.bytes = stored.length;
+			event.codec = codec.name();
+			event.commit();
+		}
 		return panel;
 	}
+	
+	/**
+	 * Builds a page from its stored form. Pages saved by older versions are
+	 * serialized IPanels rather than PageModels, and are deserialized instead.
+	 * 
+	 * @param stream the stored page
+	 * @return the page's Swing components
+	 */
+	private static IPanel toPanel(byte[] stream) throws IOException, ClassNotFoundException {
+		if (PageModel.isPageModel(stream)) {
+			return PageModel.fromBytes(stream).toPanel();
+		}
+		
+		try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(stream))) {
+			IPanel panel = (IPanel) ois.readObject();
+			panel.setImage(panel.getImagePath());
+			return panel;
+		}
+	}
+	
+	/**
+	 * Converts any pages still stored as serialized IPanels into PageModels.
+	 * Only rows with a page_format of 0 are read, so once every page has been
+	 * converted this costs a single empty query.
+	 * 
+	 * A conversion replaces the stored page, so pages with components a
+	 * PageModel cannot describe, such as plain JButtons and JLabels, are left
+	 * as they are and still shown from the serialized IPanel.
+	 */
+	private void migratePages() {
+		int migrated = 0, skipped = 0;
+		long before = 0, after = 0;
+		
+		try (PooledConnection conn = database.lease()) {
+			conn.getConnection().setAutoCommit(false); //Convert every page in one transaction
+			PreparedStatement select = conn.prepare(GET_LEGACY_PAGES, ResultSet.TYPE_FORWARD_ONLY);
+			
+			try (ResultSet rs = select.executeQuery()) {
+				PreparedStatement update = conn.prepare(UPDATE_PAGE_OBJECT);
+				
+				while (rs.next()) {
+					String id = rs.getString(1);
+					byte[] stream = rs.getBytes(2);
+					
+					try {
+						IPanel panel = toPanel(Codec.fromId(rs.getInt(3)).decode(stream));
+						List<String> unsupported = PageModel.unsupportedComponents(panel);
+						if (!unsupported.isEmpty()) {
+							Logger.warn("Page {} was not converted, it has components that would be lost: {}", id, unsupported);
+							skipped++;
+							continue;
+						}
+						
+						byte[] converted = pageCodec.encode(PageModel.fromPanel(panel).toBytes());
+						
+						update.setBytes(1, converted);
+						update.setInt(2, pageCodec.getId());
+						update.setString(3, id);
+						update.executeUpdate();
+						
+						migrated++;
+						before += stream.length;
+						after += converted.length;
+					} catch (IOException | ClassCastException | ClassNotFoundException e) {
+						Logger.warn("Page {} could not be converted", id, e);
+					}
+				}
+			}
+			
+			conn.getConnection().commit();
+		} catch (SQLException e) {
+			Logger.error("Pages could not be converted", e);
+		}
+		
+		if (migrated > 0) {
+			Logger.info("Converted {} pages to the compact page format, {} bytes to {} bytes", migrated, before, after);
+		}
+		if (skipped > 0) {
+			Logger.warn("{} pages were left in the old page format", skipped);
+		}
+	}
 
 	/**
 	 * Pulls an ERP from the database with the given id
 	 * If no ERP exists for the given ID, it will prompt the user to upload one
 	 * 
-	 * @param siteid
-	 * @return
+	 * Only the hash of the stored ERP is read first. If that version is already
+	 * in the local ERP cache the cached file is returned, otherwise the BLOB is
+	 * streamed into the cache. Rows written by older versions, which only hold
+	 * a serialized File, are still read back as that File.
+	 * 
+	 * @param id id of the ERP
+	 * @return a local file containing the ERP, or null if none exists
 	 */
 	public File getERP(String id) {
-		PreparedStatement prep = database.prepare(GET_ERP_OBJECT);
-		ResultSet results = null;
-		boolean valid = false;
-		byte[] stream = null;
+		long start = System.nanoTime();
+		DatabaseEvent event = DatabaseEvent.start("erp.read", id);
+		boolean loaded = false;
 		
 		try {
-			prep.setString(1, id);
-			results = prep.executeQuery();
+			File file = loadERP(id);
+			loaded = true;
+			metrics.erpRead.record(start, true); //Before any prompt, which would be counted as waiting on the database
+			event.finish(true, file == null ? 0 : file.length());
 			
-			valid = results.first();
-			if (! valid) {
-				Driver.Log("No ERP found for " + id);
+			if (file == null) {
 				FrontendDriver.noERPFound(id);
-				return null;
 			}
 			
-			stream = results.getBytes(1);
-			
-			if(stream != null) { 
-				File test = (File) fromByteArray(stream);
-				System.out.println(test);
-				return test;
-			}
-		} catch (SQLException e) {
-			Driver.Log(e.toString());
-			if(Driver.debugmode())
-				e.printStackTrace();
+			return file;
+		} catch (SQLException | IOException e) {
+			Logger.error("ERP {} could not be read", id, e);
 			
 			return (File) FrontendDriver.showErrCode(CODES.ERROR, CODES.ERROR.getMessage());
-		} catch (ClassCastException e) {
+		} catch (ClassCastException | ClassNotFoundException e) {
 			return (File) FrontendDriver.showErrCode(CODES.CORRUPT_ERP, CODES.CORRUPT_ERP.getMessage());
+		} finally {
+			if (!loaded) {
+				metrics.erpRead.record(start, false);
+				event.finish(false, 0);
+			}
+		}
+	}
+	
+	/**
+	 * Pulls an ERP from the database on the database thread pool. No
+	 * prompts or error messages are shown; the caller is responsible for
+	 * handling a missing ERP or a failed future.
+	 * 
+	 * @param id id of the ERP
+	 * @return a future completed with a local file containing the ERP, or
+	 *         null if none exists
+	 */
+	public CompletableFuture<File> getERPAsync(String id) {
+		return timed(metrics.erpRead, System.nanoTime(), DatabaseEvent.start("erp.read", id), File::length, 
+				submit(() -> loadERP(id)));
+	}
+	
+	/**
+	 * Finds an ERP in the ERP cache, or streams it out of the database
+	 * 
+	 * @param id id of the ERP
+	 * @return a local file containing the ERP, or null if none exists
+	 */
+	private File loadERP(String id) throws SQLException, IOException, ClassNotFoundException {
+		try (PooledConnection conn = database.lease()) {
+			return loadERP(conn, id, Long.MAX_VALUE);
+		}
+	}
+	
+	/**
+	 * Finds an ERP in the ERP cache, or streams it out of the database if it
+	 * is no larger than maxBytes. ERPs stored before sizes were kept could be
+	 * any size, so with a limit they are only returned if already cached.
+	 * 
+	 * @param conn connection to read the ERP with
+	 * @param id id of the ERP
+	 * @param maxBytes largest ERP to read from the database, or
+	 *            Long.MAX_VALUE for no limit
+	 * @return a local file containing the ERP, or null if none exists or it
+	 *         is larger than maxBytes
+	 */
+	private File loadERP(PooledConnection conn, String id, long maxBytes) throws SQLException, IOException, ClassNotFoundException {
+		PreparedStatement prep = conn.prepare(GET_ERP_HASH, ResultSet.TYPE_FORWARD_ONLY);
+		prep.setString(1, id);
+		String hash;
+		long size;
+		
+		try (ResultSet results = prep.executeQuery()) {
+			if (!results.next()) {
+				Logger.info("No ERP found for {}", id);
+				return null;
+			}
+			
+			hash = results.getString(1);
+			size = results.getLong(2); //0 for ERPs stored before sizes were kept
 		}
 		
-		Driver.Log("NULL STREAM");
-		return null;
+		File cached = erpCache.lookup(id, hash);
+		if (cached != null) {
+			Logger.debug("ERP {} found in cache", id);
+			return cached;
+		}
+		
+		if (maxBytes != Long.MAX_VALUE && (size <= 0 || size > maxBytes)) { return null; }
+		
+		return readERP(conn, id, hash, true);
+	}
+	
+	/**
+	 * Streams an ERP out of the database into the ERP cache
+	 * 
+	 * @param conn connection to read the ERP with
+	 * @param id id of the ERP
+	 * @param hash hash of the ERP as last read from the database
+	 * @param returned true if the ERP is being opened, false for a prefetch
+	 * @return the cached file, or null if the ERP has no contents
+	 */
+	private File readERP(PooledConnection conn, String id, String hash, boolean returned) throws SQLException, IOException, ClassNotFoundException {
+		SqlEvent sql = SqlEvent.start("erp.select", id);
+		PreparedStatement prep = conn.prepare(GET_ERP_OBJECT, ResultSet.TYPE_FORWARD_ONLY);
+		prep.setString(1, id);
+		
+		try (ResultSet results = prep.executeQuery()) {
+			if (! results.next()) {
+				Logger.warn("ERP {} was removed while it was being read", id);
+				return null;
+			}
+			
+			Blob blob = results.getBlob(1);
+			Codec codec = Codec.fromId(results.getInt(2));
+			
+			if (blob == null) {
+				Logger.warn("ERP {} has no contents", id);
+				return null;
+			}
+			
+			try (InputStream in = new BufferedInputStream(codec.decompressing(blob.getBinaryStream()), STREAM_BUFFER_SIZE)) {
+				if (isSerialized(in)) {
+					return (File) new ObjectInputStream(in).readObject();
+				}
+				
+				File file = erpCache.store(id, in, returned);
+				sql.finish(file.length());
+				
+				String stored = ErpCache.hashOf(file);
+				if (!stored.equals(hash)) {
+					setERPHash(conn, id, stored, file.length()); //Rows written before hashes were kept, or changed since the lookup
+				}
+				
+				Logger.debug("ERP {} written to {}", id, file);
+				return file;
+			} finally {
+				blob.free();
+			}
+		}
 	}
 
 	/**
 	 * Add an ERP to the database with the associated id
 	 * 
+	 * The contents of the file are streamed into the BLOB through a fixed size
+	 * buffer, and the upload is aborted if more than MAX_PDF_BYTES are read.
+	 * The SHA-256 of the contents is computed on the way through and stored
+	 * alongside the ERP for the ERP cache.
+	 * 
 	 * @param id
+	 * @param file PDF to upload
 	 * 
-	 * @return the uploaded file
+	 * @return the uploaded file, or null if it could not be stored
 	 */
 	public File setERP(String id, File file) {
-		PreparedStatement prep = database.prepare(ADD_ERP_OBJECT);
-		
-		byte[] stream = toByteArray(file);
+		if (file.length() > MAX_PDF_BYTES) {
+			return (File) FrontendDriver.showErrCode(CODES.FILESIZE_LIMIT, CODES.FILESIZE_LIMIT.getMessage());
+		}
 
+		long start = System.nanoTime();
+		DatabaseEvent event = DatabaseEvent.start("erp.write", id);
+		boolean stored = false;
+		
 		try {
-			prep.setString(1, id);
-			prep.setBytes(2, stream);
-
-			prep.executeUpdate();
-		}catch (DerbySQLIntegrityConstraintViolationException e) {
-			Driver.Log("ERP " + file + " already exists, updating record...");
-			prep = database.prepare(UPDATE_ERP_OBJECT);
+			File result = storeERP(id, file);
+			stored = true;
+			return result;
+		}catch (SQLException | IOException e) {
+			Logger.error("An error occured trying to set ERP {}", id, e);
+			return null;
+		} finally {
+			metrics.erpWrite.record(start, stored);
+			event.finish(stored, file.length());
+		}
+	}
+	
+	/**
+	 * Adds an ERP to the database on the database thread pool. No error
+	 * messages are shown; if the upload fails the future completes
+	 * exceptionally.
+	 * 
+	 * @param id id of the ERP
+	 * @param file PDF to upload
+	 * @return a future completed with the uploaded file
+	 */
+	public CompletableFuture<File> setERPAsync(String id, File file) {
+		return timed(metrics.erpWrite, System.nanoTime(), DatabaseEvent.start("erp.write", id), File::length, 
+				submit(() -> storeERP(id, file)));
+	}
+	
+	/**
+	 * Stores several ERPs in a single transaction, replacing any existing
+	 * ERPs with the same ids, see setERPs(Map, Map)
+	 * 
+	 * @param files PDFs keyed by the id of their ERP
+	 * @return the number of ERPs stored
+	 */
+	public int setERPs(Map<String, File> files) throws SQLException, IOException {
+		return setERPs(files, Collections.<String, String>emptyMap());
+	}
+	
+	/**
+	 * Stores several ERPs in a single transaction, replacing any existing
+	 * ERPs with the same ids. Used to import ERPs in bulk, see
+	 * database.ErpImporter.
+	 * 
+	 * @param files PDFs keyed by the id of their ERP
+	 * @param hashes hex SHA-256 of the files that the caller has already
+	 *            read, keyed by the id of their ERP. The rest are hashed as
+	 *            they are stored.
+	 * @return the number of ERPs stored
+	 * @throws SQLException if the ERPs could not be stored, in which case
+	 *             none of them are
+	 * @throws IOException if a file could not be read
+	 * @throws SizeLimitExceededException if a file is larger than MAX_PDF_BYTES
+	 */
+	public int setERPs(Map<String, File> files, Map<String, String> hashes) throws SQLException, IOException {
+		long start = System.nanoTime();
+		long bytes = 0;
+		DatabaseEvent event = DatabaseEvent.start("erp.import", files.size() + " ERPs");
+		boolean stored = false;
+		
+		try (PooledConnection conn = database.lease()) {
+			conn.getConnection().setAutoCommit(false);
 			
+			for (Map.Entry<String, File> entry : files.entrySet()) {
+				writeERP(conn, entry.getKey(), entry.getValue(), erpExists(conn, entry.getKey()), hashes.get(entry.getKey()));
+				bytes += entry.getValue().length();
+			}
+			
+			conn.getConnection().commit();
+			stored = true;
+			files.keySet().forEach(textIndex::schedule);
+		} finally {
+			for (String id : files.keySet()) {
+				erpCache.invalidate(id);
+			}
+			
+			metrics.erpWrite.record(start, stored);
+			event.finish(stored, bytes);
+		}
+		
+		return files.size();
+	}
+	
+	/**
+	 * Reads the hash of every stored ERP
+	 * 
+	 * @return hex SHA-256 hashes keyed by ERP id. ERPs stored before hashes
+	 *         were kept map to an empty string.
+	 * @throws SQLException if the erp table could not be read
+	 */
+	public Map<String, String> getERPHashes() throws SQLException {
+		Map<String, String> hashes = new HashMap<String, String>();
+		
+		try (PooledConnection conn = database.lease()) {
+			PreparedStatement prep = conn.prepare(GET_ERP_HASHES, ResultSet.TYPE_FORWARD_ONLY);
+			
+			try (ResultSet rs = prep.executeQuery()) {
+				while (rs.next()) {
+					hashes.put(rs.getString(1), rs.getString(2));
+				}
+			}
+		}
+		
+		return hashes;
+	}
+	
+	/**
+	 * Streams a PDF into the erp table as either a new or a replacement
+	 * ERP, along with its hash and a new revision in the ChunkStore. The file
+	 * is read a second time to chunk it, and that read is checked against the
+	 * hash of the first, so a file that changes in between is not stored.
+	 * 
+	 * @param conn connection to write with, which should be in a transaction
+	 * @param id id of the ERP
+	 * @param file PDF to store
+	 * @param exists true if the ERP is already in the erp table
+	 * @param knownHash hex SHA-256 of the file, or null to hash it as it is
+	 *            stored
+	 */
+	private void writeERP(PooledConnection conn, String id, File file, boolean exists, String knownHash)
+			throws SQLException, IOException {
+		if (file.length() > MAX_PDF_BYTES) {
+			throw new SizeLimitExceededException(MAX_PDF_BYTES);
+		}
+		
+		String hash = null;
+		if (!exists) {
 			try {
-				prep.setString(2, id);
-				prep.setBytes(1, stream);
-				
-				prep.executeUpdate();
-				
-			} catch (SQLException e1) {
-				if(Driver.debugmode()) {
-					e1.printStackTrace();
+				hash = streamERP(conn, id, file, true, knownHash);
+			} catch (SQLIntegrityConstraintViolationException e) {
+				//Another client added the ERP after it was checked for, so replace theirs instead
+				Logger.debug("ERP {} was added by another client, replacing it", id);
+			}
+		}
+		if (hash == null) {
+			hash = streamERP(conn, id, file, false, knownHash);
+		}
+		setERPHash(conn, id, hash, file.length());
+		
+		try (InputStream in = openPdf(file)) {
+			ChunkStore.addRevision(conn, id, in, hash);
+		}
+	}
+	
+	/**
+	 * Streams a PDF into the pdf column of a new or an existing erp row
+	 * 
+	 * @param insert true to insert a new row, false to update the existing one
+	 * @param knownHash hex SHA-256 of the PDF, or null to hash it on the way
+	 *            through
+	 * @return the hex SHA-256 of the PDF
+	 * @throws SQLIntegrityConstraintViolationException if a row is inserted
+	 *             for an ERP that already has one
+	 */
+	private String streamERP(PooledConnection conn, String id, File file, boolean insert, String knownHash)
+			throws SQLException, IOException {
+		MessageDigest digest = knownHash == null ? sha256() : null;
+		
+		try (InputStream in = digest == null ? openPdf(file) : new DigestInputStream(openPdf(file), digest)) {
+			PreparedStatement prep;
+			if (insert) {
+				prep = conn.prepare(ADD_ERP_OBJECT);
+				prep.setString(1, id);
+				setERPStream(prep, 2, in, file.length());
+				prep.setInt(3, erpCodec.getId());
+			} else {
+				prep = conn.prepare(UPDATE_ERP_OBJECT);
+				setERPStream(prep, 1, in, file.length());
+				prep.setInt(2, erpCodec.getId());
+				prep.setString(3, id);
+			}
+			
+			prep.executeUpdate();
+		}
+		
+		return digest == null ? knownHash : toHex(digest.digest());
+	}
+	
+	/**
+	 * Runs the INSERT of an update-first upsert whose UPDATE found no row.
+	 * Another client may insert the same row between the two, in which case
+	 * the INSERT fails with a duplicate key and the UPDATE is run again,
+	 * still within the same transaction.
+	 * 
+	 * @param insert the INSERT, with its parameters set
+	 * @param update the UPDATE that found no row, with its parameters set
+	 */
+	private static void insertOrUpdate(PreparedStatement insert, PreparedStatement update) throws SQLException {
+		try {
+			insert.executeUpdate();
+		} catch (SQLIntegrityConstraintViolationException e) {
+			if (update.executeUpdate() == 0) { throw e; } //Deleted again since, so give up
+		}
+	}
+	
+	/**
+	 * @return true if an exception, or one chained to it, reports a
+	 *         duplicate key
+	 */
+	static boolean isDuplicateKey(SQLException e) {
+		for (SQLException next = e; next != null; next = next.getNextException()) {
+			for (Throwable cause = next; cause != null; cause = cause.getCause()) {
+				if (cause instanceof SQLIntegrityConstraintViolationException
+						|| (cause instanceof SQLException && DUPLICATE_KEY_STATE.equals(((SQLException) cause).getSQLState()))) {
+					return true;
 				}
-				
 			}
-		}catch (SQLException e) {
-			Driver.Log("An error occured trying to set an ERP");
-			e.printStackTrace();
-		} 
+		}
+		return false;
+	}
+	
+	/**
+	 * Checks whether an ERP is in the erp table
+	 * 
+	 * @param conn connection to check with
+	 * @param id id of the ERP
+	 * @return true if a row exists for the ERP
+	 */
+	private boolean erpExists(PooledConnection conn, String id) throws SQLException {
+		PreparedStatement prep = conn.prepare(HAS_ERP, ResultSet.TYPE_FORWARD_ONLY);
+		prep.setString(1, id);
+		
+		try (ResultSet rs = prep.executeQuery()) {
+			return rs.next();
+		}
+	}
+	
+	/**
+	 * Streams a PDF into the erp table, replacing any existing ERP with the
+	 * same id. The ERP is updated if it already exists, and inserted
+	 * otherwise, in a single transaction.
+	 * 
+	 * @param id id of the ERP
+	 * @param file PDF to upload
+	 * @return the uploaded file
+	 * @throws SizeLimitExceededException if the file is larger than MAX_PDF_BYTES
+	 */
+	private File storeERP(String id, File file) throws SQLException, IOException {
+		SqlEvent sql = SqlEvent.start("erp.store", id);
+		
+		try (PooledConnection conn = database.lease()) {
+			conn.getConnection().setAutoCommit(false); //The ERP and its revision are stored together
+			writeERP(conn, id, file, erpExists(conn, id), null);
+			conn.getConnection().commit();
+			erpCache.invalidate(id);
+		}
+		
+		textIndex.schedule(id);
+		
+		sql.finish(file.length());
 		
 		return file;
 	}
 	
 	/**
-	 * Performs an INSERT or UPDATE query to change the password
+	 * Records the hash of the stored contents of an ERP
+	 * 
+	 * @param conn connection to update the ERP with
+	 * @param id id of the ERP
+	 * @param hash hex SHA-256 of the stored PDF
+	 * @param size length of the stored PDF in bytes
+	 */
+	private void setERPHash(PooledConnection conn, String id, String hash, long size) throws SQLException {
+		PreparedStatement prep = conn.prepare(SET_ERP_HASH);
+		
+		prep.setString(1, hash);
+		prep.setLong(2, size);
+		prep.setString(3, id);
+		prep.executeUpdate();
+	}
+	
+	static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			/* Every JVM is required to provide SHA-256 */
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * Opens a buffered stream over a PDF that will fail once more than
+	 * MAX_PDF_BYTES have been read from it
+	 * 
+	 * @param file PDF to open
+	 * @return a stream over the contents of file
+	 * @throws IOException if the file could not be opened
+	 */
+	private InputStream openPdf(File file) throws IOException {
+		return new SizeLimitedInputStream(
+				new BufferedInputStream(new FileInputStream(file), STREAM_BUFFER_SIZE), MAX_PDF_BYTES);
+	}
+	
+	/**
+	 * Binds the contents of an ERP to a statement, compressed with erpCodec.
+	 * Uncompressed ERPs are bound with their length, which lets Derby write
+	 * them in a single pass.
+	 */
+	private void setERPStream(PreparedStatement prep, int index, InputStream in, long length) throws SQLException {
+		if (erpCodec == Codec.NONE) {
+			prep.setBinaryStream(index, in, length);
+		} else {
+			prep.setBinaryStream(index, erpCodec.compressing(in));
+		}
+	}
+	
+	/**
+	 * Checks whether a stream starts with the Java serialization header, which
+	 * is how ERPs were stored before their contents were kept in the database.
+	 * The stream is reset to its start before returning.
+	 * 
+	 * @param in Stream to check, must support mark/reset
+	 * @return true if the stream holds a serialized object
+	 */
+	static boolean isSerialized(InputStream in) throws IOException {
+		in.mark(2);
+		int b1 = in.read();
+		int b2 = in.read();
+		in.reset();
+		
+		return b1 == 0xAC && b2 == 0xED;
+	}
+	
+	/**
+	 * Copies everything from in to out through a fixed size buffer
+	 * 
+	 * @return the number of bytes copied
+	 */
+	static long copy(InputStream in, OutputStream out) throws IOException {
+		byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+		long total = 0;
+		int n;
+		
+		while ((n = in.read(buffer)) != -1) {
+			out.write(buffer, 0, n);
+			total += n;
+		}
+		
+		return total;
+	}
+	
+	/**
+	 * Performs an UPDATE, or an INSERT if no password has been set yet, to
+	 * change the password
 	 * 
-	 * @param in
+	 * @param in the new password
+	 * @return CODES.OK if the password was changed, otherwise the error that
+	 *         stopped it being changed
 	 */
-	public void setPassword(String in) {
+	public CODES setPassword(String in) {
 		String hashed = hash(in);
-		Driver.Log("Attempting to set/update password");
+		Logger.info("Attempting to set/update password");
+		
+		try (PooledConnection conn = database.lease()) {
+			conn.getConnection().setAutoCommit(false);
+			
+			PreparedStatement update = conn.prepare(UPDATE_PASS);
+			update.setString(1, hashed);
+			
+			if (update.executeUpdate() == 0) {
+				Logger.debug("No password set, inserting password");
+				PreparedStatement insert = conn.prepare(SET_PASS);
+				insert.setString(1, hashed);
+				insertOrUpdate(insert, update);
+			}
+			
+			conn.getConnection().commit();
+			return CODES.OK;
+		} catch (SQLException e) {
+			Logger.error("The password could not be set", e);
+			return errorCode(e);
+		}
+	}
+	
+	/**
+	 * @return the hit and miss counts of the PreparedStatement caches
+	 */
+	public CacheStats getStatementCacheStats() {
+		return database.getStatementCacheStats();
+	}
+	
+	/**
+	 * @return the hit and miss counts of the ERP cache, and the total size
+	 *         in bytes of the cached files
+	 */
+	public CacheStats getErpCacheStats() {
+		return erpCache.stats();
+	}
+	
+	/**
+	 * @return latency histograms for each kind of operation, along with the
+	 *         cache and connection pool statistics
+	 */
+	public DatabaseMetrics getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * @return the hit and miss counts of the page cache
+	 */
+	public CacheStats getPageCacheStats() {
+		return pageCache.stats();
+	}
+	
+	/**
+	 * @return the number of active and idle database connections, and how
+	 *         long callers have waited for them
+	 */
+	public PoolStats getPoolStats() {
+		return database.getPoolStats();
+	}
+	
+	/**
+	 * @param id id of the ERP
+	 * @return every revision of the ERP that has been uploaded, oldest first
+	 * @throws SQLException if the revisions could not be read
+	 */
+	public List<ErpRevision> getERPRevisions(String id) throws SQLException {
+		try (PooledConnection conn = database.lease()) {
+			return ChunkStore.revisions(conn, id);
+		}
+	}
+	
+	/**
+	 * Writes an earlier revision of an ERP to a file
+	 * 
+	 * @param id id of the ERP
+	 * @param revision revision to write, see getERPRevisions()
+	 * @param dest file to write the revision to
+	 * @return dest, or null if the ERP has no such revision
+	 * @throws SQLException if the revision could not be read
+	 * @throws IOException if the file could not be written
+	 */
+	public File exportERPRevision(String id, int revision, File dest) throws SQLException, IOException {
+		try (PooledConnection conn = database.lease()) {
+			try (InputStream in = ChunkStore.open(conn, id, revision)) {
+				if (in == null) { return null; }
+				
+				try (OutputStream out = new FileOutputStream(dest)) {
+					copy(in, out);
+				}
+			}
+		}
 		
-		PreparedStatement prep = database.prepare(SET_PASS);
+		return dest;
+	}
+	
+	/**
+	 * @return the space taken up by ERP revisions, and how much smaller
+	 *         that is than keeping a full copy of each
+	 * @throws SQLException if the chunk store could not be read
+	 */
+	public ChunkStats getChunkStats() throws SQLException {
+		try (PooledConnection conn = database.lease()) {
+			return ChunkStore.stats(conn);
+		}
+	}
+	
+	/**
+	 * Reads the stored pages and ERPs, uncompressed, for bench.CodecBenchmark
+	 * 
+	 * @param maxERPBytes total size of the ERPs to read
+	 * @return the raw pages and ERPs, keyed by "pages" and "erps"
+	 * @throws SQLException if the database could not be read
+	 * @throws IOException if a row could not be decompressed
+	 */
+	public Map<String, List<byte[]>> getCodecSamples(long maxERPBytes) throws SQLException, IOException, ClassNotFoundException {
+		Map<String, List<byte[]>> samples = new LinkedHashMap<String, List<byte[]>>();
+		List<byte[]> pages = new ArrayList<byte[]>();
+		List<byte[]> erps = new ArrayList<byte[]>();
+		List<String> ids = new ArrayList<String>();
 		
-		try {
-			prep.setString(1, hashed);
-			prep.executeUpdate();
-		}catch (DerbySQLIntegrityConstraintViolationException e) {
-			Driver.Log("Updating password");
-			prep = database.prepare(UPDATE_PASS);
+		try (PooledConnection conn = database.lease()) {
+			try (ResultSet rs = conn.prepare(GET_ALL_PAGES, ResultSet.TYPE_FORWARD_ONLY).executeQuery()) {
+				while (rs.next()) {
+					pages.add(Codec.fromId(rs.getInt(2)).decode(rs.getBytes(1)));
+				}
+			}
 			
-			try {
-				prep.setString(1, hashed);
-				prep.executeUpdate();
-			} catch (SQLException e1) {
-				if(Driver.debugmode()) {
-					e1.printStackTrace();
+			try (ResultSet rs = conn.prepare(GET_ERP_IDS, ResultSet.TYPE_FORWARD_ONLY).executeQuery()) {
+				while (rs.next()) {
+					ids.add(rs.getString(1));
 				}
+			}
+			
+			long remaining = maxERPBytes;
+			for (String id : ids) {
+				File file = loadERP(conn, id, remaining);
+				if (file != null && file.length() <= remaining) {
+					erps.add(Files.readAllBytes(file.toPath()));
+					remaining -= file.length();
+				}
+			}
+		}
+		
+		samples.put("pages", pages);
+		samples.put("erps", erps);
+		return samples;
+	}
+	
+	/**
+	 * @return the prefetcher that loads likely next pages and ERPs in the
+	 *         background
+	 */
+	public Prefetcher getPrefetcher() {
+		return prefetcher;
+	}
+	
+	/**
+	 * @return the index of the text of the ERPs
+	 */
+	public TextIndex getTextIndex() {
+		return textIndex;
+	}
+	
+	/**
+	 * @return the index of the buttons on every page, for jumping straight
+	 *         to a zone or ERP
+	 */
+	public ZoneIndex getZoneIndex() {
+		return zoneIndex;
+	}
+	
+	/**
+	 * Finds the ERPs whose text contains the words of a query, on the
+	 * database thread pool. ERPs stored in the last few seconds may not have
+	 * been indexed yet.
+	 * 
+	 * @param query words to look for
+	 * @param limit most ERPs to return
+	 * @return a future completed with the best matches, best first
+	 */
+	public CompletableFuture<List<SearchHit>> searchERPsAsync(String query, int limit) {
+		return timed(metrics.erpSearch, System.nanoTime(), DatabaseEvent.start("erp.search", query), List::size, 
+				submit(() -> textIndex.search(query, limit)));
+	}
+	
+	/**
+	 * Borrows a connection for one of the helpers that run their own
+	 * queries, such as the TextIndex
+	 */
+	PooledConnection lease() throws SQLException {
+		return database.lease();
+	}
+	
+	/**
+	 * @return true if a user-initiated database operation is running
+	 */
+	boolean isForegroundBusy() {
+		return foreground.get() > 0;
+	}
+	
+	/**
+	 * Reads a page into the page cache, if it is not already there and a
+	 * connection can be spared. Does nothing if the page cache is turned off.
+	 * 
+	 * @param name id of the page
+	 * @return true if the page was read from the database
+	 */
+	boolean prefetchPage(String name) throws SQLException, IOException, ClassNotFoundException {
+		if (pageCache.getMaxWeight() == 0 || pageCache.contains(name)) { return false; }
+		
+		try (PooledConnection conn = database.tryLease()) {
+			return conn != null && readPageObj(conn, name) != null;
+		}
+	}
+	
+	/**
+	 * Streams an ERP into the ERP cache, if it is not already cached, a
+	 * connection can be spared and its size can be taken from the budget.
+	 * ERPs stored before sizes were kept could be any size, so are never
+	 * prefetched. The size is given back to the budget if the ERP could not
+	 * be read.
+	 * 
+	 * @param id id of the ERP
+	 * @param budget bytes that may still be read, shared by the fetches for
+	 *            the page being shown
+	 * @return the number of bytes read, or 0 if the ERP was not fetched
+	 */
+	long prefetchERP(String id, AtomicLong budget) throws SQLException, IOException, ClassNotFoundException {
+		if (budget.get() <= 0) { return 0; }
+		
+		try (PooledConnection conn = database.tryLease()) {
+			if (conn == null) { return 0; }
+			
+			PreparedStatement prep = conn.prepare(GET_ERP_HASH, ResultSet.TYPE_FORWARD_ONLY);
+			prep.setString(1, id);
+			String hash;
+			long size;
+			
+			try (ResultSet results = prep.executeQuery()) {
+				if (!results.next()) { return 0; }
 				
+				hash = results.getString(1);
+				size = results.getLong(2);
+			}
+			
+			if (size <= 0 || erpCache.contains(hash) || !reserve(budget, size)) { return 0; }
+			
+			boolean read = false;
+			try {
+				read = readERP(conn, id, hash, false) != null;
+				return read ? size : 0;
+			} finally {
+				if (!read) {
+					budget.addAndGet(size);
+				}
 			}
-		}catch (SQLException e) {
-			e.printStackTrace();
-		} 
+		}
+	}
+	
+	/**
+	 * Takes bytes from a budget shared between threads, if there are enough
+	 * 
+	 * @return true if they were taken
+	 */
+	private static boolean reserve(AtomicLong budget, long bytes) {
+		long left;
+		do {
+			left = budget.get();
+			if (bytes > left) { return false; }
+		} while (!budget.compareAndSet(left, left - bytes));
+		
+		return true;
 	}
 	
 	/**
@@ -382,7 +1554,11 @@ public final class DBManager {
 	 * @return True if the query returned a ResultSet, which can be retrieved with the getResults() method
 	 */
 	public boolean query(String query) {
-		return database.query(query);
+		long start = System.nanoTime();
+		boolean hasResults = database.query(query);
+		
+		metrics.query.record(start, database.getError() == null);
+		return hasResults;
 	}
 	
 	/**
@@ -392,7 +1568,84 @@ public final class DBManager {
 	 * @return A ResultSet from the query
 	 */
 	public ResultSet executeQuery(String query) {
-		return database.executeQuery(query);
+		long start = System.nanoTime();
+		ResultSet results = database.executeQuery(query);
+		
+		metrics.query.record(start, database.getError() == null);
+		return results;
+	}
+
+	/**
+	 * Records the latency of an asynchronous operation once it completes
+	 * 
+	 * @param histogram histogram for the kind of operation
+	 * @param start System.nanoTime() when the operation was requested
+	 * @param event JFR event started when the operation was requested
+	 * @param size gives the size in bytes of the result for the event
+	 * @param future the operation
+	 * @return a future completed the same way as future, after the latency
+	 *         has been recorded
+	 */
+	private static <T> CompletableFuture<T> timed(LatencyHistogram histogram, long start, DatabaseEvent event, 
+			ToLongFunction<T> size, CompletableFuture<T> future) {
+		return future.whenComplete((result, error) -> {
+			histogram.record(start, error == null);
+			event.finish(error == null, result == null ? 0 : size.applyAsLong(result));
+		});
+	}
+
+	/**
+	 * Runs a database task on the executor
+	 * 
+	 * @param task task to run
+	 * @return a future completed with the result of the task, or
+	 *         exceptionally with whatever it threw
+	 */
+	private <T> CompletableFuture<T> submit(Callable<T> task) {
+		CompletableFuture<T> future = new CompletableFuture<T>();
+		
+		foreground.incrementAndGet();
+		executor.execute(() -> {
+			try {
+				future.complete(task.call());
+			} catch (Exception e) {
+				future.completeExceptionally(e);
+			} finally {
+				foreground.decrementAndGet();
+			}
+		});
+		
+		return future;
+	}
+	
+	/**
+	 * Picks the error code to show for an exception thrown by one of the
+	 * asynchronous database operations
+	 * 
+	 * @param e exception the future completed with
+	 * @return the matching error code
+	 */
+	public static CODES errorCode(Throwable e) {
+		for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+			if (cause instanceof SizeLimitExceededException) { return CODES.FILESIZE_LIMIT; } //Derby wraps errors from the upload stream
+		}
+		
+		while (e instanceof CompletionException && e.getCause() != null) {
+			e = e.getCause();
+		}
+		
+		if (e instanceof SQLTimeoutException) {
+			return CODES.CONNECT_TIMEOUT;
+		} else if (e instanceof SQLIntegrityConstraintViolationException) {
+			return CODES.DUPLICATE_KEY;
+		} else if (e instanceof SQLNonTransientConnectionException) {
+			return CODES.CONNECT_FAIL;
+		} else if (e instanceof ClassCastException || e instanceof ClassNotFoundException
+				|| e instanceof ObjectStreamException) {
+			return CODES.BYTE_ARRAY_ERROR;
+		}
+		
+		return CODES.ERROR;
 	}
 
 	/**
@@ -401,20 +1654,32 @@ public final class DBManager {
 	 * @return True if the database shutdown as expected
 	 */
 	public boolean shutdown() {
-		if (!database.shutdown()) {
-			System.out.println(database.getShutdownException());
-		}
+		metrics.stop();
+		prefetcher.shutdown();
+		textIndex.shutdown();
+		zoneIndex.shutdown();
+		executor.shutdown();
+		database.shutdown(); //Logs the cause if it did not shut down cleanly
 		return true;
 	}
 	
 	/**
 	 * Resets the database to the original state
-	 * This will remove ALL ERPs from the system.
-	 * It will also remove the administrator password.
+	 * This will remove ALL ERPs and their revisions from the system.
+	 * It will also remove the administrator password, which will be asked
+	 * for again the next time the application starts.
+	 * 
+	 * The tables are emptied rather than dropped, so the schema stays at
+	 * the version recorded in schema_version.
 	 */
 	public void resetDatabase() {
-		database.query("DROP TABLE password");
-		database.query("DROP TABLE erp");
+		database.query("DELETE FROM password");
+		database.query("DELETE FROM erp");
+		database.query("DELETE FROM erp_revision_chunk");
+		database.query("DELETE FROM erp_revision");
+		database.query("DELETE FROM erp_chunk");
+		database.query("DELETE FROM erp_term");
+		database.query("DELETE FROM erp_text");
 	}
 	
 	/**
@@ -442,6 +1707,10 @@ public final class DBManager {
 	 * @return True if the input, when hashed, is equal to the stored password
 	 */
 	public boolean correctPassword(String input) {		
-		return input == null ? false : hash(input).equals(this.hashedPassword);
+		long start = System.nanoTime();
+		boolean correct = input == null ? false : hash(input).equals(this.hashedPassword);
+		
+		metrics.passwordCheck.record(start, true);
+		return correct;
 	}
 }
@@ -1,65 +1,88 @@
 package database;
 
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.SQLTimeoutException;
 import java.sql.Statement;
 
-import drivers.Driver;
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetProvider;
+
+import drivers.Logger;
 
 /*
  * Class to control the implementation to connect to the database, as well
- * as the implementation of querying and shutting down the database. As the
- * DB is embedded the database must be shutdown properly before exiting the
- * program
+ * as the implementation of querying and shutting down the database. The
+ * database is embedded unless erp.db.backend says otherwise, see
+ * database.Backend. An embedded database must be shutdown properly before
+ * exiting the program
  * 
  * This class should only be used through the database.DBManager class
  * 
+ * Connections are held in a bounded ConnectionPool, so the database can be
+ * used from several threads at once. Code that needs a connection should
+ * lease() one in a try-with-resources block. The size of the pool and the
+ * time to wait for a connection can be set with the erp.db.poolSize and
+ * erp.db.acquireTimeoutMs system properties.
+ * 
  * Syntax for the Apache Embedded Database can be found here: https://www.ibm.com/support/knowledgecenter/SSEPEK_11.0.0/sqlref/src/tpc/db2z_sql_createtable.html
  */
 final class Database {
-	private static final String  DATABASE_NAME = "erp_manager";
-	private static final String DEFAULT_URL   = "jdbc:derby:"+DATABASE_NAME+";create=true;";
+	private static final int    DEFAULT_POOL_SIZE  = 4;
+	private static final long   DEFAULT_TIMEOUT_MS = 10000;
 	
-	private Connection   connection;
-	private Statement    statement;
-	private SQLException shutdownExcp;
-
-	/**
-	 * A predefined string to create the database tables if they dont
-	 * already exist this is always queried when a new Database instance is
-	 * created
-	 * 
-	 * After reconsidering the use case of the database it was decided to
-	 * use 3 non-relational tables.
-	 */
-	private String initSite = "CREATE TABLE site("
-			+ "id VARCHAR(255) PRIMARY KEY, panel BLOB)";
-
-	private String initERP = "CREATE TABLE erp("
-			+ "id VARCHAR(255) PRIMARY KEY, pdf BLOB)";
+	private final Backend  backend;
+	private ConnectionPool pool;
+	private SQLException   shutdownExcp;
 	
-	private String initPass = "CREATE TABLE password("
-			+ "id INT PRIMARY KEY,"
-			+ "pass VARCHAR(255))";
+	// The results of the most recent query() made by each thread
+	private final ThreadLocal<ResultSet> results = new ThreadLocal<ResultSet>();
+	// The error from the most recent query() made by each thread, if it failed
+	private final ThreadLocal<SQLException> errors = new ThreadLocal<SQLException>();
 
 	/**
 	 * Creates a new Database instance .We throw these exceptions instead of
 	 * catching them to stop the Database object being created without a
 	 * connection
 	 * 
+	 * @param backend where the database is
 	 * @throws SQLException
 	 * @throws ClassNotFoundException
 	 */
-	Database()
+	Database(Backend backend)
 			throws SQLException, SQLTimeoutException, ClassNotFoundException {
-		Class.forName("org.apache.derby.jdbc.EmbeddedDriver"); //Load the embedded driver
+		this.backend = backend;
+		backend.loadDriver();
 
-		connection = DriverManager.getConnection(DEFAULT_URL);
-		statement = connection.createStatement(ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+		pool = new ConnectionPool(backend.url(), Integer.getInteger("erp.db.poolSize", DEFAULT_POOL_SIZE), 
+				Long.getLong("erp.db.acquireTimeoutMs", DEFAULT_TIMEOUT_MS));
+		
+		//Open the first connection now, so a database that cannot be reached fails here
+		pool.acquire().close();
+		Logger.info("Connected to the {} database {}", backend, backend.location());
+	}
+
+	/**
+	 * Borrows a connection from the pool. It must be closed to give it back,
+	 * so should always be used in a try-with-resources block.
+	 * 
+	 * @return a connection for the calling thread to use
+	 * @throws SQLTimeoutException if no connection became free in time
+	 * @throws SQLException if a connection could not be opened
+	 */
+	PooledConnection lease() throws SQLException {
+		return pool.acquire();
+	}
+
+	/**
+	 * Borrows a connection for background work, but only if doing so leaves
+	 * at least one connection free for everything else
+	 * 
+	 * @return a connection, or null if none could be spared right now
+	 * @throws SQLException if a connection could not be opened
+	 */
+	PooledConnection tryLease() throws SQLException {
+		return pool.tryAcquire(1);
 	}
 
 	/**
@@ -71,32 +94,50 @@ final class Database {
 	 *         ResultSet. The respective ResultSet can be retrieved with
 	 *         the getResults() method. If the query is guaranteed to
 	 *         return a ResultSet, executeQuery might be a better method.
+	 *         Also false if the query failed, which getError() reports.
 	 */
 	boolean query(String query) {
-		try {
-			return statement.execute(query);
+		results.remove();
+		errors.remove();
+		
+		try (PooledConnection conn = lease()) {
+			Statement statement = conn.statement();
+			boolean hasResults = statement.execute(query);
+			
+			if (hasResults) {
+				//Copy the results so they can still be read once the connection is back in the pool
+				try (ResultSet rs = statement.getResultSet()) {
+					CachedRowSet copy = RowSetProvider.newFactory().createCachedRowSet();
+					copy.populate(rs);
+					results.set(copy);
+				}
+			}
+			
+			return hasResults;
 		} catch (SQLException e) {
-			System.out.println("You have an error in your SQL syntax");
-			System.out.println(e.getSQLState());
-			System.out.println(e);
+			Logger.error("You have an error in your SQL syntax, state {}", e.getSQLState(), e);
+			errors.set(e);
 			return false;
 		}
 	}
 
 	/**
-	 * Get the ResultSet from the most recent query
+	 * Get the ResultSet from the most recent query made by this thread. The
+	 * ResultSet is a disconnected, scrollable copy of the results.
 	 * 
 	 * @return The ResultSet from the query, or null if the query causes an
 	 *         error.
 	 */
 	ResultSet getResults() {
-		try {
-			return statement.getResultSet();
-		} catch (SQLException e) {
-			System.out.println(e.getSQLState());
-			System.out.println(e);
-			return null;
-		}
+		return results.get();
+	}
+
+	/**
+	 * @return the error from the most recent query made by this thread, or
+	 *         null if it succeeded
+	 */
+	SQLException getError() {
+		return errors.get();
 	}
 
 	/**
@@ -113,34 +154,22 @@ final class Database {
 	}
 
 	/**
-	 * Creates a PreparedStatement with the supplied query
-	 * 
-	 * @param query
-	 *            Query to prepared
-	 * @return The created PreparedStatement object or null if an exception
-	 *         was thrown
+	 * @return the combined hit and miss counts of every connection's
+	 *         PreparedStatement cache
 	 */
-	PreparedStatement prepare(String query) {
-		try {
-			return connection.prepareStatement(query, ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
-		} catch (SQLException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
+	CacheStats getStatementCacheStats() { return pool.statementCacheStats(); }
 
-		return null;
-	}
+	/**
+	 * @return the number of active and idle connections, and the time
+	 *         spent waiting for them
+	 */
+	PoolStats getPoolStats() { return pool.stats(); }
 
 	/**
 	 * Close JDBC resources
 	 */
 	private void close() {
-		try {
-			statement.close();
-			connection.close();
-		} catch (Exception e) {
-			/* ignore the exception */
-		}
+		pool.close();
 	}
 	
 	/**
@@ -154,19 +183,14 @@ final class Database {
 	boolean shutdown() {
 		close();
 		try {
-			DriverManager.getConnection("jdbc:derby:;shutdown=true");
+			backend.shutdown();
+			Logger.info("Database shutdown successfully");
+			return true;
 		} catch (SQLException e) {
-			if (DerbyHelper.isShutdown(e)) { 
-				Driver.Log("Database shutdown successfully");
-				return true; 
-			}
-			
 			this.shutdownExcp = e;
 		}
 
-		Driver.Log("Database suffered an abnormal shutdown");
-		if(Driver.debugmode())
-			this.shutdownExcp.printStackTrace();
+		Logger.error("Database suffered an abnormal shutdown", this.shutdownExcp);
 		
 		return false;
 	}
@@ -178,39 +202,15 @@ final class Database {
 	SQLException getShutdownException() { return this.shutdownExcp; }
 
 	/**
-	 * Called at initialization to create the tables If they already exist,
-	 * an SQLException with SQLState X0Y32 should be thrown - this will be
-	 * caught and checked, if the SQLState is not X0Y32 then it is rethrown
-	 * back to the DBManager
+	 * Called at initialization to create the tables, or bring them up to
+	 * date. See database.SchemaMigrations.
 	 * 
-	 * @return
-	 * @throws SQLException
+	 * @throws SQLException if the schema could not be migrated
 	 */
-	boolean createTables()
+	void createTables()
 			throws SQLException {
-		boolean passCreated = false;
-		
-		try {
-			statement.execute(initERP);
-		} catch (SQLException e) {
-			if (!DerbyHelper.valueExists(e)) { throw e; }
-		}
-
-		try {
-			statement.execute(initSite);
-		} catch (SQLException e) {
-			if (!DerbyHelper.valueExists(e)) { throw e; }
+		try (PooledConnection conn = lease()) {
+			SchemaMigrations.migrate(conn.getConnection());
 		}
-		
-		try {
-			statement.execute(initPass);
-			passCreated = true;
-		} catch (SQLException e) {
-			if (!DerbyHelper.valueExists(e)) { throw e; }
-		}
-
-		initERP = null;
-
-		return passCreated; //Return whether the password table had to be created
 	}
 }
@@ -0,0 +1,67 @@
+package database;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Flight Recorder event covering one page or ERP operation requested
+ * through DBManager, from the request until the result is ready. The
+ * SqlEvents and PageDecodeEvents recorded during it show where the time
+ * went.
+ * 
+ * Like every JFR event this costs next to nothing unless a recording with
+ * erp_manager events enabled is running.
+ * 
+ * @author Taylor
+ *
+ */
+@Name("erp_manager.DatabaseCall")
+@Label("Database Call")
+@Category({ "ERP Manager", "Database" })
+@Description("A page or ERP read or written through DBManager")
+final class DatabaseEvent extends Event {
+	@Label("Operation")
+	String operation;
+
+	@Label("ID")
+	String id;
+
+	@Label("Bytes")
+	@DataAmount
+	long bytes;
+
+	@Label("Succeeded")
+	boolean succeeded;
+
+	/**
+	 * Starts timing an operation
+	 * 
+	 * @param operation such as page.load or erp.write
+	 * @param id id of the page or ERP
+	 */
+	static DatabaseEvent start(String operation, String id) {
+		DatabaseEvent event = new DatabaseEvent();
+		event.operation = operation;
+		event.id = id;
+		event.begin();
+		return event;
+	}
+
+	/**
+	 * Records the operation, if a recording wants it
+	 * 
+	 * @param succeeded false if the operation failed
+	 * @param bytes size of the page or ERP, or 0 if it is not known
+	 */
+	void finish(boolean succeeded, long bytes) {
+		if (shouldCommit()) {
+			this.succeeded = succeeded;
+			this.bytes = bytes;
+			commit();
+		}
+	}
+}
@@ -0,0 +1,172 @@
+package database;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import drivers.Logger;
+import drivers.Threads;
+
+/**
+ * Latency histograms for each kind of DBManager operation, along with the
+ * cache and connection pool statistics, published as an MXBean so they
+ * can be read with jconsole or any other JMX client while the application
+ * is running.
+ * 
+ * If the erp.metrics.file system property is set, a summary is also
+ * appended to that file every erp.metrics.intervalSec seconds (60 by
+ * default) and once more at shutdown.
+ * 
+ * @author Taylor
+ *
+ */
+public final class DatabaseMetrics implements DatabaseMetricsMXBean {
+	static final String OBJECT_NAME = "erp_manager:type=Database";
+
+	final LatencyHistogram pageLoad      = new LatencyHistogram();
+	final LatencyHistogram pageWrite     = new LatencyHistogram();
+	final LatencyHistogram erpRead       = new LatencyHistogram();
+	final LatencyHistogram erpWrite      = new LatencyHistogram();
+	final LatencyHistogram erpSearch     = new LatencyHistogram();
+	final LatencyHistogram passwordCheck = new LatencyHistogram();
+	final LatencyHistogram query         = new LatencyHistogram();
+
+	private final DBManager          dbman;
+	private ScheduledExecutorService dumper;
+	private Path                     dumpFile;
+	private ObjectName               name;
+
+	DatabaseMetrics(DBManager dbman) {
+		this.dbman = dbman;
+	}
+
+	/**
+	 * Registers the MXBean and starts the periodic summary if one is
+	 * configured. Failing to do either is logged but is not an error, as
+	 * the application works the same without them.
+	 */
+	void start() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = new ObjectName(OBJECT_NAME);
+			
+			if (server.isRegistered(objectName)) {
+				server.unregisterMBean(objectName); //Left by an earlier DBManager in this JVM
+			}
+			server.registerMBean(this, objectName);
+			name = objectName;
+		} catch (JMException e) {
+			Logger.warn("Database metrics could not be published over JMX", e);
+		}
+		
+		String file = System.getProperty("erp.metrics.file");
+		if (file != null) {
+			long interval = Long.getLong("erp.metrics.intervalSec", 60);
+			
+			dumpFile = Paths.get(file);
+			dumper = Executors.newSingleThreadScheduledExecutor(Threads.daemonFactory("metrics"));
+			dumper.scheduleAtFixedRate(this::dump, interval, interval, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * Writes a final summary and unregisters the MXBean
+	 */
+	void stop() {
+		if (dumper != null) {
+			dumper.shutdownNow();
+			dump();
+		}
+		
+		if (name != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+			} catch (JMException e) {
+				/* Already gone */
+			}
+		}
+	}
+
+	/**
+	 * @return every statistic, one per line
+	 */
+	public String summary() {
+		String nl = System.lineSeparator();
+		StringBuilder sb = new StringBuilder("Database metrics at ").append(LocalDateTime.now()).append(nl);
+		
+		for (OperationStats stats : new OperationStats[] { getPageLoad(), getPageWrite(), getErpRead(), getErpWrite(),
+				getErpSearch(), getPasswordCheck(), getQuery() }) {
+			sb.append("  ").append(stats).append(nl);
+		}
+		
+		sb.append("  page cache ").append(getPageCache()).append(nl);
+		sb.append("  erp cache ").append(getErpCache()).append(nl);
+		sb.append("  statement cache ").append(getStatementCache()).append(nl);
+		sb.append("  connection pool ").append(getConnectionPool()).append(nl);
+		
+		return sb.toString();
+	}
+
+	private void dump() {
+		try (Writer out = Files.newBufferedWriter(dumpFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+				StandardOpenOption.APPEND)) {
+			out.write(summary());
+		} catch (IOException | RuntimeException e) {
+			Logger.warn("Database metrics could not be written to {}", dumpFile, e);
+		}
+	}
+
+	@Override
+	public OperationStats getPageLoad() { return pageLoad.snapshot("page load"); }
+
+	@Override
+	public OperationStats getPageWrite() { return pageWrite.snapshot("page write"); }
+
+	@Override
+	public OperationStats getErpRead() { return erpRead.snapshot("erp read"); }
+
+	@Override
+	public OperationStats getErpWrite() { return erpWrite.snapshot("erp write"); }
+
+	@Override
+	public OperationStats getErpSearch() { return erpSearch.snapshot("erp search"); }
+
+	@Override
+	public OperationStats getPasswordCheck() { return passwordCheck.snapshot("password check"); }
+
+	@Override
+	public OperationStats getQuery() { return query.snapshot("query"); }
+
+	@Override
+	public CacheStats getPageCache() { return dbman.getPageCacheStats(); }
+
+	@Override
+	public CacheStats getErpCache() { return dbman.getErpCacheStats(); }
+
+	@Override
+	public CacheStats getStatementCache() { return dbman.getStatementCacheStats(); }
+
+	@Override
+	public PoolStats getConnectionPool() { return dbman.getPoolStats(); }
+
+	@Override
+	public void resetLatencies() {
+		for (LatencyHistogram histogram : new LatencyHistogram[] { pageLoad, pageWrite, erpRead, erpWrite, erpSearch, passwordCheck,
+				query }) {
+			histogram.reset();
+		}
+	}
+}
@@ -0,0 +1,42 @@
+package database;
+
+/**
+ * The database metrics published over JMX, under the name
+ * erp_manager:type=Database. Latencies are in microseconds.
+ * 
+ * @author Taylor
+ *
+ */
+public interface DatabaseMetricsMXBean {
+	/** Opening a page, from the request until it is ready to show */
+	OperationStats getPageLoad();
+
+	/** Saving a page */
+	OperationStats getPageWrite();
+
+	/** Opening an ERP, from the request until the file is ready */
+	OperationStats getErpRead();
+
+	/** Uploading an ERP */
+	OperationStats getErpWrite();
+
+	/** Searching the text of the ERPs */
+	OperationStats getErpSearch();
+
+	/** Checking the administrator password */
+	OperationStats getPasswordCheck();
+
+	/** Ad hoc queries made through DBManager.query and executeQuery */
+	OperationStats getQuery();
+
+	CacheStats getPageCache();
+
+	CacheStats getErpCache();
+
+	CacheStats getStatementCache();
+
+	PoolStats getConnectionPool();
+
+	/** Clears every latency histogram, so a new period can be measured */
+	void resetLatencies();
+}
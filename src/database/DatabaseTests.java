@@ -2,12 +2,40 @@ package database;
 
 import static org.junit.Assert.*;
 
+import java.awt.Rectangle;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DeflaterOutputStream;
 
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.jupiter.api.DisplayName;
 
+import drivers.CODES;
+import user_interface.PageModel;
+
 /*
  * Provides basic regression tests to ensure that a
  * database connection can still be successfully
@@ -49,4 +77,541 @@ public class DatabaseTests {
 	public void erpTableInit() {
 		assertTrue(dbman.query("SELECT * FROM password"));
 	}
+	
+	@Test
+	@DisplayName("Prepared Statements Reused")
+	public void preparedStatementReused() throws SQLException {
+		try (PooledConnection conn = database.lease()) {
+			long hits = database.getStatementCacheStats().getHits();
+			
+			assertSame(conn.prepare("SELECT id FROM site"), conn.prepare("SELECT id FROM site"));
+			assertEquals(hits + 1, database.getStatementCacheStats().getHits());
+		}
+	}
+	
+	@Test
+	@DisplayName("Pooled Connections Returned")
+	public void pooledConnectionReturned() throws SQLException {
+		int active = database.getPoolStats().getActive();
+		
+		try (PooledConnection conn = database.lease()) {
+			assertEquals(active + 1, database.getPoolStats().getActive());
+			assertFalse(conn.getConnection().isClosed());
+		}
+		
+		assertEquals(active, database.getPoolStats().getActive());
+	}
+	
+	@Test
+	@DisplayName("Broken Pooled Connection Not Reused")
+	public void brokenConnectionDiscarded() throws SQLException {
+		PooledConnection broken = database.lease();
+		broken.getConnection().setAutoCommit(false);
+		broken.getConnection().close(); //As if the network server had dropped it
+		broken.close();
+		
+		for (int i = 0; i < 4; i++) {
+			try (PooledConnection conn = database.lease()) {
+				assertNotSame(broken, conn);
+				assertFalse(conn.getConnection().isClosed());
+			}
+		}
+	}
+	
+	@Test
+	@DisplayName("Pooled Connection Closed Twice Returned Once")
+	public void pooledConnectionClosedTwice() throws SQLException {
+		PooledConnection conn = database.lease();
+		conn.close();
+		conn.close();
+		
+		//Returned twice, the connection would be lent to both
+		try (PooledConnection first = database.lease(); PooledConnection second = database.lease()) {
+			assertNotSame(first, second);
+		}
+	}
+	
+	@Test
+	@DisplayName("Saving A Page Twice Updates It")
+	public void pageUpserted() throws SQLException {
+		PageModel page = new PageModel("upsert.png", new Rectangle(0, 0, 10, 10), new ArrayList<PageModel.ButtonModel>());
+		
+		assertEquals(CODES.OK, dbman.addPage("upsertTest", page));
+		assertEquals(CODES.OK, dbman.addPage("upsertTest", page));
+		
+		ResultSet rs = dbman.executeQuery("SELECT COUNT(*) FROM site WHERE id = 'upsertTest'");
+		assertTrue(rs.next());
+		assertEquals(1, rs.getInt(1));
+		
+		dbman.query("DELETE FROM site WHERE id = 'upsertTest'");
+	}
+	
+	@Test
+	@DisplayName("Concurrent Saves Of A New Page All Succeed")
+	public void pageInsertedConcurrently() throws Exception {
+		PageModel page = new PageModel("upsert.png", new Rectangle(0, 0, 10, 10), new ArrayList<PageModel.ButtonModel>());
+		ExecutorService writers = Executors.newFixedThreadPool(8);
+		CountDownLatch go = new CountDownLatch(1);
+		
+		try {
+			List<Future<CODES>> results = new ArrayList<Future<CODES>>();
+			for (int i = 0; i < 8; i++) {
+				results.add(writers.submit(() -> {
+					go.await();
+					return dbman.addPage("raceTest", page);
+				}));
+			}
+			go.countDown();
+			
+			for (Future<CODES> result : results) {
+				assertEquals(CODES.OK, result.get());
+			}
+		} finally {
+			writers.shutdown();
+			dbman.query("DELETE FROM site WHERE id = 'raceTest'");
+		}
+	}
+	
+	@Test
+	@DisplayName("Schema Fully Migrated")
+	public void schemaMigrated() throws SQLException {
+		ResultSet rs = dbman.executeQuery("SELECT version FROM schema_version");
+		
+		assertTrue(rs.first());
+		assertEquals(SchemaMigrations.latestVersion(), rs.getInt(1));
+	}
+	
+	@Test
+	@DisplayName("Failed Queries Counted As Errors")
+	public void queryErrorsCounted() {
+		OperationStats before = dbman.getMetrics().getQuery();
+		
+		assertFalse(dbman.query("SELECT missing FROM no_such_table"));
+		assertNull(dbman.executeQuery("SELECT missing FROM no_such_table"));
+		assertNotNull(dbman.executeQuery("SELECT id FROM site"));
+		
+		OperationStats after = dbman.getMetrics().getQuery();
+		assertEquals(before.getCount() + 3, after.getCount());
+		assertEquals(before.getErrors() + 2, after.getErrors());
+	}
+	
+	@Test
+	@DisplayName("Empty Schema Version Table Repaired")
+	public void schemaVersionRepaired() throws SQLException {
+		try (PooledConnection conn = database.lease()) {
+			conn.getConnection().createStatement().execute("DELETE FROM schema_version");
+			assertEquals(0, SchemaMigrations.migrate(conn.getConnection()).length); //Every migration is found to be present already
+			
+			try (ResultSet rs = conn.getConnection().createStatement().executeQuery("SELECT version FROM schema_version")) {
+				assertTrue(rs.next());
+				assertEquals(SchemaMigrations.latestVersion(), rs.getInt(1));
+				assertFalse(rs.next());
+			}
+		}
+	}
+	
+	@Test
+	@DisplayName("Prefetch Ranks Visited Targets First")
+	public void prefetchRanking() {
+		Prefetcher prefetcher = dbman.getPrefetcher();
+		prefetcher.recordTransition("rankTest", "erp2");
+		
+		List<Prefetcher.Candidate> ranked = prefetcher.rank("rankTest", Arrays.asList("page1", "page2"), Arrays.asList("erp1", "erp2"));
+		
+		assertEquals("erp2", ranked.get(0).id);
+		assertEquals("page1", ranked.get(1).id);
+		assertEquals("page2", ranked.get(2).id);
+	}
+	
+	@Test
+	@DisplayName("Chunks Unaffected By An Earlier Edit")
+	public void chunksResynchronise() throws IOException {
+		byte[] original = new byte[1024 * 1024];
+		new Random(42).nextBytes(original);
+		
+		byte[] edited = new byte[original.length + 10];
+		System.arraycopy(original, 0, edited, 0, 1000);
+		System.arraycopy(original, 1000, edited, 1010, original.length - 1000);
+		
+		List<String> before = chunkHashes(original);
+		List<String> after = chunkHashes(edited);
+		
+		assertEquals(before.subList(2, before.size()), after.subList(after.size() - before.size() + 2, after.size()));
+	}
+	
+	@Test
+	@DisplayName("Codecs Round Trip")
+	public void codecsRoundTrip() throws IOException {
+		byte[] page = new byte[3 * Lz.BLOCK_SIZE + 17];
+		for (int i = 0; i < page.length; i++) {
+			page[i] = (byte) (i % 61 == 0 ? i : 'a' + i % 13);
+		}
+		
+		for (Codec codec : Codec.values()) {
+			byte[] encoded = codec.encode(page);
+			
+			assertArrayEquals(page, codec.decode(encoded));
+			assertEquals(codec, Codec.fromId(codec.getId()));
+			if (codec != Codec.NONE) {
+				assertTrue(encoded.length < page.length / 2);
+			}
+		}
+	}
+	
+	@Test
+	@DisplayName("Latency Buckets Cover Every Value")
+	public void latencyBuckets() {
+		for (long micros : new long[] { 0, 1, 15, 16, 17, 31, 32, 999, 1000, 123456789L, 1L << 40 }) {
+			int bucket = LatencyHistogram.bucket(micros);
+			
+			assertTrue(LatencyHistogram.upperBound(bucket) >= micros);
+			assertTrue(bucket == 0 || LatencyHistogram.upperBound(bucket - 1) < micros);
+			assertTrue(LatencyHistogram.upperBound(bucket) <= micros + micros / 8);
+		}
+	}
+	
+	@Test
+	@DisplayName("Import Finds And Checks PDFs")
+	public void importChecksFiles() throws IOException {
+		Path dir = Files.createTempDirectory("erp-import");
+		Path pdf = Files.write(Files.createDirectories(dir.resolve("jetty3")).resolve("tk711.pdf"), "%PDF-1.4 plan".getBytes());
+		Path fake = Files.write(dir.resolve("tk712.pdf"), "not a plan".getBytes());
+		Files.write(dir.resolve("notes.txt"), "ignored".getBytes());
+		
+		Map<String, Path> files = ErpImporter.findFiles(dir);
+		assertEquals(Arrays.asList("tk711", "tk712"), new ArrayList<String>(files.keySet()));
+		
+		assertNull(ErpImporter.check(pdf, null).problem);
+		assertEquals(DBManager.hash(Files.readAllBytes(pdf)), ErpImporter.check(pdf, null).hash);
+		assertNotNull(ErpImporter.check(pdf, DBManager.hash(Files.readAllBytes(pdf))).problem);
+		assertNotNull(ErpImporter.check(fake, null).problem);
+		
+		Files.write(dir.resolve("tk711.pdf"), "%PDF-1.4 copy".getBytes());
+		try {
+			ErpImporter.findFiles(dir);
+			fail("Two files for the same zone were accepted");
+		} catch (IOException e) {
+			/* expected */
+		}
+	}
+	
+	@Test
+	@DisplayName("Backend Chosen From Properties")
+	public void backendFromProperties() {
+		try {
+			assertEquals(Backend.EMBEDDED, Backend.fromSystemProperties());
+			
+			System.setProperty("erp.db.backend", "network");
+			System.setProperty("erp.db.host", "erp-server");
+			System.setProperty("erp.db.port", "1530");
+			assertEquals(Backend.NETWORK, Backend.fromSystemProperties());
+			assertTrue(Backend.NETWORK.isShared());
+			assertEquals("jdbc:derby://erp-server:1530/erp_manager;create=true", Backend.NETWORK.url());
+			
+			System.setProperty("erp.db.backend", "mainframe");
+			assertEquals(Backend.EMBEDDED, Backend.fromSystemProperties());
+		} finally {
+			System.clearProperty("erp.db.backend");
+			System.clearProperty("erp.db.host");
+			System.clearProperty("erp.db.port");
+		}
+	}
+	
+	@Test
+	@DisplayName("ERP Round Trips Through The Database")
+	public void erpRoundTrip() throws IOException, SQLException, InterruptedException {
+		byte[] small = "%PDF-1.4 small".getBytes(StandardCharsets.US_ASCII);
+		byte[] large = new byte[3 * DBManager.STREAM_BUFFER_SIZE + 123]; //Spans several buffers, ending part way through one
+		new Random(11).nextBytes(large);
+		
+		Path dir = Files.createTempDirectory("erp-roundtrip");
+		try {
+			assertNotNull(dbman.setERP("roundSmall", Files.write(dir.resolve("small.pdf"), small).toFile()));
+			assertNotNull(dbman.setERP("roundLarge", Files.write(dir.resolve("large.pdf"), large).toFile()));
+			
+			assertArrayEquals(small, Files.readAllBytes(dbman.getERP("roundSmall").toPath()));
+			assertArrayEquals(large, Files.readAllBytes(dbman.getERP("roundLarge").toPath()));
+		} finally {
+			dbman.getTextIndex().awaitIdle();
+			deleteERPs("roundSmall", "roundLarge");
+			deleteTree(dir);
+		}
+	}
+	
+	@Test
+	@DisplayName("ERP Read Twice Served From The Cache")
+	public void erpCached() throws IOException, SQLException, InterruptedException {
+		byte[] first = new byte[DBManager.STREAM_BUFFER_SIZE + 1];
+		new Random(13).nextBytes(first);
+		byte[] second = first.clone();
+		second[0] ^= 1;
+		
+		Path dir = Files.createTempDirectory("erp-cached");
+		try {
+			assertNotNull(dbman.setERP("cacheTest", Files.write(dir.resolve("first.pdf"), first).toFile()));
+			
+			CacheStats before = dbman.getErpCacheStats();
+			assertArrayEquals(first, Files.readAllBytes(dbman.getERP("cacheTest").toPath()));
+			assertEquals(before.getMisses() + 1, dbman.getErpCacheStats().getMisses());
+			assertArrayEquals(first, Files.readAllBytes(dbman.getERP("cacheTest").toPath()));
+			assertEquals(before.getHits() + 1, dbman.getErpCacheStats().getHits());
+			
+			//A new upload replaces the cached copy rather than being hidden by it
+			assertNotNull(dbman.setERP("cacheTest", Files.write(dir.resolve("second.pdf"), second).toFile()));
+			assertArrayEquals(second, Files.readAllBytes(dbman.getERP("cacheTest").toPath()));
+			assertEquals(before.getHits() + 1, dbman.getErpCacheStats().getHits());
+		} finally {
+			dbman.getTextIndex().awaitIdle();
+			deleteERPs("cacheTest");
+			deleteTree(dir);
+		}
+	}
+	
+	@Test
+	@DisplayName("ERP Over The Size Limit Refused")
+	public void erpSizeLimit() throws IOException, SQLException {
+		Path dir = Files.createTempDirectory("erp-limit");
+		Path huge = dir.resolve("huge.pdf");
+		
+		try {
+			try (RandomAccessFile file = new RandomAccessFile(huge.toFile(), "rw")) {
+				file.setLength(DBManager.MAX_PDF_BYTES + 1); //Sparse, so nothing is written to disk
+			}
+			
+			try {
+				dbman.setERPs(Collections.singletonMap("limitTest", huge.toFile()));
+				fail("An ERP over the size limit was stored");
+			} catch (SizeLimitExceededException e) {
+				/* expected */
+			}
+			assertFalse(dbman.getERPHashes().containsKey("limitTest"));
+			
+			//A file that grows past the limit while it is being streamed is caught as well
+			try (InputStream in = new SizeLimitedInputStream(new ByteArrayInputStream(new byte[100]), 64)) {
+				in.readAllBytes();
+				fail("A stream over its limit was read to the end");
+			} catch (SizeLimitExceededException e) {
+				/* expected */
+			}
+		} finally {
+			deleteERPs("limitTest");
+			deleteTree(dir);
+		}
+	}
+	
+	@Test
+	@DisplayName("ERP Revisions Stored As Shared Chunks")
+	public void revisionsChunked() throws IOException, SQLException, InterruptedException {
+		byte[] first = new byte[256 * 1024];
+		new Random(7).nextBytes(first);
+		byte[] second = first.clone();
+		second[100000] ^= 1;
+		
+		Path dir = Files.createTempDirectory("erp-revisions");
+		ChunkStats before = dbman.getChunkStats();
+		try {
+			assertNotNull(dbman.setERP("revTest", Files.write(dir.resolve("first.pdf"), first).toFile()));
+			assertNotNull(dbman.setERP("revTest", Files.write(dir.resolve("second.pdf"), second).toFile()));
+			
+			List<ErpRevision> revisions = dbman.getERPRevisions("revTest");
+			assertEquals(2, revisions.size());
+			assertEquals(DBManager.hash(first), revisions.get(0).getHash());
+			assertEquals(second.length, revisions.get(1).getSize());
+			
+			assertArrayEquals(first, Files.readAllBytes(dbman.exportERPRevision("revTest", 1, dir.resolve("1.pdf").toFile()).toPath()));
+			assertArrayEquals(second, Files.readAllBytes(dbman.exportERPRevision("revTest", 2, dir.resolve("2.pdf").toFile()).toPath()));
+			assertNull(dbman.exportERPRevision("revTest", 3, dir.resolve("3.pdf").toFile()));
+			
+			//Only the chunk around the edit is new, and another ERP with the same content adds no chunks
+			ChunkStats edited = dbman.getChunkStats();
+			assertEquals(before.getRevisions() + 2, edited.getRevisions());
+			assertEquals(before.getLogicalBytes() + first.length + second.length, edited.getLogicalBytes());
+			assertTrue(edited.getStoredBytes() - before.getStoredBytes() < first.length + Chunker.MAX_SIZE);
+			
+			assertNotNull(dbman.setERP("revShared", dir.resolve("first.pdf").toFile()));
+			ChunkStats shared = dbman.getChunkStats();
+			assertEquals(edited.getChunks(), shared.getChunks());
+			assertEquals(edited.getRevisions() + 1, shared.getRevisions());
+			
+			//Content that does not match the hash the erp row was stored with is refused
+			try (PooledConnection conn = database.lease()) {
+				conn.getConnection().setAutoCommit(false);
+				ChunkStore.addRevision(conn, "revTest", new ByteArrayInputStream(first), DBManager.hash(new byte[] { 1 }));
+				fail("A revision that does not match its hash was stored");
+			} catch (IOException e) {
+				/* expected, and rolled back as the connection is returned */
+			}
+			assertEquals(2, dbman.getERPRevisions("revTest").size());
+		} finally {
+			dbman.getTextIndex().awaitIdle();
+			deleteERPs("revTest", "revShared");
+			deleteTree(dir);
+		}
+	}
+	
+	@Test
+	@DisplayName("ERP Text Indexed And Searched")
+	public void textSearched() throws IOException, SQLException, InterruptedException {
+		byte[] ammonia = plan("BT /F1 12 Tf 72 700 Td (Ammonia leak: go to muster point ) Tj [(B) -3000 (now)] TJ ET");
+		byte[] fire = plan("BT /F1 12 Tf 72 700 Td [(Fire) -50 (door)] TJ ( muster point A) ' ET");
+		
+		assertEquals(Arrays.asList("ammonia", "leak", "go", "to", "muster", "point", "b", "now"), 
+				TextIndex.tokenize(PdfText.extract(ammonia)));
+		assertEquals(Arrays.asList("firedoor", "muster", "point", "a"), TextIndex.tokenize(PdfText.extract(fire)));
+		
+		Path dir = Files.createTempDirectory("erp-search");
+		try {
+			assertNotNull(dbman.setERP("tk801", Files.write(dir.resolve("tk801.pdf"), ammonia).toFile()));
+			assertNotNull(dbman.setERP("tk802", Files.write(dir.resolve("tk802.pdf"), fire).toFile()));
+			assertTrue(dbman.getTextIndex().index("tk801"));
+			assertTrue(dbman.getTextIndex().index("tk802"));
+			
+			List<SearchHit> hits = dbman.getTextIndex().search("Muster point B", 10);
+			assertEquals("tk801", hits.get(0).getId());
+			assertEquals(3, hits.get(0).getMatched());
+			assertEquals("tk802", hits.get(1).getId());
+			
+			assertTrue(dbman.getTextIndex().search("chlorine", 10).isEmpty());
+		} finally {
+			dbman.getTextIndex().awaitIdle(); //The uploads also queued them to be indexed
+			deleteERPs("tk801", "tk802");
+			Files.deleteIfExists(dir.resolve("tk801.pdf"));
+			Files.deleteIfExists(dir.resolve("tk802.pdf"));
+			Files.deleteIfExists(dir);
+		}
+	}
+	
+	@Test
+	@DisplayName("Zones Found By Label And Id")
+	public void zonesFound() throws SQLException {
+		Rectangle bounds = new Rectangle(0, 0, 10, 10);
+		PageModel.ButtonModel tank = new PageModel.ButtonModel("Ammonia Tank 3", "zt903", true, bounds, null, null, null);
+		PageModel.ButtonModel store = new PageModel.ButtonModel("Chlorine Store", "zt904", false, bounds, null, null, null);
+		
+		try {
+			assertEquals(CODES.OK, dbman.addPage("zones1", new PageModel("zones.png", bounds, Arrays.asList(tank, store))));
+			assertEquals(CODES.OK, dbman.addPage("zones2", new PageModel("zones.png", bounds, Arrays.asList(tank))));
+			
+			ZoneIndex index = dbman.getZoneIndex();
+			assertEquals("zt903", index.search("ammon", 10).get(0).getTarget());
+			assertEquals("zt903", index.search("amonia tank", 10).get(0).getTarget());
+			assertEquals("zt904", index.search("ZT904", 10).get(0).getTarget());
+			assertEquals(2, index.search("zt90", 10).size()); //The tank is on both pages, but listed once
+			assertTrue(index.search("chlorine tank", 10).isEmpty());
+			assertTrue(index.search("zt905", 10).isEmpty()); //Ids are not matched with mistakes
+			
+			//Storing a page again replaces its buttons
+			assertEquals(CODES.OK, dbman.addPage("zones1", new PageModel("zones.png", bounds, Arrays.asList(store))));
+			assertEquals("zones2", index.search("ammonia", 10).get(0).getPage());
+			
+			//A page another client removed is dropped, and one that cannot be read is skipped
+			dbman.query("DELETE FROM site WHERE id = 'zones1'");
+			try (PooledConnection conn = database.lease()) {
+				PreparedStatement prep = conn.prepare("INSERT INTO site(id, panel, panel_codec) VALUES (?, ?, ?)");
+				prep.setString(1, "zones3");
+				prep.setBytes(2, new byte[] { 'E', 'R', 'P', 'G', 1 });
+				prep.setInt(3, Codec.NONE.getId());
+				prep.executeUpdate();
+			}
+			index.refresh();
+			assertTrue(index.search("chlorine", 10).isEmpty());
+			assertEquals("zones2", index.search("ammonia", 10).get(0).getPage());
+		} finally {
+			dbman.query("DELETE FROM site WHERE id IN ('zones1', 'zones2', 'zones3')");
+		}
+		
+		assertEquals(1, ZoneIndex.prefixDistance("amonia", "ammonia", 1));
+		assertEquals(1, ZoneIndex.prefixDistance("chlroine", "chlorine", 2));
+		assertEquals(-1, ZoneIndex.prefixDistance("boiler", "compressor", 2));
+	}
+	
+	@Test
+	@DisplayName("Cached ERP Last Opened Is Not Evicted")
+	public void lastOpenedKept() throws IOException {
+		Path dir = Files.createTempDirectory("erpcache");
+		ErpCache cache = new ErpCache(dir, 10);
+		
+		try {
+			File first = cache.store("first", new ByteArrayInputStream(new byte[] { 1, 1, 1, 1, 1, 1 }), true);
+			File second = cache.store("second", new ByteArrayInputStream(new byte[] { 2, 2, 2, 2, 2, 2 }), true);
+			assertTrue(first.exists()); //Over the limit, but the first was the last file returned
+			
+			File third = cache.store("third", new ByteArrayInputStream(new byte[] { 3, 3, 3, 3, 3, 3 }), true);
+			assertFalse(first.exists());
+			assertTrue(second.exists());
+			assertTrue(third.exists());
+			
+			//Every id sharing an evicted file forgets it
+			assertNotNull(cache.lookup("copy", ErpCache.hashOf(second)));
+			cache.store("fourth", new ByteArrayInputStream(new byte[] { 4, 4, 4, 4, 4, 4 }), true);
+			cache.store("fifth", new ByteArrayInputStream(new byte[] { 5, 5, 5, 5, 5, 5 }), true);
+			assertFalse(second.exists());
+			cache.store("again", new ByteArrayInputStream(new byte[] { 2, 2, 2, 2, 2, 2 }), true);
+			cache.invalidate("again");
+			assertFalse(second.exists());
+			
+			//A prefetched file does not take the protection from the file last opened
+			File opened = cache.store("opened", new ByteArrayInputStream(new byte[] { 6, 6, 6, 6, 6, 6 }), true);
+			cache.store("prefetched", new ByteArrayInputStream(new byte[] { 7, 7, 7, 7, 7, 7 }), false);
+			cache.store("prefetched2", new ByteArrayInputStream(new byte[] { 8, 8, 8, 8, 8, 8 }), false);
+			assertTrue(opened.exists());
+		} finally {
+			deleteTree(dir);
+		}
+	}
+	
+	/**
+	 * Deletes a temporary directory a test wrote files to
+	 */
+	private static void deleteTree(Path dir) throws IOException {
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+			for (Path file : files) {
+				Files.delete(file);
+			}
+		}
+		Files.delete(dir);
+	}
+	
+	/**
+	 * Removes ERPs stored by a test, with their revisions and index rows, and
+	 * any chunks no other revision uses
+	 */
+	private static void deleteERPs(String... ids) {
+		String in = "('" + String.join("', '", ids) + "')";
+		
+		dbman.query("DELETE FROM erp_term WHERE id IN " + in);
+		dbman.query("DELETE FROM erp_text WHERE id IN " + in);
+		dbman.query("DELETE FROM erp_revision_chunk WHERE id IN " + in);
+		dbman.query("DELETE FROM erp_revision WHERE id IN " + in);
+		dbman.query("DELETE FROM erp WHERE id IN " + in);
+		dbman.query("DELETE FROM erp_chunk WHERE hash NOT IN (SELECT chunk FROM erp_revision_chunk)");
+	}
+	
+	/**
+	 * A one page PDF with a compressed content stream
+	 */
+	private static byte[] plan(String content) throws IOException {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		try (DeflaterOutputStream out = new DeflaterOutputStream(stream)) {
+			out.write(content.getBytes(StandardCharsets.ISO_8859_1));
+		}
+		
+		ByteArrayOutputStream pdf = new ByteArrayOutputStream();
+		pdf.write(("%PDF-1.4\n4 0 obj\n<< /Length " + stream.size() + " /Filter /FlateDecode >>\nstream\n").getBytes(StandardCharsets.ISO_8859_1));
+		pdf.write(stream.toByteArray());
+		pdf.write("\nendstream\nendobj\n%%EOF\n".getBytes(StandardCharsets.ISO_8859_1));
+		return pdf.toByteArray();
+	}
+	
+	private static List<String> chunkHashes(byte[] data) throws IOException {
+		List<String> hashes = new ArrayList<String>();
+		Chunker chunker = new Chunker(new ByteArrayInputStream(data));
+		
+		for (byte[] chunk = chunker.next(); chunk != null; chunk = chunker.next()) {
+			assertTrue(chunk.length <= Chunker.MAX_SIZE);
+			hashes.add(DBManager.hash(chunk));
+		}
+		
+		return hashes;
+	}
 }
@@ -0,0 +1,273 @@
+package database;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import drivers.Logger;
+
+/*
+ * On-disk cache of ERPs that have been read out of the database. Files are
+ * named after the SHA-256 of their contents, so an ERP that has not changed
+ * since it was last opened can be handed straight to the PDF viewer without
+ * reading the BLOB again.
+ * 
+ * The total size of the cache is capped, and the least recently opened
+ * files are deleted once the cap is exceeded. The access order survives a
+ * restart as each hit updates the file's modified time.
+ */
+final class ErpCache {
+	static final String CACHE_DIR_PROPERTY  = "erp.cache.dir";
+	static final String CACHE_SIZE_PROPERTY = "erp.cache.maxMB";
+	
+	private static final String EXTENSION  = ".pdf";
+	private static final long   DEFAULT_MB = 1024;
+
+	private final Path dir;
+	private final long maxBytes;
+	private long       totalBytes;
+	private long       hits;
+	private long       misses;
+	private long       evictions;
+
+	// hash -> size of the cached file, in least recently used order
+	private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+	// ERP id -> hash of the version that was last cached for it
+	private final Map<String, String>         owners  = new HashMap<String, String>();
+	// Hash of the file last handed out, which the PDF viewer may still be opening
+	private String lastReturned;
+
+	/**
+	 * Creates a cache in the given directory, picking up any files left from
+	 * a previous run
+	 * 
+	 * @param dir directory the cached ERPs are kept in
+	 * @param maxBytes maximum total size of the cached files
+	 * @throws IOException if the directory could not be created or read
+	 */
+	ErpCache(Path dir, long maxBytes) throws IOException {
+		this.dir = dir;
+		this.maxBytes = maxBytes;
+		
+		Files.createDirectories(dir);
+		load();
+	}
+
+	/**
+	 * Creates a cache using the erp.cache.dir and erp.cache.maxMB system
+	 * properties, defaulting to a directory under java.io.tmpdir.
+	 */
+	static ErpCache fromSystemProperties() throws IOException {
+		String dir = System.getProperty(CACHE_DIR_PROPERTY, 
+				Paths.get(System.getProperty("java.io.tmpdir"), "erp_manager-cache").toString());
+		long mb = Long.getLong(CACHE_SIZE_PROPERTY, DEFAULT_MB);
+		
+		return new ErpCache(Paths.get(dir), mb * 1024 * 1024);
+	}
+
+	/**
+	 * Looks up a cached copy of an ERP
+	 * 
+	 * @param id id of the ERP
+	 * @param hash SHA-256 of the current version of the ERP
+	 * @return the cached file, or null if that version is not cached
+	 */
+	synchronized File lookup(String id, String hash) {
+		if (hash == null || entries.get(hash) == null) {
+			misses++;
+			return null;
+		}
+		
+		Path file = pathOf(hash);
+		if (!Files.exists(file)) {
+			//Removed from underneath us
+			totalBytes -= entries.remove(hash);
+			misses++;
+			return null;
+		}
+		
+		hits++;
+		
+		try {
+			Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+		} catch (IOException e) {
+			/* only affects the eviction order after a restart */
+		}
+		
+		owners.put(id, hash);
+		lastReturned = hash;
+		return file.toFile();
+	}
+
+	/**
+	 * Checks for a cached copy of an ERP without counting a hit or a miss,
+	 * for the prefetcher
+	 * 
+	 * @param hash SHA-256 of the current version of the ERP
+	 * @return true if that version is cached
+	 */
+	synchronized boolean contains(String hash) {
+		return hash != null && entries.containsKey(hash) && Files.exists(pathOf(hash));
+	}
+
+	/**
+	 * Streams an ERP into the cache, hashing it as it is written
+	 * 
+	 * @param id id of the ERP
+	 * @param in stream over the contents of the ERP
+	 * @param returned true if the file is about to be opened, so that it is
+	 *            kept until another file is returned; false for prefetches
+	 * @return the cached file, named after the hash of its contents
+	 * @throws IOException if the file could not be written
+	 */
+	File store(String id, InputStream in, boolean returned) throws IOException {
+		Path tmp = Files.createTempFile(dir, "download-", ".tmp");
+		
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			long size;
+			
+			try (InputStream din = new DigestInputStream(in, digest);
+					OutputStream out = Files.newOutputStream(tmp)) {
+				size = DBManager.copy(din, out);
+			}
+			
+			String hash = DBManager.toHex(digest.digest());
+			Path target = pathOf(hash);
+			Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			
+			synchronized (this) {
+				Long previous = entries.put(hash, size);
+				if (previous != null) {
+					totalBytes -= previous;
+				}
+				totalBytes += size;
+				owners.put(id, hash);
+				evict(hash);
+				if (returned) {
+					lastReturned = hash;
+				}
+			}
+			
+			return target.toFile();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	/**
+	 * Drops the cached copy of an ERP, called when a new version is written
+	 * to the database. The file is only deleted if no other ERP id shares
+	 * the same contents.
+	 * 
+	 * @param id id of the ERP that has changed
+	 */
+	synchronized void invalidate(String id) {
+		String hash = owners.remove(id);
+		if (hash == null || owners.containsValue(hash)) { return; }
+		
+		Long size = entries.remove(hash);
+		if (size != null) {
+			totalBytes -= size;
+			delete(hash);
+		}
+	}
+
+	/**
+	 * Gets the hash of a file returned by this cache
+	 */
+	static String hashOf(File file) {
+		String name = file.getName();
+		return name.substring(0, name.length() - EXTENSION.length());
+	}
+	
+	/**
+	 * @return the total size in bytes of the cached files
+	 */
+	synchronized long size() { return this.totalBytes; }
+	
+	/**
+	 * @return the lookups that found a cached copy, and the total size in
+	 *         bytes of the cached files
+	 */
+	synchronized CacheStats stats() {
+		return new CacheStats(hits, misses, evictions, totalBytes);
+	}
+
+	/*
+	 * Removes the least recently used files until the cache is back under
+	 * its size limit. The entry that has just been added is never removed,
+	 * even when it is larger than the limit on its own, and neither is the
+	 * file last returned, which may still be being opened.
+	 */
+	private void evict(String keep) {
+		Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+		
+		while (totalBytes > maxBytes && it.hasNext()) {
+			Map.Entry<String, Long> eldest = it.next();
+			if (eldest.getKey().equals(keep) || eldest.getKey().equals(lastReturned)) { continue; }
+			
+			it.remove();
+			evictions++;
+			totalBytes -= eldest.getValue();
+			owners.values().removeIf(eldest.getKey()::equals);
+			delete(eldest.getKey());
+		}
+	}
+
+	private void delete(String hash) {
+		try {
+			Files.deleteIfExists(pathOf(hash));
+			Logger.debug("Evicted cached ERP {}", hash);
+		} catch (IOException e) {
+			Logger.warn("Could not delete cached ERP {}", hash, e);
+		}
+	}
+
+	private Path pathOf(String hash) {
+		return dir.resolve(hash + EXTENSION);
+	}
+
+	/*
+	 * Reads the files already in the cache directory, oldest first, so that
+	 * the eviction order carries over from the previous run
+	 */
+	private void load() throws IOException {
+		List<Path> files = new ArrayList<Path>();
+		
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + EXTENSION)) {
+			for (Path file : stream) {
+				files.add(file);
+			}
+		}
+		
+		files.sort(Comparator.comparing((Path p) -> p.toFile().lastModified()));
+		
+		for (Path file : files) {
+			long size = Files.size(file);
+			entries.put(hashOf(file.toFile()), size);
+			totalBytes += size;
+		}
+		
+		evict(null);
+	}
+}
@@ -0,0 +1,217 @@
+package database;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Stream;
+
+import drivers.Logger;
+import drivers.Threads;
+
+/**
+ * Imports a directory tree of PDFs as ERPs without launching the user
+ * interface. Each PDF is stored as the ERP of the zone named after the file
+ * without its extension, wherever it is in the tree, so two files with the
+ * same name are an error.
+ *
+ * The files are checked in parallel - each must be within the size limit
+ * and start with a PDF header - and hashed, so that files which match the
+ * stored ERP are skipped, and the rest are not hashed again when they are
+ * stored. The rest are written in order, in batches of up
+ * to erp.import.batchSize files or erp.import.batchMB megabytes per
+ * transaction, while later files are still being checked. The number of
+ * threads checking files can be set with erp.import.threads. The import
+ * finishes once the text of the new ERPs has been indexed for searching.
+ *
+ * @author Taylor
+ *
+ */
+public final class ErpImporter {
+	private static final String EXTENSION = ".pdf";
+	private static final byte[] PDF_HEADER = { '%', 'P', 'D', 'F', '-' };
+	private static final String UNCHANGED  = "is unchanged"; //Returned by check() for a file matching the stored ERP
+
+	private ErpImporter() {
+	}
+
+	/**
+	 * Imports every PDF in a directory tree
+	 *
+	 * @param dir directory to import from
+	 * @param dbman database to store the ERPs in
+	 * @return the number of ERPs written
+	 * @throws IOException if the directory could not be read, or two files
+	 *             map to the same zone
+	 * @throws SQLException if a batch could not be stored. Batches before it
+	 *             are kept.
+	 */
+	public static int importDirectory(Path dir, DBManager dbman) throws IOException, SQLException {
+		long start = System.nanoTime();
+		Map<String, Path> files = findFiles(dir);
+		Map<String, String> stored = dbman.getERPHashes();
+
+		int batchSize = Math.max(Integer.getInteger("erp.import.batchSize", 64), 1);
+		long batchBytes = Math.max(Long.getLong("erp.import.batchMB", 256), 1) * 1024 * 1024;
+		ExecutorService executor = Threads.newTaskExecutor("import",
+				Integer.getInteger("erp.import.threads", Runtime.getRuntime().availableProcessors()));
+
+		List<CompletableFuture<Check>> checks = new ArrayList<CompletableFuture<Check>>();
+		for (Map.Entry<String, Path> file : files.entrySet()) {
+			checks.add(CompletableFuture.supplyAsync(() -> check(file.getValue(), stored.get(file.getKey())), executor));
+		}
+
+		Map<String, File> batch = new LinkedHashMap<String, File>();
+		Map<String, String> hashes = new HashMap<String, String>();
+		long pending = 0;
+		int written = 0;
+		int unchanged = 0;
+		int rejected = 0;
+		long bytes = 0;
+
+		try {
+			int i = 0;
+			for (Map.Entry<String, Path> file : files.entrySet()) {
+				Check check;
+				try {
+					check = checks.get(i++).join();
+				} catch (CompletionException e) {
+					check = new Check("could not be read: " + e.getCause(), null);
+				}
+
+				String problem = check.problem;
+				if (UNCHANGED.equals(problem)) {
+					unchanged++;
+					continue;
+				} else if (problem != null) {
+					Logger.warn("Skipping {}, it {}", file.getValue(), problem);
+					rejected++;
+					continue;
+				}
+
+				File pdf = file.getValue().toFile();
+				batch.put(file.getKey(), pdf);
+				hashes.put(file.getKey(), check.hash);
+				pending += pdf.length();
+
+				if (batch.size() >= batchSize || pending >= batchBytes) {
+					written += dbman.setERPs(batch, hashes);
+					bytes += pending;
+					Logger.debug("Imported {} ERPs so far", written);
+					batch.clear();
+					hashes.clear();
+					pending = 0;
+				}
+			}
+
+			if (!batch.isEmpty()) {
+				written += dbman.setERPs(batch, hashes);
+				bytes += pending;
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+		Logger.info("Imported {} ERPs, {} unchanged and {} skipped", written, unchanged, rejected);
+		Logger.info("Import took {}s: {} files/s, {} MB/s", String.format("%.1f", seconds), 
+				String.format("%.1f", written / seconds), String.format("%.1f", bytes / seconds / (1024 * 1024)));
+		
+		long indexStart = System.nanoTime();
+		try {
+			dbman.getTextIndex().awaitIdle(); //The application may exit straight after the import
+			Logger.info("Indexed the text of the ERPs in {}ms", (System.nanoTime() - indexStart) / 1000000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		
+		return written;
+	}
+
+	/**
+	 * Finds the PDFs in a directory tree
+	 *
+	 * @return the files keyed by the zone they are for, in zone order
+	 * @throws IOException if two files are for the same zone
+	 */
+	static Map<String, Path> findFiles(Path dir) throws IOException {
+		Map<String, Path> files = new TreeMap<String, Path>();
+
+		try (Stream<Path> tree = Files.walk(dir)) {
+			for (Path file : (Iterable<Path>) tree::iterator) {
+				String name = file.getFileName().toString();
+				if (!Files.isRegularFile(file) || !name.toLowerCase().endsWith(EXTENSION)) { continue; }
+
+				String id = name.substring(0, name.length() - EXTENSION.length());
+				Path other = files.put(id, file);
+				if (other != null) {
+					throw new IOException("Both " + other + " and " + file + " are ERPs for " + id);
+				}
+			}
+		}
+
+		return files;
+	}
+
+	/**
+	 * Checks that a file can be stored as an ERP
+	 *
+	 * @param file the file to check
+	 * @param storedHash hash of the ERP currently stored for its zone, or
+	 *            null if there is none
+	 * @return the result, with no problem if the file should be stored
+	 */
+	static Check check(Path file, String storedHash) {
+		try {
+			long size = Files.size(file);
+			if (size > DBManager.MAX_PDF_BYTES) {
+				return new Check("is larger than the allowed maximum (" + DBManager.MAX_PDF_SIZE + "MB)", null);
+			}
+
+			MessageDigest digest = DBManager.sha256();
+			try (InputStream in = new DigestInputStream(Files.newInputStream(file), digest)) {
+				byte[] header = new byte[PDF_HEADER.length];
+				if (in.readNBytes(header, 0, header.length) < header.length || !Arrays.equals(header, PDF_HEADER)) {
+					return new Check("is not a PDF", null);
+				}
+
+				in.transferTo(OutputStream.nullOutputStream());
+			}
+
+			String hash = DBManager.toHex(digest.digest());
+			return new Check(hash.equals(storedHash) ? UNCHANGED : null, hash);
+		} catch (IOException e) {
+			return new Check("could not be read: " + e, null);
+		}
+	}
+
+	/*
+	 * The result of checking a file: why it cannot be stored, UNCHANGED if
+	 * it matches the stored ERP, or null if it should be stored; and the
+	 * hash of its contents, if it was read to the end
+	 */
+	static final class Check {
+		final String problem;
+		final String hash;
+
+		Check(String problem, String hash) {
+			this.problem = problem;
+			this.hash = hash;
+		}
+	}
+}
@@ -0,0 +1,46 @@
+package database;
+
+import java.sql.Timestamp;
+
+/**
+ * An immutable record of one stored version of an ERP
+ * 
+ * @author Taylor
+ *
+ */
+public final class ErpRevision {
+	private final String    id;
+	private final int       revision;
+	private final String    hash;
+	private final long      size;
+	private final Timestamp created;
+
+	/**
+	 * @param id id of the ERP
+	 * @param revision revision number, starting at 1
+	 * @param hash SHA-256 of the PDF as hex
+	 * @param size size of the PDF in bytes
+	 * @param created when the revision was stored
+	 */
+	public ErpRevision(String id, int revision, String hash, long size, Timestamp created) {
+		this.id = id;
+		this.revision = revision;
+		this.hash = hash;
+		this.size = size;
+		this.created = created;
+	}
+
+	public String getId() { return this.id; }
+
+	public int getRevision() { return this.revision; }
+
+	public String getHash() { return this.hash; }
+
+	public long getSize() { return this.size; }
+
+	public Timestamp getCreated() { return this.created; }
+
+	public String toString() {
+		return String.format("%s r%d %s %d bytes %s", id, revision, hash, size, created);
+	}
+}
@@ -0,0 +1,109 @@
+package database;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of operation latencies. Values are kept in
+ * microseconds, in buckets that are exact below 16us and then split every
+ * power of two into 8, so any percentile is accurate to within 12.5%
+ * however long the operation took. Recording is a handful of atomic
+ * increments, cheap enough to do on every database call.
+ * 
+ * @author Taylor
+ *
+ */
+public final class LatencyHistogram {
+	private static final int LINEAR      = 16;
+	private static final int SUB_BUCKETS = 8;
+	private static final int SUB_BITS    = 3;
+	private static final int BUCKETS     = LINEAR + (Long.SIZE - 4) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong      errors = new AtomicLong();
+	private final AtomicLong      sum    = new AtomicLong();
+	private final AtomicLong      max    = new AtomicLong();
+
+	/**
+	 * Records an operation that started at the given time and has just
+	 * finished
+	 * 
+	 * @param startNanos System.nanoTime() when the operation started
+	 * @param succeeded false if the operation failed
+	 */
+	public void record(long startNanos, boolean succeeded) {
+		long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+		
+		counts.incrementAndGet(bucket(micros));
+		sum.addAndGet(micros);
+		max.accumulateAndGet(micros, Math::max);
+		
+		if (!succeeded) {
+			errors.incrementAndGet();
+		}
+	}
+
+	/**
+	 * @param name name of the operation being recorded
+	 * @return the count, error count and percentiles recorded so far
+	 */
+	public OperationStats snapshot(String name) {
+		long[] snapshot = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		
+		long longest = max.get();
+		return new OperationStats(name, total, errors.get(), total == 0 ? 0 : (double) sum.get() / total,
+				Math.min(percentile(snapshot, total, 0.5), longest), Math.min(percentile(snapshot, total, 0.9), longest), 
+				Math.min(percentile(snapshot, total, 0.99), longest), longest);
+	}
+
+	/**
+	 * Clears everything recorded so far
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		errors.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	/*
+	 * @return the upper bound in microseconds of the bucket the given
+	 * fraction of values fall within
+	 */
+	private static long percentile(long[] counts, long total, double fraction) {
+		if (total == 0) { return 0; }
+		
+		long rank = (long) Math.ceil(total * fraction);
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) { return upperBound(i); }
+		}
+		
+		return upperBound(counts.length - 1);
+	}
+
+	static int bucket(long micros) {
+		if (micros < LINEAR) { return (int) Math.max(micros, 0); }
+		
+		int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(micros);
+		int sub = (int) (micros >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return LINEAR + (exponent - 4) * SUB_BUCKETS + sub;
+	}
+
+	static long upperBound(int bucket) {
+		if (bucket < LINEAR) { return bucket; }
+		
+		int exponent = (bucket - LINEAR) / SUB_BUCKETS + 4;
+		int sub = (bucket - LINEAR) % SUB_BUCKETS;
+		return (1L << exponent) + ((long) (sub + 1) << (exponent - SUB_BITS)) - 1;
+	}
+}
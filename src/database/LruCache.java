@@ -0,0 +1,163 @@
+package database;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.ToLongFunction;
+
+/**
+ * A thread-safe, size-bounded cache that evicts the least recently used
+ * entries first. Every entry has a weight, and entries are evicted once the
+ * total weight goes over the limit. A cache created without a weigher
+ * gives every entry a weight of 1, so the limit is a number of entries.
+ * 
+ * Loads that race with an invalidation can be detected with generation():
+ * a value loaded before the cache was invalidated is dropped by
+ * putIfCurrent rather than stored.
+ * 
+ * @author Taylor
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public final class LruCache<K, V> {
+	private final long              maxWeight;
+	private final ToLongFunction<V> weigher;
+	private final LinkedHashMap<K, V> entries = new LinkedHashMap<K, V>(16, 0.75f, true);
+
+	private long weight;
+	private long generation;
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * Creates a cache holding at most maxEntries entries
+	 */
+	public LruCache(int maxEntries) {
+		this(maxEntries, v -> 1);
+	}
+
+	/**
+	 * Creates a cache holding entries with a total weight of at most
+	 * maxWeight
+	 * 
+	 * @param maxWeight maximum total weight of the cached values
+	 * @param weigher gives the weight of a value, such as its size in bytes
+	 */
+	public LruCache(long maxWeight, ToLongFunction<V> weigher) {
+		this.maxWeight = maxWeight;
+		this.weigher = weigher;
+	}
+
+	/**
+	 * @return the cached value for key, or null if it is not cached
+	 */
+	public synchronized V get(K key) {
+		V value = entries.get(key);
+
+		if (value == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+
+		return value;
+	}
+
+	/**
+	 * Gets a value without counting a hit or a miss, for a caller that has
+	 * already counted its lookup with get
+	 * 
+	 * @return the cached value for key, or null if it is not cached
+	 */
+	public synchronized V peek(K key) {
+		return entries.get(key);
+	}
+
+	/**
+	 * Checks for a key without counting a hit or a miss, or changing the
+	 * eviction order
+	 * 
+	 * @return true if a value is cached for key
+	 */
+	public synchronized boolean contains(K key) {
+		return entries.containsKey(key);
+	}
+
+	/**
+	 * Adds a value to the cache, evicting older entries if necessary. A value
+	 * heavier than the whole cache is not stored.
+	 */
+	public synchronized void put(K key, V value) {
+		long w = weigher.applyAsLong(value);
+		if (w > maxWeight) { return; }
+
+		V previous = entries.put(key, value);
+		if (previous != null) {
+			weight -= weigher.applyAsLong(previous);
+		}
+		weight += w;
+
+		Iterator<V> it = entries.values().iterator();
+		while (weight > maxWeight && it.hasNext()) {
+			V eldest = it.next();
+			it.remove();
+			weight -= weigher.applyAsLong(eldest);
+			evictions++;
+		}
+	}
+
+	/**
+	 * Adds a value to the cache only if nothing has been invalidated since
+	 * the given generation
+	 * 
+	 * @param generation the value of generation() from before the value was
+	 *            loaded
+	 * @return true if the value was stored
+	 */
+	public synchronized boolean putIfCurrent(K key, V value, long generation) {
+		if (generation != this.generation) { return false; }
+
+		put(key, value);
+		return true;
+	}
+
+	/**
+	 * @return the largest total weight the cache holds. A cache with a
+	 *         maximum of 0 never stores anything.
+	 */
+	public long getMaxWeight() { return this.maxWeight; }
+
+	/**
+	 * @return a counter that changes every time an entry is invalidated
+	 */
+	public synchronized long generation() { return this.generation; }
+
+	/**
+	 * Removes a single entry
+	 */
+	public synchronized void invalidate(K key) {
+		generation++;
+
+		V value = entries.remove(key);
+		if (value != null) {
+			weight -= weigher.applyAsLong(value);
+		}
+	}
+
+	/**
+	 * Removes every entry
+	 */
+	public synchronized void clear() {
+		generation++;
+		entries.clear();
+		weight = 0;
+	}
+
+	/**
+	 * @return a snapshot of the hit, miss and eviction counts
+	 */
+	public synchronized CacheStats stats() {
+		return new CacheStats(hits, misses, evictions, entries.size());
+	}
+}
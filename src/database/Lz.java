@@ -0,0 +1,409 @@
+package database;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/*
+ * A small, fast LZ77 compressor in the style of LZ4, used by Codec.LZ. It
+ * trades compression ratio for speed: a single hash probe per position and
+ * byte-aligned output, so decompressing is little more than copying.
+ * 
+ * A compressed block is a series of sequences. Each sequence is a token
+ * byte holding the number of literals in its high 4 bits and the match
+ * length minus MIN_MATCH in its low 4 bits, followed by the literals, a 2
+ * byte little endian offset back to the match, and any extra length bytes.
+ * A nibble of 15 is followed by extra length bytes, added to it until a
+ * byte other than 255 is read. The last sequence holds only literals.
+ * 
+ * Streams are split into blocks of BLOCK_SIZE bytes, each preceded by its
+ * raw and compressed lengths. A block that does not get smaller is stored
+ * as it is, with both lengths equal.
+ */
+final class Lz {
+	static final int BLOCK_SIZE = 64 * 1024;
+
+	private static final int MIN_MATCH     = 4;
+	private static final int LAST_LITERALS = 5;  // bytes at the end of a block that are never part of a match
+	private static final int MATCH_LIMIT   = 12; // no match may start this close to the end of a block
+	private static final int MAX_OFFSET    = 65535;
+	private static final int HASH_BITS     = 12;
+	private static final int SKIP_TRIGGER  = 6;  // speed up the search through data that is not compressing
+
+	private Lz() {
+	}
+
+	/**
+	 * @param length number of bytes to compress
+	 * @return the most a block of length bytes can grow to when compressed
+	 */
+	static int maxCompressedLength(int length) {
+		return length + length / 255 + 16;
+	}
+
+	/**
+	 * Compresses a block
+	 * 
+	 * @param src bytes to compress
+	 * @param length number of bytes of src to compress
+	 * @param dst buffer of at least maxCompressedLength(length) bytes
+	 * @return the number of bytes written to dst
+	 */
+	static int compress(byte[] src, int length, byte[] dst) {
+		int[] table = new int[1 << HASH_BITS];
+		Arrays.fill(table, -1);
+
+		int anchor = 0, op = 0, i = 0;
+		int limit = length - MATCH_LIMIT;
+
+		while (i < limit) {
+			int sequence = readInt(src, i);
+			int h = (sequence * -1640531535) >>> (Integer.SIZE - HASH_BITS);
+			int ref = table[h];
+			table[h] = i;
+
+			if (ref < 0 || i - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+				i += 1 + ((i - anchor) >>> SKIP_TRIGGER);
+				continue;
+			}
+
+			int matchLength = MIN_MATCH;
+			while (i + matchLength < length - LAST_LITERALS && src[ref + matchLength] == src[i + matchLength]) {
+				matchLength++;
+			}
+
+			op = writeSequence(src, anchor, i - anchor, dst, op, i - ref, matchLength);
+			i += matchLength;
+			anchor = i;
+		}
+
+		int literals = length - anchor;
+		dst[op++] = (byte) (Math.min(literals, 15) << 4);
+		op = writeLength(dst, op, literals);
+		System.arraycopy(src, anchor, dst, op, literals);
+
+		return op + literals;
+	}
+
+	private static int writeSequence(byte[] src, int anchor, int literals, byte[] dst, int op, int offset, int matchLength) {
+		int extra = matchLength - MIN_MATCH;
+		dst[op++] = (byte) (Math.min(literals, 15) << 4 | Math.min(extra, 15));
+		op = writeLength(dst, op, literals);
+
+		System.arraycopy(src, anchor, dst, op, literals);
+		op += literals;
+
+		dst[op++] = (byte) offset;
+		dst[op++] = (byte) (offset >>> 8);
+
+		return writeLength(dst, op, extra);
+	}
+
+	/*
+	 * Writes the part of a length that does not fit in its token nibble
+	 */
+	private static int writeLength(byte[] dst, int op, int length) {
+		if (length < 15) { return op; }
+
+		for (length -= 15; length >= 255; length -= 255) {
+			dst[op++] = (byte) 255;
+		}
+		dst[op++] = (byte) length;
+
+		return op;
+	}
+
+	/**
+	 * Decompresses a block
+	 * 
+	 * @param src buffer holding the compressed block
+	 * @param offset start of the compressed block in src
+	 * @param length length of the compressed block
+	 * @param dst buffer to decompress into
+	 * @param rawLength length of the block before it was compressed
+	 * @throws IOException if the block is corrupt or does not decompress to
+	 *             exactly rawLength bytes
+	 */
+	static void decompress(byte[] src, int offset, int length, byte[] dst, int rawLength) throws IOException {
+		int ip = offset, op = 0, end = offset + length;
+
+		try {
+			while (true) {
+				int token = src[ip++] & 0xFF;
+
+				int literals = token >>> 4;
+				if (literals == 15) {
+					int b;
+					do {
+						b = src[ip++] & 0xFF;
+						literals += b;
+					} while (b == 255);
+				}
+
+				System.arraycopy(src, ip, dst, op, literals);
+				ip += literals;
+				op += literals;
+
+				if (ip == end) { break; }
+
+				int distance = (src[ip++] & 0xFF) | (src[ip++] & 0xFF) << 8;
+				int matchLength = (token & 0x0F);
+				if (matchLength == 15) {
+					int b;
+					do {
+						b = src[ip++] & 0xFF;
+						matchLength += b;
+					} while (b == 255);
+				}
+				matchLength += MIN_MATCH;
+
+				if (distance == 0 || distance > op || op + matchLength > rawLength) {
+					throw new IOException("Corrupt LZ block");
+				}
+
+				for (int ref = op - distance, stop = op + matchLength; op < stop;) {
+					dst[op++] = dst[ref++]; //Byte by byte, as the match may overlap what it is copying
+				}
+			}
+		} catch (IndexOutOfBoundsException e) {
+			throw new IOException("Corrupt LZ block", e);
+		}
+
+		if (ip != end || op != rawLength) { throw new IOException("Corrupt LZ block"); }
+	}
+
+	/**
+	 * Compresses a whole array into the same format as CompressingInputStream,
+	 * without the stream's buffers. Used for pages, which are small.
+	 * 
+	 * @param raw bytes to compress
+	 * @return the compressed stream
+	 */
+	static byte[] encode(byte[] raw) {
+		int blocks = (raw.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		byte[] out = new byte[blocks * 8 + raw.length];
+		byte[] compressed = new byte[maxCompressedLength(Math.min(raw.length, BLOCK_SIZE))];
+		byte[] src = raw;
+		int op = 0;
+
+		for (int start = 0; start < raw.length; start += BLOCK_SIZE) {
+			int length = Math.min(BLOCK_SIZE, raw.length - start);
+			if (blocks > 1) {
+				src = Arrays.copyOfRange(raw, start, start + length);
+			}
+
+			int stored = compress(src, length, compressed);
+			if (stored >= length) {
+				stored = length;
+				System.arraycopy(src, 0, out, op + 8, length);
+			} else {
+				System.arraycopy(compressed, 0, out, op + 8, stored);
+			}
+
+			writeInt(out, op, length);
+			writeInt(out, op + 4, stored);
+			op += 8 + stored;
+		}
+
+		return Arrays.copyOf(out, op);
+	}
+
+	/**
+	 * Decompresses an array written by encode() or CompressingInputStream
+	 * 
+	 * @param stored the compressed stream
+	 * @return the original bytes
+	 * @throws IOException if the stream is corrupt
+	 */
+	static byte[] decode(byte[] stored) throws IOException {
+		long total = 0;
+		for (int ip = 0; ip < stored.length; ip += 8 + readBigInt(stored, ip + 4)) {
+			int length = ip + 8 <= stored.length ? readBigInt(stored, ip) : -1;
+			int size = ip + 8 <= stored.length ? readBigInt(stored, ip + 4) : -1;
+			
+			if (length <= 0 || length > BLOCK_SIZE || size <= 0 || size > stored.length - ip - 8) {
+				throw new IOException("Corrupt LZ stream");
+			}
+			total += length;
+		}
+		if (total > Integer.MAX_VALUE) { throw new IOException("LZ stream too large to decode into an array"); }
+
+		byte[] out = new byte[(int) total];
+		byte[] block = null;
+		int op = 0;
+
+		for (int ip = 0; ip < stored.length;) {
+			int length = readBigInt(stored, ip);
+			int size = readBigInt(stored, ip + 4);
+
+			if (size == length) {
+				System.arraycopy(stored, ip + 8, out, op, length);
+			} else if (op == 0 && length == out.length) {
+				decompress(stored, ip + 8, size, out, length);
+			} else {
+				if (block == null) { block = new byte[BLOCK_SIZE]; }
+				decompress(stored, ip + 8, size, block, length);
+				System.arraycopy(block, 0, out, op, length);
+			}
+
+			ip += 8 + size;
+			op += length;
+		}
+
+		return out;
+	}
+
+	private static void writeInt(byte[] b, int at, int value) {
+		b[at] = (byte) (value >>> 24);
+		b[at + 1] = (byte) (value >>> 16);
+		b[at + 2] = (byte) (value >>> 8);
+		b[at + 3] = (byte) value;
+	}
+
+	private static int readBigInt(byte[] b, int i) {
+		return (b[i] & 0xFF) << 24 | (b[i + 1] & 0xFF) << 16 | (b[i + 2] & 0xFF) << 8 | (b[i + 3] & 0xFF);
+	}
+
+	private static int readInt(byte[] b, int i) {
+		return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16 | (b[i + 3] & 0xFF) << 24;
+	}
+
+	/*
+	 * Reads a stream and returns it compressed, one block at a time
+	 */
+	static final class CompressingInputStream extends BlockInputStream {
+		private final InputStream in;
+		private final byte[]      raw        = new byte[BLOCK_SIZE];
+		private final byte[]      compressed = new byte[maxCompressedLength(BLOCK_SIZE)];
+
+		CompressingInputStream(InputStream in) {
+			super(8 + maxCompressedLength(BLOCK_SIZE));
+			this.in = in;
+		}
+
+		@Override
+		boolean nextBlock() throws IOException {
+			int length = 0;
+			for (int read; length < BLOCK_SIZE && (read = in.read(raw, length, BLOCK_SIZE - length)) > 0;) {
+				length += read;
+			}
+			if (length == 0) { return false; }
+
+			int stored = compress(raw, length, compressed);
+			byte[] body = compressed;
+			if (stored >= length) {
+				stored = length;
+				body = raw;
+			}
+
+			writeInt(block, 0, length);
+			writeInt(block, 4, stored);
+			System.arraycopy(body, 0, block, 8, stored);
+			setBlock(8 + stored);
+
+			return true;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+	/*
+	 * Reads a stream written by CompressingInputStream and returns the
+	 * original bytes
+	 */
+	static final class DecompressingInputStream extends BlockInputStream {
+		private final DataInputStream in;
+		private final byte[]          compressed = new byte[maxCompressedLength(BLOCK_SIZE)];
+
+		DecompressingInputStream(InputStream in) {
+			super(BLOCK_SIZE);
+			this.in = new DataInputStream(in);
+		}
+
+		@Override
+		boolean nextBlock() throws IOException {
+			int first = in.read();
+			if (first < 0) { return false; }
+
+			int length = first << 24 | (in.readUnsignedByte() << 16) | (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+			int stored = in.readInt();
+			if (length <= 0 || length > BLOCK_SIZE || stored <= 0 || stored > compressed.length) {
+				throw new IOException("Corrupt LZ stream");
+			}
+
+			if (stored == length) {
+				in.readFully(block, 0, length);
+			} else {
+				in.readFully(compressed, 0, stored);
+				decompress(compressed, 0, stored, block, length);
+			}
+			setBlock(length);
+
+			return true;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+	/*
+	 * Serves the bytes of one block at a time, asking for the next block once
+	 * the current one has been read
+	 */
+	private abstract static class BlockInputStream extends InputStream {
+		final byte[] block;
+		private int  position;
+		private int  limit;
+		private boolean eof;
+
+		BlockInputStream(int capacity) {
+			this.block = new byte[capacity];
+		}
+
+		/*
+		 * Fills block with the next block of output
+		 * 
+		 * @return false at the end of the stream
+		 */
+		abstract boolean nextBlock() throws IOException;
+
+		final void setBlock(int length) {
+			position = 0;
+			limit = length;
+		}
+
+		private boolean fill() throws IOException {
+			while (position == limit) {
+				if (eof || !nextBlock()) {
+					eof = true;
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public int read() throws IOException {
+			return fill() ? block[position++] & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) { return 0; }
+			if (!fill()) { return -1; }
+
+			int read = Math.min(len, limit - position);
+			System.arraycopy(block, position, b, off, read);
+			position += read;
+
+			return read;
+		}
+	}
+}
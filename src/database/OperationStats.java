@@ -0,0 +1,63 @@
+package database;
+
+/**
+ * An immutable snapshot of the latencies of one kind of database operation.
+ * Times are in microseconds.
+ * 
+ * @author Taylor
+ *
+ */
+public final class OperationStats {
+	private final String name;
+	private final long   count;
+	private final long   errors;
+	private final double meanMicros;
+	private final long   p50Micros;
+	private final long   p90Micros;
+	private final long   p99Micros;
+	private final long   maxMicros;
+
+	/**
+	 * @param name name of the operation
+	 * @param count number of operations recorded
+	 * @param errors number of those that failed
+	 * @param meanMicros mean latency
+	 * @param p50Micros median latency
+	 * @param p90Micros 90th percentile latency
+	 * @param p99Micros 99th percentile latency
+	 * @param maxMicros longest latency
+	 */
+	public OperationStats(String name, long count, long errors, double meanMicros, long p50Micros, long p90Micros,
+			long p99Micros, long maxMicros) {
+		this.name = name;
+		this.count = count;
+		this.errors = errors;
+		this.meanMicros = meanMicros;
+		this.p50Micros = p50Micros;
+		this.p90Micros = p90Micros;
+		this.p99Micros = p99Micros;
+		this.maxMicros = maxMicros;
+	}
+
+	public String getName() { return this.name; }
+
+	public long getCount() { return this.count; }
+
+	public long getErrors() { return this.errors; }
+
+	public double getMeanMicros() { return this.meanMicros; }
+
+	public long getP50Micros() { return this.p50Micros; }
+
+	public long getP90Micros() { return this.p90Micros; }
+
+	public long getP99Micros() { return this.p99Micros; }
+
+	public long getMaxMicros() { return this.maxMicros; }
+
+	public String toString() {
+		return String.format("%s count=%d errors=%d mean=%.3fms p50=%.3fms p90=%.3fms p99=%.3fms max=%.3fms", 
+				name, count, errors, meanMicros / 1000, p50Micros / 1000.0, p90Micros / 1000.0, p99Micros / 1000.0, 
+				maxMicros / 1000.0);
+	}
+}
@@ -0,0 +1,32 @@
+package database;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Flight Recorder event covering turning a stored page into its Swing
+ * components: decompressing it, decoding the PageModel or deserializing a
+ * legacy IPanel, and building the buttons and background
+ * 
+ * @author Taylor
+ *
+ */
+@Name("erp_manager.PageDecode")
+@Label("Page Decode")
+@Category({ "ERP Manager", "Database" })
+@Description("Decompressing and building the components of a stored page")
+final class PageDecodeEvent extends Event {
+	@Label("Page ID")
+	String pageId;
+
+	@Label("Stored Bytes")
+	@DataAmount
+	long bytes;
+
+	@Label("Codec")
+	String codec;
+}
@@ -0,0 +1,483 @@
+package database;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/*
+ * Pulls the text out of a PDF well enough to index it. There is no PDF
+ * library on the classpath, so this only understands what plans exported
+ * from office software usually contain: page content streams that are
+ * either uncompressed or FlateDecode compressed, showing text with the Tj,
+ * TJ, ' and " operators in fonts with a single byte encoding.
+ *
+ * Everything else - images, embedded fonts, other filters - is skipped,
+ * and strings are read as Latin-1, so text in fonts that only map glyphs to
+ * characters through a ToUnicode CMap comes out as nonsense, which simply
+ * never matches a search. Extraction never fails: anything it cannot read
+ * adds no text.
+ */
+final class PdfText {
+	private static final byte[] STREAM     = "stream".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] END_STREAM = "endstream".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] OBJ        = "obj".getBytes(StandardCharsets.US_ASCII);
+
+	// Furthest before a stream its dictionary is looked for
+	private static final int MAX_DICTIONARY = 4096;
+
+	// Largest stream inflated, so a corrupt or hostile file cannot use up the heap
+	static final int MAX_STREAM = 16 * 1024 * 1024;
+
+	// A TJ adjustment further than this, in thousandths of an em, is a gap between words
+	private static final double WORD_GAP = 200;
+
+	private static final Pattern FILTER = Pattern.compile("/([A-Za-z0-9]+Decode)\\b");
+	private static final Set<String> SKIPPED = new HashSet<String>(Arrays.asList(
+			"/Image", "/Length1", "/Length2", "/Length3", "/XRef", "/ObjStm", "/EmbeddedFile", "/Metadata"));
+
+	private PdfText() {
+	}
+
+	/**
+	 * @param pdf the contents of a PDF, or its first part
+	 * @return the text shown on its pages, with words separated by
+	 *         whitespace
+	 */
+	static String extract(byte[] pdf) {
+		StringBuilder text = new StringBuilder();
+		int from = 0;
+
+		for (int start = indexOf(pdf, STREAM, from, pdf.length); start >= 0; start = indexOf(pdf, STREAM, from, pdf.length)) {
+			int data = start + STREAM.length;
+			if (data < pdf.length && pdf[data] == '\r') { data++; }
+			if (data >= pdf.length || pdf[data] != '\n' || (start > 0 && isRegular(pdf[start - 1]))) {
+				from = start + 1; //Not the stream keyword, such as the end of endstream
+				continue;
+			}
+			data++;
+
+			int end = indexOf(pdf, END_STREAM, data, pdf.length);
+			if (end < 0) { break; }
+			from = end + END_STREAM.length;
+
+			byte[] content = decode(dictionary(pdf, start), pdf, data, end);
+			if (content != null) {
+				showText(content, text);
+			}
+		}
+
+		return text.toString();
+	}
+
+	/**
+	 * @return the text between the obj keyword and the stream keyword,
+	 *         which holds the stream's dictionary
+	 */
+	private static String dictionary(byte[] pdf, int stream) {
+		int from = Math.max(stream - MAX_DICTIONARY, 0);
+		int obj = -1;
+		for (int i = indexOf(pdf, OBJ, from, stream); i >= 0; i = indexOf(pdf, OBJ, i + 1, stream)) {
+			obj = i;
+		}
+
+		int start = obj < 0 ? from : obj + OBJ.length;
+		return new String(pdf, start, stream - start, StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * @return the decoded stream, or null if it cannot hold page text or
+	 *         uses a filter other than FlateDecode
+	 */
+	private static byte[] decode(String dictionary, byte[] pdf, int start, int end) {
+		for (String skipped : SKIPPED) {
+			if (dictionary.contains(skipped)) { return null; }
+		}
+
+		List<String> filters = new ArrayList<String>();
+		Matcher matcher = FILTER.matcher(dictionary);
+		while (matcher.find()) {
+			filters.add(matcher.group(1));
+		}
+
+		if (filters.isEmpty()) {
+			byte[] raw = new byte[end - start];
+			System.arraycopy(pdf, start, raw, 0, raw.length);
+			return raw;
+		}
+		if (filters.size() > 1 || !filters.get(0).equals("FlateDecode")) { return null; }
+
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(pdf, start, end - start);
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[64 * 1024];
+
+			while (!inflater.finished() && out.size() < MAX_STREAM) {
+				int n = inflater.inflate(buffer);
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) { break; }
+
+				out.write(buffer, 0, n);
+			}
+
+			return out.toByteArray();
+		} catch (DataFormatException e) {
+			return null;
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Runs through a content stream, adding the strings shown between BT and
+	 * ET to the text
+	 */
+	private static void showText(byte[] content, StringBuilder text) {
+		TextWriter writer = new TextWriter(text);
+		List<Object> operands = new ArrayList<Object>();
+		List<Object> array = null;
+		boolean inText = false;
+		int i = 0;
+
+		while (i < content.length) {
+			byte b = content[i];
+
+			if (isWhitespace(b)) {
+				i++;
+			} else if (b == '%') {
+				while (i < content.length && content[i] != '\n' && content[i] != '\r') { i++; }
+			} else if (b == '(') {
+				ByteArrayOutputStream string = new ByteArrayOutputStream();
+				i = literal(content, i + 1, string);
+				(array != null ? array : operands).add(string.toByteArray());
+			} else if (b == '<' && i + 1 < content.length && content[i + 1] == '<') {
+				i += 2;
+			} else if (b == '<') {
+				ByteArrayOutputStream string = new ByteArrayOutputStream();
+				i = hex(content, i + 1, string);
+				(array != null ? array : operands).add(string.toByteArray());
+			} else if (b == '>') {
+				i++;
+			} else if (b == '[') {
+				array = new ArrayList<Object>();
+				i++;
+			} else if (b == ']') {
+				if (array != null) { operands.add(array); }
+				array = null;
+				i++;
+			} else if (b == '/') {
+				i = skipRegular(content, i + 1);
+			} else if (b == '{' || b == '}' || b == ')') {
+				i++;
+			} else {
+				int end = skipRegular(content, i);
+				String token = new String(content, i, end - i, StandardCharsets.ISO_8859_1);
+				i = end;
+
+				Double number = number(token);
+				if (number != null) {
+					(array != null ? array : operands).add(number);
+					continue;
+				}
+
+				if (token.equals("BT")) {
+					inText = true;
+					writer.beginText();
+				} else if (token.equals("ET")) {
+					inText = false;
+				} else if (token.equals("BI")) {
+					i = skipInlineImage(content, i);
+				} else if (inText) {
+					operator(token, operands, writer);
+				}
+
+				operands.clear();
+				array = null;
+			}
+		}
+
+		if (writer.shown) { text.append('\n'); }
+	}
+
+	/**
+	 * Applies a text operator
+	 */
+	private static void operator(String token, List<Object> operands, TextWriter writer) {
+		Object last = operands.isEmpty() ? null : operands.get(operands.size() - 1);
+
+		switch (token) {
+		case "Tf":
+			if (last instanceof Double) { writer.size = (Double) last; }
+			break;
+		case "Tm":
+			if (operands.size() == 6 && operands.stream().allMatch(o -> o instanceof Double)) {
+				writer.matrix((Double) operands.get(0), (Double) operands.get(4), (Double) operands.get(5));
+			}
+			break;
+		case "Td":
+		case "TD":
+			if (operands.size() == 2 && operands.get(0) instanceof Double && last instanceof Double) {
+				writer.move((Double) operands.get(0), (Double) last);
+			}
+			break;
+		case "T*":
+			writer.nextLine();
+			break;
+		case "Tj":
+			if (last instanceof byte[]) { writer.show((byte[]) last); }
+			break;
+		case "'":
+		case "\"":
+			writer.nextLine();
+			if (last instanceof byte[]) { writer.show((byte[]) last); }
+			break;
+		case "TJ":
+			if (last instanceof List) {
+				for (Object element : (List<?>) last) {
+					if (element instanceof byte[]) {
+						writer.show((byte[]) element);
+					} else if (element instanceof Double) {
+						writer.adjust((Double) element);
+					}
+				}
+			}
+			break;
+		default:
+			break;
+		}
+	}
+
+	/*
+	 * Follows roughly where text is being drawn, so that pieces of one word
+	 * drawn separately - as word processors do around kerning and changes of
+	 * style - are joined up, while text further along the line or on another
+	 * line is separated from what came before. The width of each character is
+	 * not known without reading the font, so half an em is assumed.
+	 */
+	private static final class TextWriter {
+		private final StringBuilder text;
+
+		double  size = 12;  // Font size
+		double  scale = 1;  // Horizontal scale of the text matrix
+		double  lineX;      // Start of the current line
+		double  lineY;
+		double  x;          // Where the next character goes
+		double  y;
+		boolean newLine;    // Set by T*, which moves down by an unknown leading
+		boolean shown;      // Whether anything has been shown yet
+
+		// Where the last string shown started and ended
+		private double lastStart;
+		private double lastEnd;
+		private double lastY;
+
+		TextWriter(StringBuilder text) {
+			this.text = text;
+		}
+
+		void beginText() {
+			scale = 1;
+			lineX = lineY = x = y = 0;
+		}
+
+		void matrix(double a, double e, double f) {
+			scale = a == 0 ? 1 : Math.abs(a);
+			lineX = x = e;
+			lineY = y = f;
+		}
+
+		void move(double tx, double ty) {
+			lineX += tx * scale;
+			lineY += ty * scale;
+			x = lineX;
+			y = lineY;
+		}
+
+		void nextLine() {
+			newLine = true;
+			x = lineX;
+		}
+
+		/** Moves along the line by a TJ adjustment, in thousandths of an em */
+		void adjust(double thousandths) {
+			double move = -thousandths / 1000 * size * scale;
+			x += move;
+
+			if (move > WORD_GAP / 1000 * size * scale) {
+				separate(' ');
+			}
+		}
+
+		void show(byte[] string) {
+			double em = size * scale;
+
+			if (shown && newLine) {
+				separate('\n');
+			} else if (shown && Math.abs(y - lastY) > em / 2) {
+				separate('\n');
+			} else if (shown && (x > lastEnd + em || x < lastStart)) {
+				separate(' ');
+			}
+
+			text.append(new String(string, StandardCharsets.ISO_8859_1));
+			newLine = false;
+			shown = true;
+
+			lastStart = x;
+			x += string.length * em / 2;
+			lastEnd = x;
+			lastY = y;
+		}
+
+		private void separate(char separator) {
+			int length = text.length();
+			if (length > 0 && !Character.isWhitespace(text.charAt(length - 1))) {
+				text.append(separator);
+			}
+		}
+	}
+
+	/**
+	 * Reads a literal string, with its escapes and balanced parentheses
+	 *
+	 * @param i position after the opening parenthesis
+	 * @return the position after the closing parenthesis
+	 */
+	private static int literal(byte[] content, int i, ByteArrayOutputStream string) {
+		int depth = 1;
+
+		while (i < content.length) {
+			byte b = content[i++];
+
+			if (b == '\\' && i < content.length) {
+				byte e = content[i++];
+				switch (e) {
+				case 'n': string.write('\n'); break;
+				case 'r': string.write('\r'); break;
+				case 't': string.write('\t'); break;
+				case 'b': string.write('\b'); break;
+				case 'f': string.write('\f'); break;
+				case '\r':
+					if (i < content.length && content[i] == '\n') { i++; }
+					break;
+				case '\n':
+					break;
+				default:
+					if (e >= '0' && e <= '7') {
+						int value = e - '0';
+						for (int digits = 1; digits < 3 && i < content.length && content[i] >= '0' && content[i] <= '7'; digits++) {
+							value = value * 8 + content[i++] - '0';
+						}
+						string.write(value);
+					} else {
+						string.write(e);
+					}
+				}
+			} else if (b == '(') {
+				depth++;
+				string.write(b);
+			} else if (b == ')') {
+				if (--depth == 0) { break; }
+				string.write(b);
+			} else {
+				string.write(b);
+			}
+		}
+
+		return i;
+	}
+
+	/**
+	 * Reads a hexadecimal string
+	 *
+	 * @param i position after the opening angle bracket
+	 * @return the position after the closing angle bracket
+	 */
+	private static int hex(byte[] content, int i, ByteArrayOutputStream string) {
+		int high = -1;
+
+		while (i < content.length && content[i] != '>') {
+			int digit = Character.digit(content[i++], 16);
+			if (digit < 0) { continue; }
+
+			if (high < 0) {
+				high = digit;
+			} else {
+				string.write(high * 16 + digit);
+				high = -1;
+			}
+		}
+
+		if (high >= 0) { string.write(high * 16); }
+		return i + 1;
+	}
+
+	/**
+	 * Skips the binary data of an inline image, which runs from ID to EI
+	 *
+	 * @return the position after EI
+	 */
+	private static int skipInlineImage(byte[] content, int i) {
+		byte[] id = "ID".getBytes(StandardCharsets.US_ASCII);
+		byte[] ei = "EI".getBytes(StandardCharsets.US_ASCII);
+
+		int data = indexOf(content, id, i, content.length);
+		if (data < 0) { return content.length; }
+
+		for (int end = indexOf(content, ei, data + 2, content.length); end >= 0; end = indexOf(content, ei, end + 1, content.length)) {
+			boolean before = isWhitespace(content[end - 1]);
+			boolean after = end + 2 >= content.length || isWhitespace(content[end + 2]);
+			if (before && after) { return end + 2; }
+		}
+
+		return content.length;
+	}
+
+	private static int skipRegular(byte[] content, int i) {
+		int start = i;
+		while (i < content.length && isRegular(content[i])) { i++; }
+
+		return i == start ? i + 1 : i;
+	}
+
+	/**
+	 * @return the value of a numeric token, or null if it is an operator
+	 */
+	private static Double number(String token) {
+		char first = token.isEmpty() ? ' ' : token.charAt(0);
+		if (!(first >= '0' && first <= '9') && first != '.' && first != '-' && first != '+') { return null; }
+
+		try {
+			return Double.valueOf(token);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\n' || b == '\r' || b == '\t' || b == '\f' || b == 0;
+	}
+
+	private static boolean isRegular(byte b) {
+		return !isWhitespace(b) && "()<>[]{}/%".indexOf(b) < 0;
+	}
+
+	private static int indexOf(byte[] data, byte[] pattern, int from, int to) {
+		outer:
+		for (int i = Math.max(from, 0); i <= to - pattern.length; i++) {
+			for (int j = 0; j < pattern.length; j++) {
+				if (data[i + j] != pattern[j]) { continue outer; }
+			}
+			return i;
+		}
+
+		return -1;
+	}
+}
@@ -0,0 +1,67 @@
+package database;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An immutable snapshot of the state of the database connection pool
+ * 
+ * @author Taylor
+ *
+ */
+public final class PoolStats {
+	private final int  active;
+	private final int  idle;
+	private final int  maxSize;
+	private final long acquisitions;
+	private final long timeouts;
+	private final long totalWaitNanos;
+	private final long maxWaitNanos;
+
+	/**
+	 * @param active connections currently lent out
+	 * @param idle open connections waiting to be lent out
+	 * @param maxSize maximum number of connections the pool will open
+	 * @param acquisitions number of connections lent out so far
+	 * @param timeouts number of requests that gave up waiting for a connection
+	 * @param totalWaitNanos total time spent waiting for connections
+	 * @param maxWaitNanos longest time a single request waited for a connection
+	 */
+	public PoolStats(int active, int idle, int maxSize, long acquisitions, long timeouts, long totalWaitNanos,
+			long maxWaitNanos) {
+		this.active = active;
+		this.idle = idle;
+		this.maxSize = maxSize;
+		this.acquisitions = acquisitions;
+		this.timeouts = timeouts;
+		this.totalWaitNanos = totalWaitNanos;
+		this.maxWaitNanos = maxWaitNanos;
+	}
+
+	public int getActive() { return this.active; }
+
+	public int getIdle() { return this.idle; }
+
+	public int getMaxSize() { return this.maxSize; }
+
+	public long getAcquisitions() { return this.acquisitions; }
+
+	public long getTimeouts() { return this.timeouts; }
+
+	public long getTotalWaitNanos() { return this.totalWaitNanos; }
+
+	public long getMaxWaitNanos() { return this.maxWaitNanos; }
+
+	/**
+	 * @return the average time in milliseconds spent waiting for a
+	 *         connection, or 0 if none have been acquired
+	 */
+	public double getAverageWaitMillis() {
+		return acquisitions == 0 ? 0 : (double) totalWaitNanos / acquisitions / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	public String toString() {
+		return String.format("active=%d idle=%d max=%d acquired=%d timeouts=%d avgWait=%.3fms maxWait=%.3fms", 
+				active, idle, maxSize, acquisitions, timeouts, getAverageWaitMillis(), 
+				(double) maxWaitNanos / TimeUnit.MILLISECONDS.toNanos(1));
+	}
+}
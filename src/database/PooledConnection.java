@@ -0,0 +1,135 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import drivers.Logger;
+
+/*
+ * A database connection lent out by the ConnectionPool. Closing it returns
+ * the connection to the pool rather than closing the underlying Connection.
+ * 
+ * A PooledConnection is only ever used by one thread at a time, so the
+ * statements it hands out can be used without further locking. Closing it
+ * more than once returns it to the pool only once.
+ */
+final class PooledConnection implements AutoCloseable {
+	private final ConnectionPool pool;
+	private final Connection     connection;
+	private final StatementCache statementCache;
+	private Statement            statement;
+
+	// Set once the connection has been returned, until it is lent out again
+	private final AtomicBoolean returned = new AtomicBoolean();
+
+	PooledConnection(ConnectionPool pool, Connection connection) {
+		this.pool = pool;
+		this.connection = connection;
+		this.statementCache = new StatementCache(connection);
+	}
+
+	/**
+	 * Gets a scrollable PreparedStatement for the query from this
+	 * connection's statement cache. The statement must not be closed.
+	 * 
+	 * @param query Query to be prepared
+	 * @return the PreparedStatement
+	 * @throws SQLException if the query could not be prepared
+	 */
+	PreparedStatement prepare(String query) throws SQLException {
+		return prepare(query, ResultSet.TYPE_SCROLL_INSENSITIVE);
+	}
+
+	/**
+	 * Gets a PreparedStatement for the query from this connection's statement
+	 * cache. The statement must not be closed.
+	 * 
+	 * @param query
+	 *            Query to be prepared
+	 * @param resultSetType
+	 *            One of the ResultSet.TYPE_ constants. Queries that only
+	 *            move forwards through their results should use
+	 *            TYPE_FORWARD_ONLY, which Derby does not have to materialize.
+	 * @return the PreparedStatement
+	 * @throws SQLException if the query could not be prepared
+	 */
+	PreparedStatement prepare(String query, int resultSetType) throws SQLException {
+		return statementCache.prepare(query, resultSetType);
+	}
+
+	/**
+	 * Gets a plain scrollable Statement for running unprepared SQL
+	 */
+	Statement statement() throws SQLException {
+		if (statement == null) {
+			statement = connection.createStatement(ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+		}
+		return statement;
+	}
+
+	/**
+	 * @return the underlying Connection, for transaction control
+	 */
+	Connection getConnection() { return this.connection; }
+
+	CacheStats statementCacheStats() { return statementCache.stats(); }
+
+	/**
+	 * Returns the connection to the pool, unless it has already been
+	 * returned
+	 */
+	@Override
+	public void close() {
+		if (returned.compareAndSet(false, true)) {
+			pool.release(this);
+		}
+	}
+
+	/*
+	 * Marks an idle connection as lent out again
+	 */
+	void lend() {
+		returned.set(false);
+	}
+
+	/*
+	 * Puts the connection back into its default state before it is reused
+	 * 
+	 * @return false if the connection is closed or could not be reset, for
+	 *         instance because the network server dropped it, so it should
+	 *         not be reused
+	 */
+	boolean reset() {
+		try {
+			if (connection.isClosed()) { return false; }
+			
+			if (!connection.getAutoCommit()) {
+				connection.rollback();
+				connection.setAutoCommit(true);
+			}
+			return true;
+		} catch (SQLException e) {
+			Logger.warn("A database connection could not be reset, it will be closed", e);
+			return false;
+		}
+	}
+
+	/*
+	 * Closes the underlying connection and its statements
+	 */
+	void closeConnection() {
+		try {
+			statementCache.close();
+			if (statement != null) {
+				statement.close();
+			}
+			connection.close();
+		} catch (SQLException e) {
+			/* ignore the exception */
+		}
+	}
+}
@@ -0,0 +1,177 @@
+package database;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import drivers.Logger;
+import drivers.Threads;
+
+/**
+ * Loads the pages and ERPs a user is likely to open next while they are
+ * looking at the current page, so that drilling down through the site map
+ * does not have to wait on the database.
+ * 
+ * When a page is shown, the targets of its buttons are ranked by how often
+ * users have gone from that page to each of them, then pages before ERPs
+ * (they are far smaller), then the order of the buttons. The best
+ * candidates are loaded into the page cache and the ERP cache on a small
+ * pool of low priority threads.
+ * 
+ * Prefetching always gives way to the user: a fetch is skipped if a
+ * foreground database operation is running or if taking a connection would
+ * leave none free, and any fetches still queued are dropped once the next
+ * page is shown. The number of candidates per page, the number of threads
+ * and the bytes of ERPs fetched per page are set by the
+ * erp.prefetch.candidates, erp.prefetch.threads and erp.prefetch.maxMB
+ * system properties.
+ * 
+ * @author Taylor
+ *
+ */
+public final class Prefetcher {
+	private final DBManager       dbman;
+	private final ExecutorService executor;
+	private final int             maxCandidates;
+	private final long            maxBytes;
+
+	// from page id -> (target id -> times the user went from one to the other)
+	private final Map<String, Map<String, Integer>> transitions = new HashMap<String, Map<String, Integer>>();
+
+	// Incremented every time a page is shown, so fetches for a page the user
+	// has already left are dropped
+	private final AtomicLong round = new AtomicLong();
+
+	private final AtomicLong pagesFetched = new AtomicLong();
+	private final AtomicLong erpsFetched  = new AtomicLong();
+	private final AtomicLong bytesFetched = new AtomicLong();
+	private final AtomicLong skipped      = new AtomicLong();
+
+	Prefetcher(DBManager dbman) {
+		this.dbman = dbman;
+		this.maxCandidates = Integer.getInteger("erp.prefetch.candidates", 4);
+		this.maxBytes = Long.getLong("erp.prefetch.maxMB", 64) * 1024 * 1024;
+
+		ThreadFactory daemons = Threads.daemonFactory("prefetch");
+		this.executor = Executors.newFixedThreadPool(Integer.getInteger("erp.prefetch.threads", 2), r -> {
+			Thread thread = daemons.newThread(r);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		});
+	}
+
+	/**
+	 * Records that the user went from one page to a page or ERP
+	 * 
+	 * @param from id of the page the user was on
+	 * @param to id of the page or ERP they opened
+	 */
+	public void recordTransition(String from, String to) {
+		if (from == null || to == null) { return; }
+
+		synchronized (transitions) {
+			transitions.computeIfAbsent(from, k -> new HashMap<String, Integer>()).merge(to, 1, Integer::sum);
+		}
+	}
+
+	/**
+	 * Starts prefetching the most likely targets of a page that has just been
+	 * shown, and drops anything still queued for the previous page
+	 * 
+	 * @param pageID id of the page being shown
+	 * @param pages ids of the pages its buttons open, in button order
+	 * @param erps ids of the ERPs its buttons open, in button order
+	 */
+	public void pageShown(String pageID, List<String> pages, List<String> erps) {
+		long current = round.incrementAndGet();
+		AtomicLong budget = new AtomicLong(maxBytes);
+
+		for (Candidate candidate : rank(pageID, pages, erps)) {
+			executor.execute(() -> fetch(candidate, current, budget));
+		}
+	}
+
+	/**
+	 * Orders the targets of a page by how likely the user is to open them
+	 * next, and keeps the best erp.prefetch.candidates of them
+	 */
+	List<Candidate> rank(String pageID, List<String> pages, List<String> erps) {
+		Map<String, Integer> counts;
+		synchronized (transitions) {
+			counts = new HashMap<String, Integer>(transitions.getOrDefault(pageID, new HashMap<String, Integer>()));
+		}
+
+		List<Candidate> candidates = new ArrayList<Candidate>();
+		for (int i = 0; i < pages.size(); i++) {
+			candidates.add(new Candidate(pages.get(i), false, counts.getOrDefault(pages.get(i), 0), i));
+		}
+		for (int i = 0; i < erps.size(); i++) {
+			candidates.add(new Candidate(erps.get(i), true, counts.getOrDefault(erps.get(i), 0), pages.size() + i));
+		}
+
+		candidates.sort(Comparator.comparingInt((Candidate c) -> -c.visits).thenComparingInt(c -> c.order));
+
+		return candidates.subList(0, Math.min(maxCandidates, candidates.size()));
+	}
+
+	private void fetch(Candidate candidate, long current, AtomicLong budget) {
+		if (round.get() != current) { return; } //The user has moved on
+
+		if (dbman.isForegroundBusy()) {
+			skipped.incrementAndGet();
+			return;
+		}
+
+		try {
+			if (candidate.erp) {
+				long bytes = dbman.prefetchERP(candidate.id, budget); //Takes its size from the budget
+				if (bytes > 0) {
+					bytesFetched.addAndGet(bytes);
+					erpsFetched.incrementAndGet();
+				}
+			} else if (dbman.prefetchPage(candidate.id)) {
+				pagesFetched.incrementAndGet();
+			}
+		} catch (Exception e) {
+			Logger.debug("Could not prefetch {}: {}", candidate.id, e);
+		}
+	}
+
+	public long getPagesFetched() { return pagesFetched.get(); }
+
+	public long getERPsFetched() { return erpsFetched.get(); }
+
+	public long getBytesFetched() { return bytesFetched.get(); }
+
+	/**
+	 * @return the number of fetches skipped because the database was busy
+	 */
+	public long getSkipped() { return skipped.get(); }
+
+	void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/*
+	 * A page or ERP that might be opened next
+	 */
+	static final class Candidate {
+		final String  id;
+		final boolean erp;
+		final int     visits;
+		final int     order;
+
+		Candidate(String id, boolean erp, int visits, int order) {
+			this.id = id;
+			this.erp = erp;
+			this.visits = visits;
+			this.order = order;
+		}
+	}
+}
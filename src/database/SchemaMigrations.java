@@ -0,0 +1,237 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+
+import drivers.Logger;
+
+/*
+ * Brings the database schema up to date. The version of the schema is kept
+ * in the schema_version table, and each Migration that is newer than it is
+ * run in its own transaction along with the update to schema_version.
+ * 
+ * Databases created before schema_version existed start at version 0. For
+ * those, every migration first checks the DatabaseMetaData for the tables
+ * and columns it adds, and only runs the statements that are still needed.
+ * 
+ * To change the schema, add a Migration to the end of MIGRATIONS. Never
+ * change or reorder a migration that has already been released.
+ */
+final class SchemaMigrations {
+	private static final String SCHEMA_TABLE  = "SCHEMA_VERSION";
+	private static final String CREATE_SCHEMA = "CREATE TABLE schema_version(version INT NOT NULL)";
+	private static final String ADD_VERSION   = "INSERT INTO schema_version(version) VALUES(?)";
+	private static final String GET_VERSION   = "SELECT version FROM schema_version";
+	private static final String SET_VERSION   = "UPDATE schema_version SET version = ?";
+	private static final String TABLE_EXISTS  = "X0Y32"; //SQLState Derby uses when a table is created twice
+
+	/*
+	 * After reconsidering the use case of the database it was decided to use
+	 * 3 non-relational tables.
+	 */
+	private static final List<Migration> MIGRATIONS = Arrays.asList(
+			new Migration(1, "Create the site table", 
+					table("SITE"), "CREATE TABLE site(id VARCHAR(255) PRIMARY KEY, panel BLOB)"),
+			new Migration(2, "Create the erp table", 
+					table("ERP"), "CREATE TABLE erp(id VARCHAR(255) PRIMARY KEY, pdf BLOB)"),
+			new Migration(3, "Create the password table", 
+					table("PASSWORD"), "CREATE TABLE password(id INT PRIMARY KEY, pass VARCHAR(255))"),
+			new Migration(4, "Store the hash of each ERP for the ERP cache", 
+					column("ERP", "HASH"), "ALTER TABLE erp ADD COLUMN hash VARCHAR(64)"),
+			new Migration(5, "Record the format pages are stored in, 0 for serialized IPanels", 
+					column("SITE", "PAGE_FORMAT"), "ALTER TABLE site ADD COLUMN page_format INT DEFAULT 0 NOT NULL"),
+			new Migration(6, "Store the hash of the layout a page was compiled from", 
+					column("SITE", "SOURCE_HASH"), "ALTER TABLE site ADD COLUMN source_hash VARCHAR(64)"),
+			new Migration(7, "Store the size of each ERP, so prefetching can skip large plans without reading them", 
+					column("ERP", "PDF_SIZE"), "ALTER TABLE erp ADD COLUMN pdf_size BIGINT"),
+			new Migration(8, "Create the chunk store, shared by every ERP revision", 
+					table("ERP_CHUNK"), "CREATE TABLE erp_chunk(hash CHAR(64) PRIMARY KEY, length INT NOT NULL, data BLOB(64K) NOT NULL)"),
+			new Migration(9, "Create the table of ERP revisions", 
+					table("ERP_REVISION"), "CREATE TABLE erp_revision(id VARCHAR(255) NOT NULL, revision INT NOT NULL, "
+							+ "hash VARCHAR(64) NOT NULL, pdf_size BIGINT NOT NULL, created TIMESTAMP NOT NULL, PRIMARY KEY(id, revision))"),
+			new Migration(10, "Create the table of the chunks in each ERP revision", 
+					table("ERP_REVISION_CHUNK"), "CREATE TABLE erp_revision_chunk(id VARCHAR(255) NOT NULL, revision INT NOT NULL, "
+							+ "seq INT NOT NULL, chunk CHAR(64) NOT NULL, PRIMARY KEY(id, revision, seq))"),
+			new Migration(11, "Record the codec each page is compressed with, 0 for none", 
+					column("SITE", "PANEL_CODEC"), "ALTER TABLE site ADD COLUMN panel_codec INT DEFAULT 0 NOT NULL"),
+			new Migration(12, "Record the codec each ERP is compressed with, 0 for none", 
+					column("ERP", "PDF_CODEC"), "ALTER TABLE erp ADD COLUMN pdf_codec INT DEFAULT 0 NOT NULL"),
+			new Migration(13, "Record the version and length of each ERP in the text index", 
+					table("ERP_TEXT"), "CREATE TABLE erp_text(id VARCHAR(255) PRIMARY KEY, hash VARCHAR(64) NOT NULL, terms INT NOT NULL)"),
+			new Migration(14, "Create the text index, the number of times each word appears in each ERP", 
+					table("ERP_TERM"), "CREATE TABLE erp_term(term VARCHAR(64) NOT NULL, "
+							+ "id VARCHAR(255) NOT NULL, freq INT NOT NULL, PRIMARY KEY(term, id))",
+					"CREATE INDEX erp_term_id ON erp_term(id)"));
+
+	private SchemaMigrations() {
+	}
+
+	/**
+	 * @return the version a fully migrated database is at
+	 */
+	static int latestVersion() {
+		return MIGRATIONS.get(MIGRATIONS.size() - 1).version;
+	}
+
+	/**
+	 * Runs every migration the database has not had yet
+	 * 
+	 * @param connection connection to migrate, must not be in use
+	 * @return the versions whose statements were run, in order. Empty if the
+	 *         schema was already up to date.
+	 * @throws SQLException if a migration failed. Migrations before the one
+	 *             that failed stay applied.
+	 */
+	static int[] migrate(Connection connection) throws SQLException {
+		long start = System.nanoTime();
+		int version = currentVersion(connection);
+		int[] applied = new int[0];
+
+		if (version < latestVersion()) {
+			boolean autoCommit = connection.getAutoCommit();
+			connection.setAutoCommit(false);
+
+			try {
+				for (Migration migration : MIGRATIONS) {
+					if (migration.version <= version) { continue; }
+
+					if (migration.apply(connection, version == 0)) {
+						applied = Arrays.copyOf(applied, applied.length + 1);
+						applied[applied.length - 1] = migration.version;
+					}
+				}
+			} catch (SQLException e) {
+				connection.rollback();
+				throw e;
+			} finally {
+				connection.setAutoCommit(autoCommit);
+			}
+		}
+
+		Logger.info("Schema at version {}, {} migrations applied in {}ms", latestVersion(), applied.length,
+				(System.nanoTime() - start) / 1000000);
+		return applied;
+	}
+
+	/*
+	 * Reads the schema version, creating the schema_version table at
+	 * version 0 if it does not exist yet. The table is created and seeded in
+	 * one transaction, so it is never left empty; if another client creates
+	 * it first, the version that client stored is read instead.
+	 */
+	private static int currentVersion(Connection connection) throws SQLException {
+		if (!table(SCHEMA_TABLE).exists(connection.getMetaData())) {
+			boolean autoCommit = connection.getAutoCommit();
+			connection.setAutoCommit(false);
+
+			try (Statement statement = connection.createStatement()) {
+				statement.execute(CREATE_SCHEMA);
+				setVersion(connection, 0);
+				connection.commit();
+				return 0;
+			} catch (SQLException e) {
+				connection.rollback();
+				if (!TABLE_EXISTS.equals(e.getSQLState())) { throw e; }
+
+				Logger.debug("schema_version was created by another client");
+			} finally {
+				connection.setAutoCommit(autoCommit);
+			}
+		}
+
+		try (Statement statement = connection.createStatement(); ResultSet rs = statement.executeQuery(GET_VERSION)) {
+			return rs.next() ? rs.getInt(1) : 0;
+		}
+	}
+
+	/*
+	 * Records the schema version, adding the row if the table is empty, as
+	 * it can be in databases left by older versions that created the table
+	 * and seeded it in separate transactions
+	 */
+	private static void setVersion(Connection connection, int version) throws SQLException {
+		try (PreparedStatement prep = connection.prepareStatement(SET_VERSION)) {
+			prep.setInt(1, version);
+			if (prep.executeUpdate() > 0) { return; }
+		}
+
+		try (PreparedStatement prep = connection.prepareStatement(ADD_VERSION)) {
+			prep.setInt(1, version);
+			prep.executeUpdate();
+		}
+	}
+
+	private static Check table(String table) {
+		return meta -> {
+			try (ResultSet rs = meta.getTables(null, null, table, new String[] { "TABLE" })) {
+				return rs.next();
+			}
+		};
+	}
+
+	private static Check column(String table, String column) {
+		return meta -> {
+			try (ResultSet rs = meta.getColumns(null, null, table, column)) {
+				return rs.next();
+			}
+		};
+	}
+
+	/*
+	 * Tests whether the object a migration creates already exists
+	 */
+	private interface Check {
+		boolean exists(DatabaseMetaData meta) throws SQLException;
+	}
+
+	/*
+	 * A single, ordered change to the schema
+	 */
+	private static final class Migration {
+		private final int      version;
+		private final String   description;
+		private final Check    check;
+		private final String[] statements;
+
+		Migration(int version, String description, Check check, String... statements) {
+			this.version = version;
+			this.description = description;
+			this.check = check;
+			this.statements = statements;
+		}
+
+		/*
+		 * Runs the migration and records the new schema version in one
+		 * transaction
+		 * 
+		 * @param unversioned true if the database predates schema_version,
+		 * in which case the migration is skipped if it has already been made
+		 * 
+		 * @return true if the migration's statements were run
+		 */
+		boolean apply(Connection connection, boolean unversioned) throws SQLException {
+			boolean skip = unversioned && check.exists(connection.getMetaData());
+			
+			if (skip) {
+				Logger.debug("Schema {} already present: {}", version, description);
+			} else {
+				Logger.info("Applying schema {}: {}", version, description);
+				try (Statement statement = connection.createStatement()) {
+					for (String sql : statements) {
+						statement.execute(sql);
+					}
+				}
+			}
+
+			setVersion(connection, version);
+			connection.commit();
+			return !skip;
+		}
+	}
+}
@@ -0,0 +1,34 @@
+package database;
+
+/**
+ * An ERP found by a search of the text index, see database.TextIndex
+ *
+ * @author Taylor
+ *
+ */
+public final class SearchHit {
+	private final String id;
+	private final double score;
+	private final int    matched;
+
+	/**
+	 * @param id id of the ERP
+	 * @param score relevance of the ERP to the query, higher is better
+	 * @param matched number of the query's words the ERP contains
+	 */
+	public SearchHit(String id, double score, int matched) {
+		this.id = id;
+		this.score = score;
+		this.matched = matched;
+	}
+
+	public String getId() { return this.id; }
+
+	public double getScore() { return this.score; }
+
+	public int getMatched() { return this.matched; }
+
+	public String toString() {
+		return String.format("%s %.2f (%d words)", id, score, matched);
+	}
+}
@@ -0,0 +1,20 @@
+package database;
+
+import java.io.IOException;
+
+/**
+ * Thrown when an ERP being uploaded is larger than DBManager.MAX_PDF_BYTES
+ * 
+ * @author Taylor
+ *
+ */
+public class SizeLimitExceededException extends IOException {
+	private static final long serialVersionUID = 6472193385522150913L;
+
+	/**
+	 * @param limit the number of bytes that was exceeded
+	 */
+	public SizeLimitExceededException(long limit) {
+		super("Stream exceeded the maximum size of " + limit + " bytes");
+	}
+}
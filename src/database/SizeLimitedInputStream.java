@@ -0,0 +1,67 @@
+package database;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/*
+ * An InputStream wrapper that refuses to read past a fixed number of bytes.
+ * Used when streaming ERP uploads into the database so that the size limit
+ * is enforced on the bytes actually read, rather than only on the length the
+ * file reported before the upload started.
+ */
+final class SizeLimitedInputStream extends FilterInputStream {
+	private final long limit;
+	private long       count;
+
+	/**
+	 * @param in
+	 *            Stream to wrap
+	 * @param limit
+	 *            Maximum number of bytes that may be read from the stream
+	 */
+	SizeLimitedInputStream(InputStream in, long limit) {
+		super(in);
+		this.limit = limit;
+	}
+
+	@Override
+	public int read() throws IOException {
+		int b = super.read();
+		if (b != -1) {
+			advance(1);
+		}
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int n = super.read(b, off, len);
+		if (n > 0) {
+			advance(n);
+		}
+		return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = super.skip(n);
+		advance(skipped);
+		return skipped;
+	}
+
+	@Override
+	public boolean markSupported() { return false; }
+
+	/**
+	 * @return The number of bytes read through this stream so far
+	 */
+	long getCount() { return this.count; }
+
+	private void advance(long n) throws IOException {
+		count += n;
+		if (count > limit) {
+			throw new SizeLimitExceededException(limit);
+		}
+	}
+}
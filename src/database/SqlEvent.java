@@ -0,0 +1,46 @@
+package database;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Flight Recorder event covering the time spent in Derby reading or
+ * writing a page or ERP, including streaming an ERP's BLOB
+ * 
+ * @author Taylor
+ *
+ */
+@Name("erp_manager.Sql")
+@Label("SQL")
+@Category({ "ERP Manager", "Database" })
+@Description("Time spent in Derby reading or writing a page or ERP")
+final class SqlEvent extends Event {
+	@Label("Statement")
+	String statement;
+
+	@Label("ID")
+	String id;
+
+	@Label("Bytes")
+	@DataAmount
+	long bytes;
+
+	static SqlEvent start(String statement, String id) {
+		SqlEvent event = new SqlEvent();
+		event.statement = statement;
+		event.id = id;
+		event.begin();
+		return event;
+	}
+
+	void finish(long bytes) {
+		if (shouldCommit()) {
+			this.bytes = bytes;
+			commit();
+		}
+	}
+}
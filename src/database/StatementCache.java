@@ -0,0 +1,95 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Keeps PreparedStatements open for reuse so Derby only has to compile each
+ * query once per connection. Statements are keyed by their SQL text and
+ * result set type. The least recently used statement is closed once more
+ * than MAX_STATEMENTS are held.
+ * 
+ * A statement returned from this cache is shared, so it must not be closed
+ * by the caller and must not be used by two callers at the same time.
+ */
+final class StatementCache {
+	private static final int MAX_STATEMENTS = 64;
+
+	private final Connection connection;
+	private final AtomicLong hits      = new AtomicLong();
+	private final AtomicLong misses    = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	private final Map<String, PreparedStatement> statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+			if (size() <= MAX_STATEMENTS) { return false; }
+			
+			evictions.incrementAndGet();
+			closeQuietly(eldest.getValue());
+			return true;
+		}
+	};
+
+	StatementCache(Connection connection) {
+		this.connection = connection;
+	}
+
+	/**
+	 * Gets a PreparedStatement for the query, preparing it only if it is not
+	 * already cached. Any parameters left from the last use are cleared.
+	 * 
+	 * @param query SQL to prepare
+	 * @param resultSetType one of the ResultSet.TYPE_ constants
+	 * @return an open PreparedStatement
+	 * @throws SQLException if the statement could not be prepared
+	 */
+	synchronized PreparedStatement prepare(String query, int resultSetType) throws SQLException {
+		String key = resultSetType + ":" + query;
+		PreparedStatement prep = statements.get(key);
+		
+		if (prep != null && !prep.isClosed()) {
+			hits.incrementAndGet();
+			prep.clearParameters();
+			return prep;
+		}
+		
+		misses.incrementAndGet();
+		prep = connection.prepareStatement(query, resultSetType, ResultSet.CONCUR_READ_ONLY);
+		statements.put(key, prep);
+		
+		return prep;
+	}
+
+	/**
+	 * @return the current hit, miss and eviction counts
+	 */
+	synchronized CacheStats stats() {
+		return new CacheStats(hits.get(), misses.get(), evictions.get(), statements.size());
+	}
+
+	/**
+	 * Closes every cached statement
+	 */
+	synchronized void close() {
+		for (PreparedStatement prep : statements.values()) {
+			closeQuietly(prep);
+		}
+		statements.clear();
+	}
+
+	private static void closeQuietly(PreparedStatement prep) {
+		try {
+			prep.close();
+		} catch (SQLException e) {
+			/* ignore the exception */
+		}
+	}
+}
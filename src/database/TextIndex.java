@@ -0,0 +1,501 @@
+package database;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.sql.Blob;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import drivers.Logger;
+import drivers.Threads;
+
+/**
+ * A full-text index of the ERPs, so a plan can be found by what it says
+ * rather than by where its zone is on the site map.
+ *
+ * The text of each ERP is extracted (see database.PdfText) and split into
+ * lower case words, and the number of times each word appears is stored in
+ * the erp_term table, keyed by word. erp_text records the version of each
+ * ERP that was indexed and how many words it has. A search looks up the
+ * rows for the words of the query through the primary key and ranks the
+ * ERPs with BM25, ERPs containing more of the words first.
+ *
+ * ERPs are indexed in the background, several at once, on a pool of
+ * erp.search.threads low priority threads: every ERP that has changed since
+ * it was last indexed when the application starts, and every ERP as it is
+ * stored. At most erp.search.maxMB megabytes of each ERP are read. Each ERP
+ * is held in memory while its text is extracted, so the threads share a
+ * budget of erp.search.memoryMB megabytes: an ERP waits until its size, and
+ * room for the streams inflated from it, are free. A single ERP larger than
+ * the budget is indexed on its own.
+ *
+ * @author Taylor
+ *
+ */
+public final class TextIndex {
+	static final int MAX_TERM_LENGTH = 64;
+
+	private static final String GET_ERP_SIZE     = "SELECT pdf_size FROM erp WHERE id = ?";
+	private static final String GET_ERP_CONTENTS = "SELECT pdf, pdf_codec, hash, pdf_size FROM erp WHERE id = ?";
+	private static final String LOCK_ERP         = "UPDATE erp SET hash = hash WHERE id = ? AND COALESCE(hash, '') = ?";
+	private static final String GET_STALE        = "SELECT e.id FROM erp e LEFT OUTER JOIN erp_text t ON t.id = e.id "
+			+ "WHERE t.id IS NULL OR t.hash <> COALESCE(e.hash, '')";
+	private static final String DELETE_TERMS     = "DELETE FROM erp_term WHERE id = ?";
+	private static final String DELETE_TEXT      = "DELETE FROM erp_text WHERE id = ?";
+	private static final String DELETE_ORPHAN_TERMS = "DELETE FROM erp_term WHERE id NOT IN (SELECT id FROM erp)";
+	private static final String DELETE_ORPHAN_TEXT  = "DELETE FROM erp_text WHERE id NOT IN (SELECT id FROM erp)";
+	private static final String ADD_TERM         = "INSERT INTO erp_term(term, id, freq) VALUES(?, ?, ?)";
+	private static final String UPDATE_TEXT      = "UPDATE erp_text SET hash = ?, terms = ? WHERE id = ?";
+	private static final String ADD_TEXT         = "INSERT INTO erp_text(id, hash, terms) VALUES(?, ?, ?)";
+	private static final String GET_STATS        = "SELECT COUNT(*), COALESCE(SUM(CAST(terms AS BIGINT)), 0) FROM erp_text";
+	private static final String FIND_TERMS       = "SELECT t.term, t.id, t.freq, d.terms FROM erp_term t "
+			+ "INNER JOIN erp_text d ON d.id = t.id WHERE t.term IN ";
+
+	// Words of a query looked up, the rest are ignored
+	private static final int MAX_QUERY_TERMS = 8;
+
+	// Rows of erp_term sent to the database at once
+	private static final int BATCH_SIZE = 500;
+
+	// Memory budget is counted in megabytes
+	private static final int MB = 1024 * 1024;
+
+	// BM25 term frequency saturation and length normalisation
+	private static final double K1 = 1.2;
+	private static final double B  = 0.75;
+
+	private final DBManager       dbman;
+	private final ExecutorService executor;
+	private final int             maxBytes;
+	private final int             memoryMB;
+
+	// Megabytes of the memory budget not taken by an ERP being indexed
+	private final Semaphore memory;
+
+	// ERPs waiting to be indexed. An ERP stored again while it is being
+	// indexed is queued again, as the index task may have read the old version.
+	private final Set<String> queued = ConcurrentHashMap.newKeySet();
+
+	// ERPs queued or being indexed
+	private final AtomicInteger pending = new AtomicInteger();
+
+	// Notified when pending drops to 0
+	private final Object idle = new Object();
+
+	private final AtomicLong indexed = new AtomicLong();
+	private final AtomicLong failed  = new AtomicLong();
+
+	TextIndex(DBManager dbman) {
+		this.dbman = dbman;
+		this.maxBytes = (int) Math.min(Long.getLong("erp.search.maxMB", 64) * MB, Integer.MAX_VALUE - 8);
+		this.memoryMB = Math.max(Integer.getInteger("erp.search.memoryMB", 128), 1);
+		this.memory = new Semaphore(memoryMB);
+
+		ThreadFactory daemons = Threads.daemonFactory("index");
+		this.executor = Executors.newFixedThreadPool(Integer.getInteger("erp.search.threads",
+				Math.max(Runtime.getRuntime().availableProcessors() / 2, 1)), r -> {
+			Thread thread = daemons.newThread(r);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		});
+	}
+
+	/**
+	 * Drops the index entries of ERPs that no longer exist, and queues every
+	 * ERP that has not been indexed at its current version. Runs in the
+	 * background.
+	 */
+	void start() {
+		executor.execute(() -> {
+			List<String> stale = new ArrayList<String>();
+
+			try (PooledConnection conn = dbman.lease()) {
+				conn.prepare(DELETE_ORPHAN_TERMS).executeUpdate();
+				conn.prepare(DELETE_ORPHAN_TEXT).executeUpdate();
+
+				try (ResultSet rs = conn.prepare(GET_STALE, ResultSet.TYPE_FORWARD_ONLY).executeQuery()) {
+					while (rs.next()) {
+						stale.add(rs.getString(1));
+					}
+				}
+			} catch (SQLException e) {
+				Logger.warn("The ERPs to index could not be found", e);
+				return;
+			}
+
+			if (!stale.isEmpty()) {
+				Logger.info("Indexing the text of {} ERPs", stale.size());
+			}
+			stale.forEach(this::schedule);
+		});
+	}
+
+	/**
+	 * Queues an ERP to be indexed, unless it is already waiting
+	 *
+	 * @param id id of the ERP
+	 */
+	void schedule(String id) {
+		if (!queued.add(id)) { return; }
+
+		pending.incrementAndGet();
+		executor.execute(() -> {
+			queued.remove(id);
+
+			try {
+				index(id);
+			} catch (SQLException | IOException | RuntimeException e) {
+				failed.incrementAndGet();
+				Logger.warn("ERP {} could not be indexed", id, e);
+			} finally {
+				if (pending.decrementAndGet() == 0) {
+					synchronized (idle) {
+						idle.notifyAll();
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Indexes the stored version of an ERP. The ERP is read, then its text is
+	 * extracted without holding a connection, then its words are written in
+	 * a single transaction - but only if the ERP was not replaced in the
+	 * meantime, as the replacement will have been queued.
+	 * 
+	 * A concurrent index of the same ERP, here or on another client sharing
+	 * the database, waits for this one to commit and then replaces its
+	 * words with its own.
+	 *
+	 * @param id id of the ERP
+	 * @return true if the index was updated
+	 */
+	boolean index(String id) throws SQLException, IOException {
+		long start = System.nanoTime();
+		String hash;
+		List<String> words;
+
+		int permits = permitsFor(storedSize(id));
+		try {
+			memory.acquire(permits);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting to index ERP " + id);
+		}
+
+		try {
+			byte[] pdf;
+
+			try (PooledConnection conn = dbman.lease()) {
+				PreparedStatement prep = conn.prepare(GET_ERP_CONTENTS, ResultSet.TYPE_FORWARD_ONLY);
+				prep.setString(1, id);
+
+				try (ResultSet rs = prep.executeQuery()) {
+					if (!rs.next()) {
+						remove(conn, id);
+						return false;
+					}
+
+					hash = nullToEmpty(rs.getString(3));
+					pdf = read(rs.getBlob(1), Codec.fromId(rs.getInt(2)), rs.getLong(4));
+				}
+			}
+
+			words = tokenize(PdfText.extract(pdf));
+		} finally {
+			memory.release(permits);
+		}
+
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		for (String word : words) {
+			counts.merge(word, 1, Integer::sum);
+		}
+
+		try (PooledConnection conn = dbman.lease()) {
+			conn.getConnection().setAutoCommit(false);
+
+			//Locks the ERP's row until the commit, so two clients indexing the same ERP take turns
+			PreparedStatement prep = conn.prepare(LOCK_ERP);
+			prep.setString(1, id);
+			prep.setString(2, hash);
+			if (prep.executeUpdate() == 0) {
+				Logger.debug("ERP {} changed while it was being indexed", id);
+				return false;
+			}
+
+			writeTerms(conn, id, counts);
+
+			prep = conn.prepare(UPDATE_TEXT);
+			prep.setString(1, hash);
+			prep.setInt(2, words.size());
+			prep.setString(3, id);
+			if (prep.executeUpdate() == 0) {
+				prep = conn.prepare(ADD_TEXT);
+				prep.setString(1, id);
+				prep.setString(2, hash);
+				prep.setInt(3, words.size());
+				prep.executeUpdate();
+			}
+
+			conn.getConnection().commit();
+		}
+
+		indexed.incrementAndGet();
+		Logger.debug("Indexed {} words of ERP {} in {}ms", words.size(), id, (System.nanoTime() - start) / 1000000);
+		return true;
+	}
+
+	/**
+	 * @return the stored size of an ERP, or 0 if it is not known
+	 */
+	private long storedSize(String id) throws SQLException {
+		try (PooledConnection conn = dbman.lease()) {
+			PreparedStatement prep = conn.prepare(GET_ERP_SIZE, ResultSet.TYPE_FORWARD_ONLY);
+			prep.setString(1, id);
+
+			try (ResultSet rs = prep.executeQuery()) {
+				return rs.next() ? rs.getLong(1) : 0;
+			}
+		}
+	}
+
+	/**
+	 * Works out how much of the memory budget indexing an ERP takes: the
+	 * part of it that is read, and the largest stream PdfText inflates along
+	 * with the copy made as its buffer grows. ERPs of unknown size are
+	 * counted as maxBytes.
+	 *
+	 * @param size stored size of the ERP, or 0 if it is not known
+	 * @return megabytes to take, at most the whole budget
+	 */
+	private int permitsFor(long size) {
+		long read = size <= 0 ? maxBytes : Math.min(size, maxBytes);
+		long bytes = read + 2L * PdfText.MAX_STREAM;
+
+		return (int) Math.min((bytes + MB - 1) / MB, memoryMB);
+	}
+
+	/**
+	 * Reads up to maxBytes of an ERP. ERPs stored as serialized files by
+	 * older versions have no text to index. When the size is known, the ERP
+	 * is read straight into an array of that size rather than one that
+	 * grows.
+	 *
+	 * @param size stored size of the ERP, or 0 if it is not known
+	 */
+	private byte[] read(Blob blob, Codec codec, long size) throws SQLException, IOException {
+		if (blob == null) { return new byte[0]; }
+
+		try (InputStream in = new BufferedInputStream(codec.decompressing(blob.getBinaryStream()), DBManager.STREAM_BUFFER_SIZE)) {
+			if (DBManager.isSerialized(in)) { return new byte[0]; }
+			if (size <= 0) { return in.readNBytes(maxBytes); }
+
+			byte[] pdf = new byte[(int) Math.min(size, maxBytes)];
+			int read = in.readNBytes(pdf, 0, pdf.length);
+			return read == pdf.length ? pdf : Arrays.copyOf(pdf, read);
+		} finally {
+			blob.free();
+		}
+	}
+
+	private static void writeTerms(PooledConnection conn, String id, Map<String, Integer> counts) throws SQLException {
+		PreparedStatement prep = conn.prepare(DELETE_TERMS);
+		prep.setString(1, id);
+		prep.executeUpdate();
+
+		prep = conn.prepare(ADD_TERM);
+		int pending = 0;
+		for (Map.Entry<String, Integer> count : counts.entrySet()) {
+			prep.setString(1, count.getKey());
+			prep.setString(2, id);
+			prep.setInt(3, count.getValue());
+			prep.addBatch();
+
+			if (++pending == BATCH_SIZE) {
+				prep.executeBatch();
+				pending = 0;
+			}
+		}
+
+		if (pending > 0) {
+			prep.executeBatch();
+		}
+	}
+
+	private static void remove(PooledConnection conn, String id) throws SQLException {
+		for (String statement : new String[] { DELETE_TERMS, DELETE_TEXT }) {
+			PreparedStatement prep = conn.prepare(statement);
+			prep.setString(1, id);
+			prep.executeUpdate();
+		}
+	}
+
+	/**
+	 * Finds the ERPs that contain the words of a query
+	 *
+	 * @param query words to look for, in any order. Only the first
+	 *            MAX_QUERY_TERMS different words are used.
+	 * @param limit most ERPs to return
+	 * @return the best matches, best first: those containing the most words
+	 *         of the query, then by BM25 score
+	 * @throws SQLException if the index could not be read
+	 */
+	public List<SearchHit> search(String query, int limit) throws SQLException {
+		List<String> words = new ArrayList<String>(new LinkedHashSet<String>(tokenize(query)));
+		if (words.isEmpty() || limit <= 0) { return Collections.emptyList(); }
+		if (words.size() > MAX_QUERY_TERMS) {
+			words = words.subList(0, MAX_QUERY_TERMS);
+		}
+
+		long documents;
+		double averageLength;
+		Map<String, Integer> frequencies = new HashMap<String, Integer>(); //of each word in the ERPs that contain it
+		List<Posting> postings = new ArrayList<Posting>();
+
+		try (PooledConnection conn = dbman.lease()) {
+			try (ResultSet rs = conn.prepare(GET_STATS, ResultSet.TYPE_FORWARD_ONLY).executeQuery()) {
+				rs.next();
+				documents = rs.getLong(1);
+				averageLength = documents == 0 ? 1 : Math.max((double) rs.getLong(2) / documents, 1);
+			}
+			if (documents == 0) { return Collections.emptyList(); }
+
+			StringBuilder sql = new StringBuilder(FIND_TERMS).append('(');
+			for (int i = 0; i < words.size(); i++) {
+				sql.append(i == 0 ? "?" : ", ?");
+			}
+
+			PreparedStatement prep = conn.prepare(sql.append(')').toString(), ResultSet.TYPE_FORWARD_ONLY);
+			for (int i = 0; i < words.size(); i++) {
+				prep.setString(i + 1, words.get(i));
+			}
+
+			try (ResultSet rs = prep.executeQuery()) {
+				while (rs.next()) {
+					Posting posting = new Posting(rs.getString(1), rs.getString(2), rs.getInt(3), rs.getInt(4));
+					postings.add(posting);
+					frequencies.merge(posting.term, 1, Integer::sum);
+				}
+			}
+		}
+
+		Map<String, double[]> scores = new HashMap<String, double[]>(); //id -> {score, words matched}
+		for (Posting posting : postings) {
+			double df = frequencies.get(posting.term);
+			double idf = Math.log(1 + (documents - df + 0.5) / (df + 0.5));
+			double tf = posting.freq * (K1 + 1) / (posting.freq + K1 * (1 - B + B * posting.length / averageLength));
+
+			double[] score = scores.computeIfAbsent(posting.id, k -> new double[2]);
+			score[0] += idf * tf;
+			score[1]++;
+		}
+
+		List<SearchHit> hits = new ArrayList<SearchHit>();
+		for (Map.Entry<String, double[]> score : scores.entrySet()) {
+			hits.add(new SearchHit(score.getKey(), score.getValue()[0], (int) score.getValue()[1]));
+		}
+
+		hits.sort((a, b) -> a.getMatched() != b.getMatched() ? Integer.compare(b.getMatched(), a.getMatched())
+				: Double.compare(b.getScore(), a.getScore()));
+		return hits.size() > limit ? new ArrayList<SearchHit>(hits.subList(0, limit)) : hits;
+	}
+
+	/**
+	 * Splits text into lower case words of letters and digits. Words longer
+	 * than MAX_TERM_LENGTH are dropped.
+	 *
+	 * @param text text to split
+	 * @return the words, in order
+	 */
+	static List<String> tokenize(String text) {
+		List<String> words = new ArrayList<String>();
+		int start = -1;
+
+		for (int i = 0; i <= text.length(); i++) {
+			boolean letter = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+
+			if (letter && start < 0) {
+				start = i;
+			} else if (!letter && start >= 0) {
+				if (i - start <= MAX_TERM_LENGTH) {
+					words.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+				}
+				start = -1;
+			}
+		}
+
+		return words;
+	}
+
+	private static String nullToEmpty(String s) {
+		return s == null ? "" : s;
+	}
+
+	/**
+	 * @return the number of ERPs waiting to be indexed or being indexed
+	 */
+	public int getPending() { return pending.get(); }
+
+	/**
+	 * Waits until every queued ERP has been indexed
+	 * 
+	 * @throws InterruptedException if the thread was interrupted while waiting
+	 */
+	public void awaitIdle() throws InterruptedException {
+		synchronized (idle) {
+			while (pending.get() > 0) {
+				idle.wait();
+			}
+		}
+	}
+
+	/**
+	 * @return the number of ERPs indexed since the application started
+	 */
+	public long getIndexed() { return indexed.get(); }
+
+	/**
+	 * @return the number of ERPs that could not be indexed
+	 */
+	public long getFailed() { return failed.get(); }
+
+	void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/*
+	 * One row of erp_term, with the length of its ERP
+	 */
+	private static final class Posting {
+		final String term;
+		final String id;
+		final int    freq;
+		final int    length;
+
+		Posting(String term, String id, int freq, int length) {
+			this.term = term;
+			this.id = id;
+			this.freq = freq;
+			this.length = length;
+		}
+	}
+}
@@ -0,0 +1,455 @@
+package database;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import drivers.Logger;
+import drivers.Threads;
+import user_interface.PageModel;
+import user_interface.PageModel.ButtonModel;
+
+/**
+ * An in-memory index of the buttons on every page, so a user can jump
+ * straight to a zone or ERP by typing part of its label or id instead of
+ * drilling down through the site map.
+ *
+ * The label and target of every button are split into lower case words
+ * (see TextIndex.tokenize), and the distinct words are kept in a sorted
+ * array with the buttons each appears on. A query word matches the words it
+ * is the start of, found with a binary search, and ranked below those, the
+ * words it is within one or two typing mistakes of. Every word of a query
+ * must match a word of a button for the button to be returned.
+ *
+ * The index is built from the site table in the background when the
+ * application starts, and each page's buttons are replaced as the page is
+ * stored. Lookups read an immutable snapshot without locking, which is
+ * rebuilt whenever a page changes. When the database is shared, the index is
+ * read again every erp.zones.refreshSeconds seconds (60 by default), so
+ * pages stored or removed by other clients are found. A page that cannot be
+ * read is left out, and the rest are indexed.
+ *
+ * @author Taylor
+ *
+ */
+public final class ZoneIndex {
+	private static final String GET_PAGES = "SELECT id, panel, panel_codec FROM site";
+
+	// Scores of the ways a query word can match a word of a button
+	private static final int EXACT  = 4;
+	private static final int PREFIX = 3;
+	private static final int FUZZY  = 1;
+
+	// Shortest query word that is matched with typing mistakes
+	private static final int MIN_FUZZY_LENGTH = 4;
+
+	private final DBManager                dbman;
+	private final int                      refreshSeconds;
+	private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(Threads.daemonFactory("zones"));
+
+	// page id -> the buttons on the page, guarded by this
+	private final Map<String, List<Zone>> pages = new HashMap<String, List<Zone>>();
+
+	// page id -> the number of the store that last put it, guarded by this
+	private final Map<String, Long> stored = new HashMap<String, Long>();
+	private long stores;
+
+	private volatile Snapshot snapshot = new Snapshot(Collections.<String, List<Zone>>emptyMap());
+
+	/**
+	 * @param dbman the database the pages are read from
+	 * @param shared true if other clients may store pages in the database
+	 */
+	ZoneIndex(DBManager dbman, boolean shared) {
+		this.dbman = dbman;
+		this.refreshSeconds = Integer.getInteger("erp.zones.refreshSeconds", shared ? 60 : 0);
+	}
+
+	/**
+	 * Reads the buttons of every stored page into the index in the
+	 * background, and again every refreshSeconds if that is set
+	 */
+	void start() {
+		executor.execute(this::refresh);
+
+		if (refreshSeconds > 0) {
+			executor.scheduleWithFixedDelay(this::refresh, refreshSeconds, refreshSeconds, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * Replaces the index with the buttons of every stored page. Pages stored
+	 * by this client while it runs are not overwritten with what it read.
+	 */
+	void refresh() {
+		long start = System.nanoTime();
+		Map<String, List<Zone>> loaded = new HashMap<String, List<Zone>>();
+		long since;
+		int skipped = 0;
+
+		synchronized (this) {
+			since = stores;
+		}
+
+		try (PooledConnection conn = dbman.lease()) {
+			try (ResultSet rs = conn.prepare(GET_PAGES, ResultSet.TYPE_FORWARD_ONLY).executeQuery()) {
+				while (rs.next()) {
+					String id = rs.getString(1);
+
+					try {
+						byte[] page = Codec.fromId(rs.getInt(3)).decode(rs.getBytes(2));
+
+						if (PageModel.isPageModel(page)) {
+							loaded.put(id, zones(id, PageModel.fromBytes(page)));
+						} else {
+							Logger.warn("Page {} has not been converted, its buttons are not indexed", id);
+						}
+					} catch (IOException | RuntimeException e) {
+						Logger.warn("Page {} could not be read, its buttons are not indexed", id, e);
+						skipped++;
+					}
+				}
+			}
+		} catch (SQLException e) {
+			Logger.warn("The buttons of the stored pages could not be indexed", e);
+			return;
+		}
+
+		synchronized (this) {
+			//Keep pages stored since the read began, which it may have missed
+			stored.values().removeIf(store -> store <= since);
+			pages.keySet().retainAll(stored.keySet());
+			loaded.forEach(pages::putIfAbsent);
+			publish();
+		}
+		Logger.debug("Indexed the buttons of {} pages in {}ms", loaded.size(), (System.nanoTime() - start) / 1000000);
+		if (skipped > 0) {
+			Logger.warn("{} pages could not be read, their buttons are not indexed", skipped);
+		}
+	}
+
+	/**
+	 * Replaces the buttons of a page, once it has been stored
+	 *
+	 * @param id id of the page
+	 * @param page the page as stored
+	 */
+	void putPage(String id, PageModel page) {
+		putPages(Collections.singletonMap(id, page));
+	}
+
+	/**
+	 * Replaces the buttons of several pages, rebuilding the snapshot once
+	 *
+	 * @param committed the pages as stored, keyed by page id
+	 */
+	void putPages(Map<String, PageModel> committed) {
+		if (committed.isEmpty()) { return; }
+
+		synchronized (this) {
+			long store = ++stores;
+			committed.forEach((id, page) -> {
+				pages.put(id, zones(id, page));
+				stored.put(id, store);
+			});
+			publish();
+		}
+	}
+
+	/**
+	 * Finds the buttons whose label or target matches what has been typed so
+	 * far. A target that several pages have buttons for is returned once.
+	 *
+	 * @param query the words typed, the last of which may be unfinished
+	 * @param limit most buttons to return
+	 * @return the best matches, best first
+	 */
+	public List<Zone> search(String query, int limit) {
+		List<String> words = new ArrayList<String>(new LinkedHashSet<String>(TextIndex.tokenize(query)));
+		if (words.isEmpty() || limit <= 0) { return Collections.emptyList(); }
+
+		return snapshot.search(words, limit);
+	}
+
+	/**
+	 * @return the number of buttons in the index
+	 */
+	public int size() {
+		return snapshot.zones.length;
+	}
+
+	void shutdown() {
+		executor.shutdownNow();
+	}
+
+	// Must hold the lock on this
+	private void publish() {
+		snapshot = new Snapshot(pages);
+	}
+
+	private static List<Zone> zones(String id, PageModel page) {
+		List<Zone> zones = new ArrayList<Zone>();
+		for (ButtonModel button : page.getButtons()) {
+			if (button.getTarget() != null) {
+				zones.add(new Zone(button.getText(), button.getTarget(), button.isLeaf(), id));
+			}
+		}
+		return zones;
+	}
+
+	/**
+	 * @return the number of typing mistakes allowed in a query word
+	 */
+	private static int maxDistance(String query) {
+		if (query.length() < MIN_FUZZY_LENGTH) { return 0; }
+
+		return query.length() <= 6 ? 1 : 2;
+	}
+
+	private static boolean isSpelled(String word) {
+		for (int i = 0; i < word.length(); i++) {
+			if (!Character.isLetter(word.charAt(i))) { return false; }
+		}
+		return true;
+	}
+
+	/**
+	 * Finds the fewest insertions, deletions, substitutions and swaps of
+	 * adjacent letters that turn a query word into the start of a word
+	 *
+	 * @param query the query word
+	 * @param word the word of a button
+	 * @param max the most mistakes allowed
+	 * @return the number of mistakes, or -1 if it is more than max
+	 */
+	static int prefixDistance(String query, String word, int max) {
+		if (max <= 0) { return -1; }
+
+		int m = query.length();
+		int n = Math.min(word.length(), m + max);
+		if (n < m - max) { return -1; }
+
+		int[] previous = new int[n + 1];
+		int[] row = new int[n + 1];
+		int[] next = new int[n + 1];
+		for (int j = 0; j <= n; j++) {
+			row[j] = j;
+		}
+
+		for (int i = 1; i <= m; i++) {
+			next[0] = i;
+			int best = i;
+			for (int j = 1; j <= n; j++) {
+				int cost = query.charAt(i - 1) == word.charAt(j - 1) ? 0 : 1;
+				int d = Math.min(Math.min(row[j] + 1, next[j - 1] + 1), row[j - 1] + cost);
+				if (i > 1 && j > 1 && query.charAt(i - 1) == word.charAt(j - 2) && query.charAt(i - 2) == word.charAt(j - 1)) {
+					d = Math.min(d, previous[j - 2] + 1);
+				}
+				next[j] = d;
+				best = Math.min(best, d);
+			}
+			if (best > max) { return -1; }
+
+			int[] swap = previous;
+			previous = row;
+			row = next;
+			next = swap;
+		}
+
+		//Any start of the word will do, so take the closest
+		int distance = Integer.MAX_VALUE;
+		for (int j = Math.max(m - max, 0); j <= n; j++) {
+			distance = Math.min(distance, row[j]);
+		}
+		return distance <= max ? distance : -1;
+	}
+
+	/*
+	 * The buttons of every page at one point in time. The buttons are sorted
+	 * in the order equally good matches are listed, those with the fewest
+	 * words first, and their words are sorted for prefix lookups.
+	 */
+	private static final class Snapshot {
+		final Zone[]  zones;
+		final int[]   targets;  //number of the target of each zone, equal for equal targets
+		final String[] keys;    //every distinct word, sorted
+		final int[][] postings; //zones each key appears in, ascending
+		final int[]   spelled;  //keys of letters only, the only ones matched with mistakes, ascending
+
+		Snapshot(Map<String, List<Zone>> pages) {
+			List<Zone> all = new ArrayList<Zone>();
+			pages.values().forEach(all::addAll);
+			all.sort(Comparator.<Zone>comparingInt(zone -> zone.words.length).thenComparing(Zone::getTarget));
+
+			zones = all.toArray(new Zone[0]);
+			targets = new int[zones.length];
+
+			Map<String, Integer> numbers = new HashMap<String, Integer>();
+			Map<String, List<Integer>> index = new HashMap<String, List<Integer>>();
+			for (int i = 0; i < zones.length; i++) {
+				Integer number = numbers.putIfAbsent(zones[i].getTarget(), numbers.size());
+				targets[i] = number == null ? numbers.size() - 1 : number;
+
+				for (String word : zones[i].words) {
+					index.computeIfAbsent(word, w -> new ArrayList<Integer>()).add(i);
+				}
+			}
+
+			keys = index.keySet().toArray(new String[0]);
+			Arrays.sort(keys);
+			postings = new int[keys.length][];
+			for (int k = 0; k < keys.length; k++) {
+				postings[k] = index.get(keys[k]).stream().mapToInt(Integer::intValue).toArray();
+			}
+			spelled = IntStream.range(0, keys.length).filter(k -> isSpelled(keys[k])).toArray();
+		}
+
+		List<Zone> search(List<String> query, int limit) {
+			int[] total = null;
+			int best = 0;
+
+			for (String word : query) {
+				int[] scores = new int[zones.length];
+				score(word, scores);
+
+				if (total == null) {
+					total = scores;
+				} else {
+					for (int zone = 0; zone < zones.length; zone++) {
+						total[zone] = total[zone] > 0 && scores[zone] > 0 ? total[zone] + scores[zone] : 0;
+					}
+				}
+			}
+
+			//Counting sort by score, best first, keeping the order of the zones within a score
+			for (int score : total) {
+				best = Math.max(best, score);
+			}
+			if (best == 0) { return Collections.emptyList(); }
+
+			int[] starts = new int[best + 2];
+			for (int score : total) {
+				if (score > 0) { starts[best - score + 1]++; }
+			}
+			for (int s = 1; s < starts.length; s++) {
+				starts[s] += starts[s - 1];
+			}
+			int[] order = new int[starts[starts.length - 1]];
+			for (int zone = 0; zone < zones.length; zone++) {
+				if (total[zone] > 0) { order[starts[best - total[zone]]++] = zone; }
+			}
+
+			//The first button found for a target is its best
+			List<Zone> results = new ArrayList<Zone>();
+			boolean[] seen = new boolean[zones.length];
+			for (int i = 0; i < order.length && results.size() < limit; i++) {
+				if (!seen[targets[order[i]]]) {
+					seen[targets[order[i]]] = true;
+					results.add(zones[order[i]]);
+				}
+			}
+			return results;
+		}
+
+		/**
+		 * Scores every zone for how well its best word matches a query word.
+		 * Typing mistakes are only looked for in words of letters that start
+		 * with the same letter as the query word. Few mistakes are in the
+		 * first letter, and a number or id one digit away from the one typed
+		 * is a different zone rather than a misspelling.
+		 */
+		private void score(String word, int[] scores) {
+			int from = lowerBound(word);
+			for (int k = from; k < keys.length && keys[k].startsWith(word); k++) {
+				int score = keys[k].length() == word.length() ? EXACT : PREFIX;
+				for (int zone : postings[k]) {
+					scores[zone] = Math.max(scores[zone], score);
+				}
+			}
+
+			int max = maxDistance(word);
+			if (max == 0 || !isSpelled(word)) { return; }
+
+			//Keys are sorted, so the spelled keys starting with the letter follow the first one not before it
+			int first = Arrays.binarySearch(spelled, lowerBound(word.substring(0, 1)));
+			for (int i = first < 0 ? -first - 1 : first; i < spelled.length && keys[spelled[i]].charAt(0) == word.charAt(0); i++) {
+				String key = keys[spelled[i]];
+				if (key.startsWith(word) || prefixDistance(word, key, max) < 0) { continue; }
+
+				for (int zone : postings[spelled[i]]) {
+					scores[zone] = Math.max(scores[zone], FUZZY);
+				}
+			}
+		}
+
+		/**
+		 * @return the index of the first key not less than word
+		 */
+		private int lowerBound(String word) {
+			int low = 0, high = keys.length;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (keys[mid].compareTo(word) < 0) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low;
+		}
+	}
+
+	/**
+	 * A button on one of the pages, found by a search of the index
+	 */
+	public static final class Zone {
+		private final String  text;
+		private final String  target;
+		private final boolean leaf;
+		private final String  page;
+
+		// Distinct words of the label and target, for the index
+		final String[] words;
+
+		/**
+		 * @param text label of the button
+		 * @param target id of the page or ERP the button opens
+		 * @param leaf true if the button opens an ERP rather than a page
+		 * @param page id of the page the button is on
+		 */
+		public Zone(String text, String target, boolean leaf, String page) {
+			this.text = text == null ? "" : text;
+			this.target = target;
+			this.leaf = leaf;
+			this.page = page;
+
+			LinkedHashSet<String> distinct = new LinkedHashSet<String>(TextIndex.tokenize(this.text));
+			distinct.addAll(TextIndex.tokenize(target));
+			this.words = distinct.toArray(new String[0]);
+		}
+
+		public String getText() { return this.text; }
+
+		public String getTarget() { return this.target; }
+
+		public boolean isLeaf() { return this.leaf; }
+
+		public String getPage() { return this.page; }
+
+		public String toString() {
+			return text.isEmpty() ? target : text + " (" + target + ")";
+		}
+	}
+}
@@ -1,32 +1,65 @@
 package drivers;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Paths;
+import java.sql.SQLException;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
 
 import database.DBManager;
+import database.ErpImporter;
+import server.ErpServer;
 import user_interface.FrontendDriver;
+import user_interface.IPanel;
+import user_interface.ImageCache;
+import user_interface.LayoutCompiler;
 
 public class Driver {
 	public static final String VERSION = "0.0.1";
+	private static final String DEFAULT_LAYOUT_DIR = "src/user_interface/resources/layout";
+	private static final String DEFAULT_SERVER_PORT = "8080";
+	private static final String DEFAULT_SERVER_HOST = "127.0.0.1"; //Only this machine, unless erp.server.host says otherwise
 	
-	private static DBManager dbman;
+	// Only set once the database has started, so the interface never sees one that is still starting
+	private static volatile DBManager dbman;
 	private static boolean debugmode;
 	
 	/**
-	 * Insertion point for the program. Initializes the database connection
-	 * and then launches the user interface.
+	 * Insertion point for the program. Starts the database, decodes the
+	 * page backgrounds and builds the user interface at the same time. The
+	 * window appears as soon as it is built, and the main page is shown in it
+	 * once the database has started and the page has loaded.
+	 * 
+	 * The time taken by each phase is logged.
 	 * 
 	 * @param args launch parameters. See the user manual for acceptable inputs.
 	 */
 	public static void main(String[] args)  {
 		handleLaunchParams(args);
 		
-		startDB();
+		StartupTimer timer = new StartupTimer();
+		Executor background = Executors.newCachedThreadPool(Threads.daemonFactory("startup"));
 		
-		FrontendDriver.initialize();
+		CompletableFuture<Void> images = timer.time("image decode", ImageCache.warm());
+		CompletableFuture<DBManager> database = timer.supply("database boot", () -> {
+			startDB();
+			return dbman;
+		}, background);
+		CompletableFuture<IPanel> mainPage = database.thenCompose(db -> timer.time("main page load", db.getPageObjAsync("main")));
+		
+		CompletableFuture<IPanel> shown = timer.supply("window construction", () -> FrontendDriver.initialize(mainPage, database), 
+				SwingUtilities::invokeLater).thenCompose(page -> page);
+		
+		shown = shown.whenComplete((page, error) -> timer.mark("main page shown"));
+		CompletableFuture.allOf(shown, images).whenComplete((v, error) -> Logger.info(timer.report()));
 	}
 	
 	/**
@@ -58,9 +91,13 @@ public class Driver {
 			
 			if(in1.equals(in2)) {
 				valid = true;
-				System.out.println("PASSWORD CHANGED");
+				CODES result = dbman.setPassword(in1);
 				
-				dbman.setPassword(in1);
+				if (result == CODES.OK) {
+					System.out.println("PASSWORD CHANGED");
+				} else {
+					System.out.println("PASSWORD COULD NOT BE CHANGED: " + result);
+				}
 			}else {
 				valid = false;
 				System.out.println("PASSWORDS DO NOT MATCH");
@@ -84,6 +121,8 @@ public class Driver {
 		
 		if(arguments.contains("debug")) {		
 			debugmode = true;
+			Logger.setLevel(Logger.Level.DEBUG);
+			Logger.setConsole(true);
 		}
 		
 		if (arguments.contains("newpass")) {
@@ -93,6 +132,90 @@ public class Driver {
 		if(arguments.contains("resetdb")) {
 			resetDB();
 		}
+		
+		if(arguments.contains("compilelayouts")) {
+			int i = arguments.indexOf("compilelayouts");
+			compileLayouts(i + 1 < arguments.size() ? arguments.get(i + 1) : DEFAULT_LAYOUT_DIR);
+		}
+		
+		if(arguments.contains("serve")) {
+			int i = arguments.indexOf("serve");
+			boolean port = i + 1 < arguments.size() && arguments.get(i + 1).matches("\\d+");
+			serve(port ? arguments.get(i + 1) : DEFAULT_SERVER_PORT);
+		}
+		
+		if(arguments.contains("importerps")) {
+			int i = arguments.indexOf("importerps");
+			if (i + 1 >= arguments.size()) {
+				System.out.println("USAGE: importerps <directory>");
+				exit(1);
+			}
+			importERPs(arguments.get(i + 1));
+		}
+	}
+	
+	/**
+	 * Compiles the layout files in a directory into stored pages, then exits
+	 * without starting the user interface
+	 * 
+	 * @param dir directory containing the layout files
+	 */
+	private static void compileLayouts(String dir) {
+		startDB();
+		
+		try {
+			System.out.println("LAYOUTS COMPILED: " + LayoutCompiler.compile(Paths.get(dir), dbman) + " PAGES WRITTEN");
+			exit(0);
+		} catch (IOException | SQLException e) {
+			System.out.println("LAYOUTS COULD NOT BE COMPILED: " + e.getMessage());
+			Logger.error("Layouts could not be compiled", e);
+			exit(1);
+		}
+	}
+	
+	/**
+	 * Imports a directory tree of PDFs as ERPs, then exits without starting
+	 * the user interface. See database.ErpImporter.
+	 * 
+	 * @param dir directory containing the PDFs
+	 */
+	private static void importERPs(String dir) {
+		startDB();
+		
+		try {
+			System.out.println("ERPS IMPORTED: " + ErpImporter.importDirectory(Paths.get(dir), dbman) + " ERPS WRITTEN");
+			exit(0);
+		} catch (IOException | SQLException e) {
+			System.out.println("ERPS COULD NOT BE IMPORTED: " + e.getMessage());
+			Logger.error("ERPs could not be imported", e);
+			exit(1);
+		}
+	}
+	
+	/**
+	 * Serves the pages and ERPs over HTTP without starting the user
+	 * interface, until the application is stopped. Listens on
+	 * erp.server.host, this machine only by default. See server.ErpServer.
+	 * 
+	 * @param port port to listen on
+	 */
+	private static void serve(String port) {
+		startDB();
+		
+		try {
+			String host = System.getProperty("erp.server.host", DEFAULT_SERVER_HOST);
+			ErpServer server = ErpServer.start(new InetSocketAddress(host, Integer.parseInt(port)), dbman);
+			System.out.println("SERVING ON " + host + ":" + server.getPort());
+			
+			Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+			Thread.currentThread().join(); //The database shutdown hook runs when the application is stopped
+		} catch (IOException | NumberFormatException e) {
+			System.out.println("COULD NOT START SERVER: " + e.getMessage());
+			Logger.error("The server could not be started", e);
+			exit(1);
+		} catch (InterruptedException e) {
+			exit(0);
+		}
 	}
 	
 	private static void resetDB() {
@@ -134,33 +257,22 @@ public class Driver {
 		return debugmode;
 	}
 	
-	/**
-	 * Prints a message to the console if the application is in debug mode
-	 * 
-	 * @param msg Message to print
-	 */
-	public static void Log(String msg) {
-		if(debugmode) {
-			System.out.println(msg);
-		}
-	}
-	
 	/**
 	 * Starts and connects to the embedded database.
 	 */
 	private static void startDB() {
 		//Initialize the database connection
-		dbman = new DBManager();
-		CODES c = dbman.initialize();
+		DBManager manager = new DBManager();
+		CODES c = manager.initialize();
 		
 		//If it didn't start correctly, display an error code
 		if (!c.equals(CODES.OK)) {
-			Log("The database could not start");
-			Log(c.getCode());
+			Logger.error("The database could not start: {}", c.getCode());
 			JOptionPane.showMessageDialog(null, c.getMessage() + "\n Err: " + c.getCode(),
 					"Error", JOptionPane.ERROR_MESSAGE);
 			exit(1);
 		}
+		dbman = manager;
 		
 		//Add the shutdown hook - causes the onShutdown method to be 
 		//called before the JVM terminates.
@@ -169,7 +281,7 @@ public class Driver {
 		//See https://www.geeksforgeeks.org/jvm-shutdown-hook-java/ for more information
 		Runtime.getRuntime().addShutdownHook(new Thread() {
 			public void run() {
-				onShutdown();
+				onShutdown(manager);
 			}
 		});		
 	}
@@ -210,9 +322,10 @@ public class Driver {
 	/**
 	 * Called before the JVM terminates.
 	 */
-	private static void onShutdown() {
-		Driver.Log("Application terminating...");
-		dbman.shutdown();
-		Driver.Log("Application terminated successfully");
+	private static void onShutdown(DBManager manager) {
+		Logger.info("Application terminating...");
+		manager.shutdown();
+		Logger.info("Application terminated successfully");
+		Logger.flush();
 	}
 }
@@ -3,6 +3,13 @@ package drivers;
 import static org.junit.jupiter.api.Assertions.*;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
@@ -62,5 +69,57 @@ class GenericTests {
 		File valid = new File("src/drivers/testValidPDF.pdf");
 		assertTrue(FrontendDriver.isValidFileType(valid));
 	}
+	
+	//Test that log levels are parsed, and that messages below the level are skipped
+	@Test
+	void checkLogLevels() {
+		assertEquals(Logger.Level.WARN, Logger.level("warn", Logger.Level.INFO));
+		assertEquals(Logger.Level.INFO, Logger.level("verbose", Logger.Level.INFO));
+		
+		Logger.setLevel(Logger.Level.WARN);
+		assertFalse(Logger.isEnabled(Logger.Level.INFO));
+		assertTrue(Logger.isEnabled(Logger.Level.ERROR));
+		Logger.setLevel(Logger.Level.INFO);
+	}
+	
+	//Test that messages logged through the ring buffer reach the log file, or are counted as dropped
+	@Test
+	void checkLogWritten() throws IOException {
+		String marker = "ring-" + System.nanoTime();
+		int count = 20000;
+		long dropped = Logger.droppedCount();
+		
+		for (int i = 0; i < count; i++) {
+			Logger.info("Buffer test {} {} of {}", marker, i, count);
+		}
+		Logger.flush();
+		
+		List<String> lines = logLines(marker);
+		long drops = Logger.droppedCount() - dropped;
+		assertEquals(count, lines.size() + drops);
+		String first = " INFO  [" + Thread.currentThread().getName() + "] Buffer test " + marker + " 0 of " + count;
+		assertTrue(lines.stream().anyMatch(line -> line.endsWith(first)));
+		if (drops > 0) {
+			assertFalse(logLines("log messages were dropped").isEmpty());
+		}
+	}
+	
+	/**
+	 * @return the lines of the log files that contain some text
+	 */
+	private static List<String> logLines(String text) throws IOException {
+		try (Stream<Path> files = Files.list(Logger.directory())) {
+			return files.filter(file -> file.getFileName().toString().startsWith("erp_manager.log"))
+					.flatMap(file -> {
+						try {
+							return Files.readAllLines(file, StandardCharsets.UTF_8).stream();
+						} catch (IOException e) {
+							return Stream.empty();
+						}
+					})
+					.filter(line -> line.contains(text))
+					.collect(Collectors.toList());
+		}
+	}
 
 }
@@ -0,0 +1,442 @@
+package drivers;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Leveled application log. Messages are put into a fixed size ring buffer
+ * without taking a lock, and are formatted and written by a background
+ * thread, so logging costs the calling thread (usually the Event Dispatch
+ * Thread) a few field writes. The writer sleeps while the buffer is empty,
+ * and is woken by the next message. A message below the current level returns
+ * before anything is allocated - messages take "{}" placeholders instead of
+ * being concatenated by the caller, so pass the values as arguments.
+ *
+ * If the buffer is full a debug or info message is dropped rather than
+ * blocking the caller, and the number dropped is written to the log once
+ * there is room. Warnings and errors wait for room.
+ *
+ * The log is written to a rolling file, and to the console in debug mode.
+ * It is configured with the following system properties:
+ *   erp.log.level       DEBUG, INFO, WARN or ERROR (INFO)
+ *   erp.log.dir         directory of the log files (<tmpdir>/erp_manager-logs)
+ *   erp.log.maxMB       size a log file reaches before it is rolled (10)
+ *   erp.log.files       number of rolled files kept (5)
+ *   erp.log.bufferSize  messages the ring buffer holds, rounded down to a power of two (8192)
+ */
+public final class Logger {
+	public enum Level { DEBUG, INFO, WARN, ERROR }
+
+	private static final String FILE_NAME = "erp_manager.log";
+	private static final long   FLUSH_POLL_NANOS = TimeUnit.MICROSECONDS.toNanos(500);
+	private static final long   FLUSH_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(2);
+	private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS")
+			.withZone(ZoneId.systemDefault());
+
+	private static final int CAPACITY = Integer.highestOneBit(Math.max(Integer.getInteger("erp.log.bufferSize", 8192), 2));
+	private static final int MASK     = CAPACITY - 1;
+
+	// The ring buffer. A slot may be written by the producer that claimed
+	// sequence n when sequences[slot] == n, and read by the writer once it is
+	// published as n + 1. Slots are never reallocated.
+	private static final AtomicLongArray sequences = new AtomicLongArray(CAPACITY);
+	private static final Level[]     levels   = new Level[CAPACITY];
+	private static final long[]      times    = new long[CAPACITY];
+	private static final String[]    threads  = new String[CAPACITY];
+	private static final String[]    messages = new String[CAPACITY];
+	private static final Object[]    firsts   = new Object[CAPACITY];
+	private static final Object[]    seconds  = new Object[CAPACITY];
+	private static final Object[]    thirds   = new Object[CAPACITY];
+	private static final Throwable[] errors   = new Throwable[CAPACITY];
+
+	private static final AtomicLong claimed = new AtomicLong();
+	private static final AtomicLong dropped = new AtomicLong();
+	private static volatile long    written;
+
+	// Set by the writer before it parks, so producers only unpark it when it needs waking
+	private static volatile boolean sleeping;
+
+	private static volatile Level   threshold = level(System.getProperty("erp.log.level"), Level.INFO);
+	private static volatile boolean console;
+
+	private static final Thread writer;
+
+	static {
+		for (int i = 0; i < CAPACITY; i++) {
+			sequences.set(i, i);
+		}
+
+		writer = Threads.daemonFactory("log-writer").newThread(Logger::write);
+		writer.setPriority(Thread.MIN_PRIORITY);
+		writer.start();
+
+		Runtime.getRuntime().addShutdownHook(new Thread(Logger::flush));
+	}
+
+	private Logger() {}
+
+	/**
+	 * Sets the lowest level of message that is logged
+	 *
+	 * @param level the new level
+	 */
+	public static void setLevel(Level level) {
+		threshold = level;
+	}
+
+	/**
+	 * @param echo true to also print messages to the console
+	 */
+	public static void setConsole(boolean echo) {
+		console = echo;
+	}
+
+	/**
+	 * @param level level of a message
+	 * @return true if messages of that level are logged. Use this to skip
+	 *         working out arguments that are expensive to produce.
+	 */
+	public static boolean isEnabled(Level level) {
+		return level.compareTo(threshold) >= 0;
+	}
+
+	/**
+	 * @return the number of messages dropped because the buffer was full
+	 */
+	public static long droppedCount() {
+		return dropped.get();
+	}
+
+	public static void debug(String msg) { log(Level.DEBUG, msg, null, null, null, null); }
+
+	public static void debug(String msg, Object arg) { log(Level.DEBUG, msg, arg, null, null, null); }
+
+	public static void debug(String msg, Object first, Object second) { log(Level.DEBUG, msg, first, second, null, null); }
+
+	public static void debug(String msg, Object first, Object second, Object third) { log(Level.DEBUG, msg, first, second, third, null); }
+
+	public static void info(String msg) { log(Level.INFO, msg, null, null, null, null); }
+
+	public static void info(String msg, Object arg) { log(Level.INFO, msg, arg, null, null, null); }
+
+	public static void info(String msg, Object first, Object second) { log(Level.INFO, msg, first, second, null, null); }
+
+	public static void info(String msg, Object first, Object second, Object third) { log(Level.INFO, msg, first, second, third, null); }
+
+	public static void warn(String msg) { log(Level.WARN, msg, null, null, null, null); }
+
+	public static void warn(String msg, Object arg) { log(Level.WARN, msg, arg, null, null, null); }
+
+	public static void warn(String msg, Object first, Object second) { log(Level.WARN, msg, first, second, null, null); }
+
+	public static void warn(String msg, Object first, Object second, Object third) { log(Level.WARN, msg, first, second, third, null); }
+
+	public static void warn(String msg, Throwable error) { log(Level.WARN, msg, null, null, null, error); }
+
+	public static void warn(String msg, Object arg, Throwable error) { log(Level.WARN, msg, arg, null, null, error); }
+
+	public static void error(String msg) { log(Level.ERROR, msg, null, null, null, null); }
+
+	public static void error(String msg, Object arg) { log(Level.ERROR, msg, arg, null, null, null); }
+
+	public static void error(String msg, Throwable error) { log(Level.ERROR, msg, null, null, null, error); }
+
+	public static void error(String msg, Object arg, Throwable error) { log(Level.ERROR, msg, arg, null, null, error); }
+
+	/**
+	 * Puts a message into the ring buffer, and wakes the writer if it is
+	 * asleep
+	 */
+	private static void log(Level level, String msg, Object first, Object second, Object third, Throwable error) {
+		if (level.compareTo(threshold) < 0) { return; }
+
+		long seq;
+		int slot;
+		long deadline = 0;
+
+		do {
+			seq = claimed.get();
+			slot = (int) seq & MASK;
+
+			if (sequences.get(slot) < seq) { //The writer has not reached this slot yet, so the buffer is full
+				if (level.compareTo(Level.WARN) < 0) {
+					dropped.incrementAndGet();
+					if (sleeping) { LockSupport.unpark(writer); }
+					return;
+				}
+				
+				//Warnings and errors are rare enough to wait a little for room instead
+				if (deadline == 0) {
+					deadline = System.nanoTime() + FLUSH_TIMEOUT_NANOS;
+				} else if (System.nanoTime() > deadline || !writer.isAlive()) {
+					dropped.incrementAndGet();
+					return;
+				}
+				
+				LockSupport.unpark(writer);
+				Thread.yield();
+				seq = -1; //Claim nothing this time round
+			}
+		} while (seq < 0 || !claimed.compareAndSet(seq, seq + 1));
+
+		levels[slot] = level;
+		times[slot] = System.currentTimeMillis();
+		threads[slot] = Thread.currentThread().getName();
+		messages[slot] = msg;
+		firsts[slot] = first;
+		seconds[slot] = second;
+		thirds[slot] = third;
+		errors[slot] = error;
+		sequences.set(slot, seq + 1); //Publishes the writes above to the writer
+
+		if (sleeping) {
+			LockSupport.unpark(writer);
+		}
+	}
+
+	/**
+	 * Waits until every message logged so far has been written. Gives up
+	 * after a couple of seconds, so a stuck disk cannot stop the
+	 * application exiting.
+	 */
+	public static void flush() {
+		long target = claimed.get();
+		long deadline = System.nanoTime() + FLUSH_TIMEOUT_NANOS;
+
+		while (written < target && writer.isAlive() && System.nanoTime() < deadline) {
+			LockSupport.unpark(writer);
+			LockSupport.parkNanos(FLUSH_POLL_NANOS);
+		}
+	}
+
+	/**
+	 * Body of the writer thread. Takes messages out of the ring buffer in
+	 * order, and flushes whenever the buffer is empty. It then parks until a
+	 * producer unparks it: sleeping is set before the buffer is checked once
+	 * more, so a message published before a producer could see it is found
+	 * by that check instead.
+	 */
+	private static void write() {
+		RollingFile file = RollingFile.open();
+		StringBuilder line = new StringBuilder(256);
+		long next = 0;
+		long reportedDrops = 0;
+
+		while (true) {
+			int slot = (int) next & MASK;
+
+			if (sequences.get(slot) != next + 1) { //Nothing published yet
+				if (dropped.get() != reportedDrops) {
+					long drops = dropped.get();
+					line.setLength(0);
+					line.append(TIME.format(Instant.now())).append(" WARN  [log-writer] ")
+							.append(drops - reportedDrops).append(" log messages were dropped because the buffer was full");
+					output(file, line);
+					reportedDrops = drops;
+				}
+
+				if (file != null) { file.flush(); }
+				written = next;
+
+				sleeping = true;
+				if (sequences.get(slot) != next + 1 && dropped.get() == reportedDrops) {
+					LockSupport.park();
+				}
+				sleeping = false;
+				continue;
+			}
+
+			line.setLength(0);
+			format(line, slot);
+
+			Throwable error = errors[slot];
+
+			//Clear the slot so it doesn't keep the arguments alive, then hand it back to the producers
+			firsts[slot] = null;
+			seconds[slot] = null;
+			thirds[slot] = null;
+			errors[slot] = null;
+			sequences.set(slot, next + CAPACITY);
+			next++;
+
+			if (error != null) {
+				line.append(System.lineSeparator()).append(stackTrace(error).stripTrailing());
+			}
+
+			output(file, line);
+		}
+	}
+
+	/**
+	 * Formats the message in a slot, replacing its placeholders with the
+	 * arguments
+	 */
+	private static void format(StringBuilder line, int slot) {
+		Level level = levels[slot];
+
+		line.append(TIME.format(Instant.ofEpochMilli(times[slot]))).append(' ').append(level);
+		for (int i = level.name().length(); i < 5; i++) {
+			line.append(' ');
+		}
+		line.append(" [").append(threads[slot]).append("] ");
+
+		String msg = messages[slot];
+		Object[] args = { firsts[slot], seconds[slot], thirds[slot] };
+		int arg = 0;
+		int from = 0;
+
+		for (int at = msg.indexOf("{}"); at >= 0 && arg < args.length; at = msg.indexOf("{}", from)) {
+			line.append(msg, from, at).append(args[arg++]);
+			from = at + 2;
+		}
+
+		line.append(msg, from, msg.length());
+	}
+
+	private static String stackTrace(Throwable error) {
+		StringWriter trace = new StringWriter();
+		error.printStackTrace(new PrintWriter(trace));
+		return trace.toString();
+	}
+
+	private static void output(RollingFile file, CharSequence line) {
+		if (console) {
+			System.out.println(line);
+		}
+
+		if (file != null) {
+			file.write(line);
+		}
+	}
+
+	/**
+	 * @return the directory the log files are written to
+	 */
+	static Path directory() {
+		return Paths.get(System.getProperty("erp.log.dir",
+				Paths.get(System.getProperty("java.io.tmpdir"), "erp_manager-logs").toString()));
+	}
+
+	/**
+	 * Parses a level name, falling back to a default if it is missing or
+	 * unknown
+	 */
+	static Level level(String name, Level fallback) {
+		if (name == null) { return fallback; }
+
+		try {
+			return Level.valueOf(name.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			return fallback;
+		}
+	}
+
+	/*
+	 * The log file. Once it grows past its limit it is renamed to
+	 * erp_manager.log.1, the older files move up by one, and the oldest is
+	 * deleted.
+	 */
+	private static final class RollingFile {
+		private final Path dir;
+		private final long maxBytes;
+		private final int  keep;
+		private Writer     out;
+		private long       size;
+
+		private RollingFile(Path dir, long maxBytes, int keep) {
+			this.dir = dir;
+			this.maxBytes = maxBytes;
+			this.keep = keep;
+		}
+
+		/**
+		 * @return the log file, or null if it cannot be opened - messages
+		 *         then only go to the console
+		 */
+		static RollingFile open() {
+			Path dir = directory();
+			RollingFile file = new RollingFile(dir, Math.max(Long.getLong("erp.log.maxMB", 10), 1) * 1024 * 1024,
+					Math.max(Integer.getInteger("erp.log.files", 5), 0));
+
+			try {
+				Files.createDirectories(dir);
+				file.reopen();
+				return file;
+			} catch (IOException e) {
+				System.err.println("The log file could not be opened in " + dir + ": " + e);
+				return null;
+			}
+		}
+
+		private void reopen() throws IOException {
+			Path path = dir.resolve(FILE_NAME);
+			size = Files.exists(path) ? Files.size(path) : 0;
+			out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(path, StandardOpenOption.CREATE,
+					StandardOpenOption.APPEND), StandardCharsets.UTF_8), 64 * 1024);
+		}
+
+		void write(CharSequence line) {
+			if (out == null) { return; }
+
+			try {
+				if (size >= maxBytes) {
+					roll();
+				}
+
+				out.append(line).append(System.lineSeparator());
+				size += line.length() + System.lineSeparator().length();
+			} catch (IOException e) {
+				System.err.println("The log file could not be written: " + e);
+				out = null;
+			}
+		}
+
+		void flush() {
+			if (out == null) { return; }
+
+			try {
+				out.flush();
+			} catch (IOException e) {
+				System.err.println("The log file could not be written: " + e);
+				out = null;
+			}
+		}
+
+		private void roll() throws IOException {
+			out.close();
+
+			Path current = dir.resolve(FILE_NAME);
+			if (keep == 0) {
+				Files.delete(current);
+			} else {
+				Files.deleteIfExists(dir.resolve(FILE_NAME + "." + keep));
+				for (int i = keep - 1; i >= 1; i--) {
+					Path older = dir.resolve(FILE_NAME + "." + i);
+					if (Files.exists(older)) {
+						Files.move(older, dir.resolve(FILE_NAME + "." + (i + 1)), StandardCopyOption.REPLACE_EXISTING);
+					}
+				}
+				Files.move(current, dir.resolve(FILE_NAME + ".1"), StandardCopyOption.REPLACE_EXISTING);
+			}
+
+			reopen();
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package drivers;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/*
+ * Records how long each phase of the application's startup takes, and when
+ * it started relative to main(), so that phases running in parallel can be
+ * compared.
+ */
+final class StartupTimer {
+	private final long        origin = System.nanoTime();
+	private final List<String> lines = new ArrayList<String>();
+
+	/**
+	 * Runs a phase on an executor and records how long it takes
+	 * 
+	 * @param phase name of the phase
+	 * @param task work done in the phase
+	 * @param executor where the phase runs
+	 * @return a future completed with the result of the task
+	 */
+	<T> CompletableFuture<T> supply(String phase, Supplier<T> task, Executor executor) {
+		return CompletableFuture.supplyAsync(() -> {
+			long start = System.nanoTime();
+			try {
+				return task.get();
+			} finally {
+				record(phase, start);
+			}
+		}, executor);
+	}
+
+	/**
+	 * Records how long a phase that has already started takes
+	 * 
+	 * @param phase name of the phase
+	 * @param future completion of the phase
+	 * @return future, for chaining
+	 */
+	<T> CompletableFuture<T> time(String phase, CompletableFuture<T> future) {
+		long start = System.nanoTime();
+		return future.whenComplete((result, error) -> record(phase, start));
+	}
+
+	/**
+	 * Records a point in time, such as the first page being shown
+	 */
+	void mark(String milestone) {
+		long now = System.nanoTime();
+		synchronized (lines) {
+			lines.add(String.format("  %-22s at +%dms (%dms since JVM start)", milestone, millis(now - origin),
+					ManagementFactory.getRuntimeMXBean().getUptime()));
+		}
+	}
+
+	/**
+	 * @return every phase recorded so far, one per line
+	 */
+	String report() {
+		synchronized (lines) {
+			return "Startup:" + System.lineSeparator() + String.join(System.lineSeparator(), lines);
+		}
+	}
+
+	private void record(String phase, long start) {
+		long end = System.nanoTime();
+		synchronized (lines) {
+			lines.add(String.format("  %-22s +%dms, took %dms", phase, millis(start - origin), millis(end - start)));
+		}
+	}
+
+	private static long millis(long nanos) {
+		return nanos / 1000000;
+	}
+}
@@ -0,0 +1,61 @@
+package drivers;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the executors used to keep slow work, such as database access,
+ * off the Swing Event Dispatch Thread.
+ * 
+ * @author Taylor
+ *
+ */
+public final class Threads {
+	private Threads() {
+	}
+
+	/**
+	 * Creates an executor for blocking tasks. On a JVM that supports virtual
+	 * threads, every task gets its own virtual thread. Otherwise a fixed pool
+	 * of daemon platform threads is used.
+	 * 
+	 * @param name
+	 *            Prefix for the names of the threads
+	 * @param platformThreads
+	 *            Number of threads to use when virtual threads are not
+	 *            available
+	 * @return the new executor
+	 */
+	public static ExecutorService newTaskExecutor(String name, int platformThreads) {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			Logger.debug("Using virtual threads for {}", name);
+			return (ExecutorService) factory.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			/* Virtual threads are not available on this JVM */
+		}
+
+		return Executors.newFixedThreadPool(platformThreads, daemonFactory(name));
+	}
+
+	/**
+	 * Creates a ThreadFactory for numbered daemon threads, so that the
+	 * threads never stop the application from exiting
+	 * 
+	 * @param name
+	 *            Prefix for the names of the threads
+	 * @return the new ThreadFactory
+	 */
+	public static ThreadFactory daemonFactory(String name) {
+		AtomicInteger count = new AtomicInteger();
+
+		return r -> {
+			Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+}
@@ -0,0 +1,338 @@
+package server;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLTimeoutException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import database.DBManager;
+import drivers.Logger;
+import drivers.Threads;
+
+/**
+ * Serves the pages and ERPs in one database over HTTP, so that every
+ * terminal on a site shows the same plans. Started with the serve launch
+ * parameter.
+ *
+ * <pre>
+ * GET /pages/{id}   the page, as written by PageModel.toBytes
+ * GET /erps/{id}    the ERP PDF
+ * GET /metrics      a summary of the database metrics
+ * </pre>
+ *
+ * Pages and ERPs are sent with an ETag - the SHA-256 of the page, or the
+ * hash the ERP is stored under - and answered with 304 Not Modified when a
+ * terminal sends it back in If-None-Match, so a terminal only downloads a
+ * plan again once it has changed. HEAD is supported everywhere GET is.
+ *
+ * ERPs are sent straight from the file in the ERP cache through its
+ * FileChannel, never read into the heap as a whole, and a single byte Range
+ * (optionally with If-Range) is answered with 206 Partial Content, so a
+ * viewer can start on the first pages of a large plan straight away.
+ *
+ * Each request is handled on its own virtual thread where the JVM has
+ * them, otherwise on a pool of erp.server.threads threads (64).
+ *
+ * Requests are not authenticated, so the serve launch parameter listens on
+ * the loopback interface unless erp.server.host is set. To serve the
+ * terminals, set it to the address of the interface on the site network
+ * (or 0.0.0.0 for every interface) and keep the port behind the site
+ * firewall.
+ *
+ * @author Taylor
+ *
+ */
+public final class ErpServer {
+	private static final int    BACKLOG = 256;
+	private static final String PAGE_TYPE = "application/x-erp-page";
+	private static final String PDF_TYPE  = "application/pdf";
+	private static final int    HASH_LENGTH = 64;
+
+	private final HttpServer      http;
+	private final ExecutorService executor;
+	private final DBManager       dbman;
+
+	private ErpServer(HttpServer http, DBManager dbman) {
+		this.http = http;
+		this.dbman = dbman;
+		this.executor = Threads.newTaskExecutor("http", Integer.getInteger("erp.server.threads", 64));
+
+		http.createContext("/pages/", exchange -> handle(exchange, this::page));
+		http.createContext("/erps/", exchange -> handle(exchange, this::erp));
+		http.createContext("/metrics", exchange -> handle(exchange, this::metrics));
+		http.setExecutor(executor);
+	}
+
+	/**
+	 * Starts serving a database
+	 *
+	 * @param address address and port to listen on. Port 0 picks a free port.
+	 * @param dbman database to serve, which must already be initialized
+	 * @return the running server
+	 * @throws IOException if the address could not be bound
+	 */
+	public static ErpServer start(InetSocketAddress address, DBManager dbman) throws IOException {
+		ErpServer server = new ErpServer(HttpServer.create(address, BACKLOG), dbman);
+		server.http.start();
+		Logger.info("Serving pages and ERPs on {}", server.http.getAddress());
+		return server;
+	}
+
+	/**
+	 * @return the port the server is listening on
+	 */
+	public int getPort() {
+		return http.getAddress().getPort();
+	}
+
+	/**
+	 * Stops accepting requests, and waits up to a second for the requests in
+	 * progress to finish
+	 */
+	public void stop() {
+		http.stop(1);
+		executor.shutdown();
+	}
+
+	private interface Handler {
+		void handle(HttpExchange exchange, String id) throws Exception;
+	}
+
+	/**
+	 * Checks the method, then runs a handler with the part of the path after
+	 * its context. Errors are logged and answered with a 500, or a 503 if
+	 * the database was too busy.
+	 */
+	private void handle(HttpExchange exchange, Handler handler) throws IOException {
+		try {
+			String method = exchange.getRequestMethod();
+			if (!method.equals("GET") && !method.equals("HEAD")) {
+				exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+				sendText(exchange, 405, "Method not allowed");
+				return;
+			}
+
+			String path = exchange.getRequestURI().getPath();
+			String id = path.substring(Math.min(exchange.getHttpContext().getPath().length(), path.length()));
+			handler.handle(exchange, id);
+		} catch (Exception e) {
+			Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+			Logger.error("Request for {} failed", exchange.getRequestURI(), cause);
+			
+			if (exchange.getResponseCode() == -1) { //Nothing has been sent yet
+				sendText(exchange, cause instanceof SQLTimeoutException ? 503 : 500, "The request could not be completed");
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private void page(HttpExchange exchange, String id) throws Exception {
+		byte[] page = id.isEmpty() ? null : dbman.getPageBytes(id);
+		if (page == null) {
+			sendText(exchange, 404, "No page found for " + id);
+			return;
+		}
+
+		if (notModified(exchange, '"' + DBManager.hash(page) + '"')) { return; }
+
+		exchange.getResponseHeaders().set("Content-Type", PAGE_TYPE);
+		send(exchange, 200, page);
+	}
+
+	private void erp(HttpExchange exchange, String id) throws Exception {
+		File file = id.isEmpty() ? null : dbman.getERPAsync(id).join();
+		if (file == null) {
+			sendText(exchange, 404, "No ERP found for " + id);
+			return;
+		}
+
+		String etag = etagOf(file);
+		if (notModified(exchange, etag)) { return; }
+
+		Headers headers = exchange.getResponseHeaders();
+		headers.set("Content-Type", PDF_TYPE);
+		headers.set("Content-Disposition", "inline; filename=\"" + id.replaceAll("[^\\w.-]", "_") + ".pdf\"");
+		headers.set("Accept-Ranges", "bytes");
+
+		//Opened before anything is sent, so an ERP evicted from the cache in the meantime is an error rather than a short response
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long length = channel.size();
+			long[] range = null;
+
+			String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+			if (ifRange == null || ifRange.trim().equals(etag)) {
+				range = range(exchange.getRequestHeaders().getFirst("Range"), length);
+			}
+
+			if (range != null && range.length == 0) {
+				headers.set("Content-Range", "bytes */" + length);
+				sendText(exchange, 416, "Range not satisfiable");
+				return;
+			}
+
+			long first = range == null ? 0 : range[0];
+			long count = range == null ? length : range[1] - range[0] + 1;
+			int status = range == null ? 200 : 206;
+			if (range != null) {
+				headers.set("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + length);
+			}
+
+			if (exchange.getRequestMethod().equals("HEAD")) {
+				headers.set("Content-Length", Long.toString(count));
+				exchange.sendResponseHeaders(status, -1);
+				return;
+			}
+
+			exchange.sendResponseHeaders(status, count == 0 ? -1 : count);
+			try (WritableByteChannel out = Channels.newChannel(exchange.getResponseBody())) {
+				transfer(channel, first, count, out);
+			}
+		}
+	}
+
+	/**
+	 * Copies part of a file to a channel with FileChannel.transferTo. The
+	 * response body is a plain OutputStream, so this is not zero-copy: the
+	 * JDK reads the file through a temporary buffer and writes it out as a
+	 * heap array. It does keep the memory used by each download bounded,
+	 * however large the file.
+	 */
+	private static void transfer(FileChannel channel, long position, long count, WritableByteChannel out) throws IOException {
+		while (count > 0) {
+			long sent = channel.transferTo(position, count, out);
+			if (sent <= 0) {
+				throw new EOFException("The file ended " + count + " bytes early");
+			}
+
+			position += sent;
+			count -= sent;
+		}
+	}
+
+	/**
+	 * Parses a Range header. Only a single byte range is supported; a request
+	 * for several ranges is sent the whole file, which RFC 9110 allows.
+	 *
+	 * @param header value of the Range header, or null if there was none
+	 * @param length length of the file
+	 * @return the first and last byte to send, null to send the whole file,
+	 *         or an empty array if the range is outside the file
+	 */
+	static long[] range(String header, long length) {
+		if (header == null || !header.startsWith("bytes=") || header.indexOf(',') >= 0) { return null; }
+
+		String spec = header.substring("bytes=".length()).trim();
+		int dash = spec.indexOf('-');
+		if (dash < 0) { return null; }
+
+		try {
+			String first = spec.substring(0, dash).trim();
+			String last = spec.substring(dash + 1).trim();
+
+			if (first.isEmpty()) { //The last n bytes
+				long suffix = Long.parseLong(last);
+				if (suffix <= 0 || length == 0) { return new long[0]; }
+
+				return new long[] { Math.max(length - suffix, 0), length - 1 };
+			}
+
+			long start = Long.parseLong(first);
+			if (start >= length) { return new long[0]; }
+
+			long end = last.isEmpty() ? length - 1 : Long.parseLong(last);
+			if (start < 0 || end < start) { return null; } //Invalid, so ignored
+
+			return new long[] { start, Math.min(end, length - 1) };
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private void metrics(HttpExchange exchange, String id) throws IOException {
+		sendText(exchange, 200, dbman.getMetrics().summary());
+	}
+
+	/**
+	 * Sets the ETag of a response, and answers the request with 304 Not
+	 * Modified if the client already has that version
+	 *
+	 * @return true if the request has been answered
+	 */
+	static boolean notModified(HttpExchange exchange, String etag) throws IOException {
+		Headers headers = exchange.getResponseHeaders();
+		headers.set("ETag", etag);
+		headers.set("Cache-Control", "no-cache"); //Always check, so an updated plan is seen straight away
+
+		String match = exchange.getRequestHeaders().getFirst("If-None-Match");
+		if (match == null || !matches(match, etag)) { return false; }
+
+		exchange.sendResponseHeaders(304, -1);
+		return true;
+	}
+
+	/**
+	 * @param header value of an If-None-Match header
+	 * @param etag the current ETag
+	 * @return true if the header lists the ETag, comparing weakly as
+	 *         RFC 9110 requires for If-None-Match
+	 */
+	static boolean matches(String header, String etag) {
+		for (String tag : header.split(",")) {
+			tag = tag.trim();
+			if (tag.startsWith("W/")) {
+				tag = tag.substring(2);
+			}
+
+			if (tag.equals("*") || tag.equals(etag)) { return true; }
+		}
+
+		return false;
+	}
+
+	/**
+	 * ERPs in the ERP cache are named after the hash of their contents.
+	 * ERPs stored by older versions are not, so their size and modification
+	 * time are used instead.
+	 */
+	static String etagOf(File file) {
+		String name = file.getName();
+		int dot = name.lastIndexOf('.');
+		if (dot == HASH_LENGTH && name.substring(0, dot).matches("[0-9a-f]+")) {
+			return '"' + name.substring(0, dot) + '"';
+		}
+
+		return "\"" + Long.toHexString(file.length()) + "-" + Long.toHexString(file.lastModified()) + '"';
+	}
+
+	private static void sendText(HttpExchange exchange, int status, String text) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		send(exchange, status, text.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+		if (exchange.getRequestMethod().equals("HEAD")) {
+			exchange.getResponseHeaders().set("Content-Length", Integer.toString(body.length));
+			exchange.sendResponseHeaders(status, -1);
+			return;
+		}
+
+		exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.Test;
+
+/*
+ * Checks the conditional GET and Range handling of the ErpServer.
+ */
+class ServerTests {
+	private static final String HASH = "106ac304ae39bc4029db0faf0d1734bd5a1dc2474331e8e17039365847536d73";
+
+	//Test whether If-None-Match headers are compared as RFC 9110 describes
+	@Test
+	void checkETagMatching() {
+		String etag = "\"" + HASH + "\"";
+		
+		assertTrue(ErpServer.matches(etag, etag));
+		assertTrue(ErpServer.matches("W/" + etag, etag));
+		assertTrue(ErpServer.matches("\"other\", " + etag, etag));
+		assertTrue(ErpServer.matches("*", etag));
+		assertFalse(ErpServer.matches("\"other\"", etag));
+		assertFalse(ErpServer.matches(HASH, etag));
+	}
+	
+	//Test whether single byte ranges are parsed, and other ranges ignored
+	@Test
+	void checkRanges() {
+		assertArrayEquals(new long[] { 0, 99 }, ErpServer.range("bytes=0-99", 1000));
+		assertArrayEquals(new long[] { 100, 999 }, ErpServer.range("bytes=100-", 1000));
+		assertArrayEquals(new long[] { 950, 999 }, ErpServer.range("bytes=-50", 1000));
+		assertArrayEquals(new long[] { 990, 999 }, ErpServer.range("bytes=990-5000", 1000));
+		assertEquals(0, ErpServer.range("bytes=1000-", 1000).length);
+		assertNull(ErpServer.range("bytes=0-1,5-6", 1000));
+		assertNull(ErpServer.range("bytes=5-2", 1000));
+		assertNull(ErpServer.range(null, 1000));
+	}
+	
+	//Test whether cached ERPs are tagged with the hash they are stored under
+	@Test
+	void checkERPETag() throws IOException {
+		File dir = Files.createTempDirectory("erp-etag").toFile();
+		File cached = new File(dir, HASH + ".pdf");
+		File legacy = new File(dir, "tk711.pdf");
+		Files.write(cached.toPath(), new byte[10]);
+		Files.write(legacy.toPath(), new byte[10]);
+		
+		assertEquals("\"" + HASH + "\"", ErpServer.etagOf(cached));
+		assertNotEquals("\"tk711\"", ErpServer.etagOf(legacy));
+	}
+}
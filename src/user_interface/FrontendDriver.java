@@ -4,14 +4,18 @@ import java.awt.Component;
 import java.awt.Desktop;
 import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.CompletableFuture;
 
 import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
 import database.DBManager;
 import drivers.CODES;
 import drivers.Driver;
+import drivers.Logger;
 
 public final class FrontendDriver {
 	private static Window window;
@@ -22,15 +26,43 @@ public final class FrontendDriver {
 	 * @return True if a window was already open (and subsequently closed)
 	 */
 	public static boolean initialize() {
+		boolean reopened = window instanceof Window;
+		initialize(IPanel.loadPageAsync("main"));
+		
+		return reopened;
+	}
+	
+	/**
+	 * Launches a new Window, showing the main page once it has loaded. The
+	 * window is shown straight away, so it can be built while the main page
+	 * is still being read from the database.
+	 * 
+	 * @param mainPage the load of the main page, which may still be running
+	 * @return a future completed once the main page is showing
+	 */
+	public static CompletableFuture<IPanel> initialize(CompletableFuture<IPanel> mainPage) {
+		return initialize(mainPage, CompletableFuture.completedFuture(null));
+	}
+	
+	/**
+	 * Launches a new Window while the database may still be starting. The
+	 * controls that use the database are disabled until it has started.
+	 * 
+	 * @param mainPage the load of the main page, which may still be running
+	 * @param database the start of the database, which may still be running
+	 * @return a future completed once the main page is showing
+	 */
+	public static CompletableFuture<IPanel> initialize(CompletableFuture<IPanel> mainPage, CompletableFuture<?> database) {
 		if (window instanceof Window) {
 			window.close();
-			window = new Window();
-
-			return true;
 		}
-
-		window = new Window();
-		return false;
+		
+		Window opened = new Window();
+		window = opened;
+		opened.setDatabaseReady(database.isDone() && !database.isCompletedExceptionally());
+		database.whenCompleteAsync((db, error) -> opened.setDatabaseReady(error == null), SwingUtilities::invokeLater);
+		
+		return opened.openPage("main", mainPage);
 	}
 	
 	/**
@@ -47,14 +79,48 @@ public final class FrontendDriver {
 	 * @return
 	 */
 	public static File uploadFile(String id, File file) {
+		if (!checkUpload(file)) {
+			return null;
+		}
+		
+		return Driver.DBManager().setERP(id, file);
+	}
+	
+	/**
+	 * Upload a file to the internal database in the background. The file is
+	 * validated before the upload starts.
+	 * 
+	 * @param id id of the ERP the file is for
+	 * @param file PDF to upload
+	 * @return a future completed with the uploaded file, or with null if the
+	 *         file was rejected
+	 */
+	public static CompletableFuture<File> uploadFileAsync(String id, File file) {
+		if (!checkUpload(file)) {
+			return CompletableFuture.completedFuture(null);
+		}
+		
+		return Driver.DBManager().setERPAsync(id, file);
+	}
+	
+	/**
+	 * Checks that a file can be uploaded as an ERP, showing an error
+	 * message if it cannot
+	 * 
+	 * @param file file the user selected
+	 * @return true if the file is a PDF within the size limit
+	 */
+	private static boolean checkUpload(File file) {
 		if (!isValidFileType(file)) {
-			return (File) FrontendDriver.showErrCode(CODES.NO_PDF, CODES.NO_PDF.getMessage());
-		}else if(file.length() / 1024 > DBManager.MAX_PDF_SIZE){
-				return (File) FrontendDriver.showErrCode(CODES.FILESIZE_LIMIT, "The selected file (" + file.length()/1024 + ") is "
-						+ "larger than the allowed maximum ("+DBManager.MAX_PDF_SIZE+")");
-		}else {
-			return Driver.DBManager().setERP(id, file);
+			FrontendDriver.showErrCode(CODES.NO_PDF, CODES.NO_PDF.getMessage());
+			return false;
+		}else if(file.length() > DBManager.MAX_PDF_BYTES){
+			FrontendDriver.showErrCode(CODES.FILESIZE_LIMIT, "The selected file (" + file.length()/(1024 * 1024) + "MB) is "
+					+ "larger than the allowed maximum ("+DBManager.MAX_PDF_SIZE+"MB)");
+			return false;
 		}
+		
+		return true;
 	}
 	
 	/**
@@ -65,6 +131,33 @@ public final class FrontendDriver {
 		window.openPage(targetID);
 	}
 	
+	/**
+	 * Reads an ERP in the background and opens it once it has been read.
+	 * An error is shown if it could not be read, and the user is offered to
+	 * add one if there is none.
+	 * 
+	 * @param targetID id of the ERP to open
+	 * @return a future completed on the Event Dispatch Thread with true if
+	 *         the ERP was opened
+	 */
+	public static CompletableFuture<Boolean> openERP(String targetID) {
+		return Driver.DBManager().getERPAsync(targetID).handleAsync((file, error) -> {
+			if (error != null) {
+				Logger.error("ERP {} could not be loaded", targetID, error);
+				CODES code = DBManager.errorCode(error);
+				showErrCode(code == CODES.BYTE_ARRAY_ERROR ? CODES.CORRUPT_ERP : code);
+				return false;
+			} else if (file == null) {
+				noERPFound(targetID);
+				return false;
+			}
+			
+			openExternalFile(file);
+			setCurrentERP(targetID);
+			return true;
+		}, SwingUtilities::invokeLater);
+	}
+	
 	/**
 	 * Opens an ERP PDF in the Operating System's default application.
 	 * 
@@ -72,23 +165,36 @@ public final class FrontendDriver {
 	 */
 	public static void openExternalFile(File file) {
 		if(file == null) {
-			Driver.Log("Couldnt open null file");
+			Logger.warn("Couldnt open null file");
 			return;
 		}
 		
 		try {
 			Desktop.getDesktop().browse(file.toURI());
 		} catch (IOException e) {
-			Driver.Log("Could not open file " + file.getAbsolutePath());
-			if (Driver.debugmode())
-				e.printStackTrace();
+			Logger.error("Could not open file {}", file.getAbsolutePath(), e);
 		}
 	}
 	
 	/**
-	 * Prompts the user to change the administrator password
+	 * Prompts the user to change the administrator password. May be called
+	 * while the database is starting, from any thread; the dialogs are shown
+	 * on the Event Dispatch Thread.
+	 * 
+	 * @param dbman the database to store the password in
 	 */
-	public static void setPasswordPrompt() {
+	public static void setPasswordPrompt(DBManager dbman) {
+		if (!SwingUtilities.isEventDispatchThread()) {
+			try {
+				SwingUtilities.invokeAndWait(() -> setPasswordPrompt(dbman));
+			} catch (InvocationTargetException e) {
+				Logger.error("The administrator password could not be set", e.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return;
+		}
+		
 		boolean valid;
 		
 		do {
@@ -97,9 +203,13 @@ public final class FrontendDriver {
 			
 			if(in1.equals(in2) && in1 != null && in2 != null) {
 				valid = true;
-				JOptionPane.showMessageDialog(null, "Password set successfully");
+				CODES result = dbman.setPassword(in1);
 				
-				Driver.DBManager().setPassword(in1);
+				if (result == CODES.OK) {
+					JOptionPane.showMessageDialog(null, "Password set successfully");
+				} else {
+					showErrCode(result, "The password could not be set (Error code: " + result.getCode() + ")");
+				}
 			}else {
 				valid = false;
 				JOptionPane.showMessageDialog(null, "Passwords do not match");
@@ -133,15 +243,15 @@ public final class FrontendDriver {
 	public static boolean createFilePrompt(String id, Component parent) {
 		boolean incorrectPassword = true;
 		do {
-			Driver.Log("Requesting password");
+			Logger.debug("Requesting password");
 			String input = JOptionPane.showInputDialog("Enter the administrator password");
 			
 			if(!Driver.DBManager().correctPassword(input)) {
-				Driver.Log("Incorrect password entered");
+				Logger.info("Incorrect password entered");
 				JOptionPane.showMessageDialog(null, "The password you entered is incorrect");
 				incorrectPassword = true;
 			} else {
-				Driver.Log("Correct password entered.");
+				Logger.debug("Correct password entered.");
 				incorrectPassword = false;
 			}
 		}while(incorrectPassword);
@@ -153,8 +263,14 @@ public final class FrontendDriver {
 		int returnVal = jfc.showOpenDialog(parent);
 		if(returnVal == JFileChooser.APPROVE_OPTION) { //If the user selected to upload a file, handle it
 			File newFile = jfc.getSelectedFile();
-			FrontendDriver.uploadFile(id, newFile);
-			JOptionPane.showMessageDialog(null, "ERP Uploaded Successfully.");
+			FrontendDriver.uploadFileAsync(id, newFile).whenCompleteAsync((file, error) -> {
+				if (error != null) {
+					Logger.error("ERP upload for {} failed", id, error);
+					FrontendDriver.showErrCode(DBManager.errorCode(error));
+				} else if (file != null) {
+					JOptionPane.showMessageDialog(null, "ERP Uploaded Successfully.");
+				}
+			}, SwingUtilities::invokeLater);
 			return true;
 		}
 		
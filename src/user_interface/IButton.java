@@ -1,5 +1,6 @@
 package user_interface;
 
+import java.awt.Cursor;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.Serializable;
@@ -15,19 +16,36 @@ public class IButton extends JButton implements Serializable, ActionListener {
 
 	public IButton(String text, String targetID, boolean isLeaf) {
 		super(text);
-		System.out.println("ibutton created");
-		
 		this.targetID = targetID;
 		this.isLeaf = isLeaf;
 	}
 
 	public String getTarget() { return this.targetID; }
 
+	public boolean isLeaf() { return this.isLeaf; }
+
+	/**
+	 * Opens the ERP or page this button points to. ERPs are read in the
+	 * background, and the button is disabled until the read has finished.
+	 */
 	@Override
 	public void actionPerformed(ActionEvent e) {
 		if (this.isLeaf) {
-			FrontendDriver.openExternalFile(Driver.DBManager().getERP(this.targetID));
-			FrontendDriver.setCurrentERP(this.targetID);
+			String pageID = getParent() instanceof IPanel ? ((IPanel) getParent()).getPageID() : null;
+			NavigationEvent event = NavigationEvent.start("openERP", pageID, targetID);
+			
+			if (pageID != null) {
+				Driver.DBManager().getPrefetcher().recordTransition(pageID, targetID);
+			}
+			
+			setEnabled(false);
+			setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+			
+			FrontendDriver.openERP(this.targetID).thenAccept(opened -> {
+				setEnabled(true);
+				setCursor(Cursor.getDefaultCursor());
+				event.finish(opened);
+			});
 		}else {
 			FrontendDriver.openPage(targetID);
 		}
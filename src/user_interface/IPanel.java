@@ -4,13 +4,16 @@ import java.awt.Graphics;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
-import javax.imageio.ImageIO;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 
 import drivers.CODES;
 import drivers.Driver;
+import drivers.Logger;
 
 /**
  * Overrides the default paintComponent to make it easier setting an image
@@ -23,6 +26,7 @@ public class IPanel extends JPanel implements Serializable {
 	private static final long       serialVersionUID = -5168638171387965313L;
 	private transient BufferedImage img;
 	private String                  imagePath;
+	private transient String        pageID;
 
 	public IPanel(String path) {
 		this.setImage(path);
@@ -33,18 +37,38 @@ public class IPanel extends JPanel implements Serializable {
 	}
 
 	// Uses the default, "do nothing but say it went bad" error handling
+	// Images are shared between panels through the ImageCache
 	public void setImage(String path) {
+		ImageLoadEvent event = new ImageLoadEvent();
+		event.begin();
+		
 		try {
-			img = ImageIO.read(getClass().getResource(path));
+			img = ImageCache.get(path);
 			imagePath = path;
+			
+			if (event.shouldCommit()) {
+				event.path = path;
+				event.bytes = img == null ? 0 : (long) img.getWidth() * img.getHeight() * 4;
+				event.commit();
+			}
 		} catch (IOException e) {
-			JOptionPane.showMessageDialog(null,
-					"An invalid path was tried to load as an image!");
+			Logger.warn("The image {} could not be loaded", path, e);
+			//Pages can be built off the EDT, so the dialog is shown on it
+			SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(null,
+					"An invalid path was tried to load as an image!"));
 		}
 	}
 
 	public String getImagePath() { return this.imagePath; }
 
+	/**
+	 * @return the id the page was loaded from, or null if it was not loaded
+	 *         from the database
+	 */
+	public String getPageID() { return this.pageID; }
+
+	public void setPageID(String pageID) { this.pageID = pageID; }
+
 	/**
 	 * Loads an IPanel from a file
 	 * 
@@ -56,6 +80,18 @@ public class IPanel extends JPanel implements Serializable {
 		return Driver.DBManager().getPageObj(pageName);
 	}
 
+	/**
+	 * Loads an IPanel in the background
+	 * 
+	 * @param pageName
+	 *            Name of the page
+	 * @return a future completed with the loaded IPanel, or null if there is
+	 *         no page with that name
+	 */
+	public static CompletableFuture<IPanel> loadPageAsync(String pageName) {
+		return Driver.DBManager().getPageObjAsync(pageName);
+	}
+
 	/**
 	 * Save an IPanel page to the database
 	 * 
@@ -71,6 +107,19 @@ public class IPanel extends JPanel implements Serializable {
 		return Driver.DBManager().addPageObj(pageName, page);
 	}
 	
+	/**
+	 * Save several IPanel pages to the database in one transaction, which
+	 * is much quicker than saving them one at a time
+	 * 
+	 * @param pages
+	 *            IPanels keyed by the name of the page
+	 * 
+	 * @return A code indicating if the operation was successful, or the error that happened if it was not
+	 */
+	public static CODES savePages(Map<String, IPanel> pages) {
+		return Driver.DBManager().addPageObjs(pages);
+	}
+	
 	/*
 	 * Draws the background of the panel
 	 */
@@ -0,0 +1,174 @@
+package user_interface;
+
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.imageio.ImageIO;
+
+import database.CacheStats;
+import database.LruCache;
+import drivers.Logger;
+
+/**
+ * Process-wide cache of decoded background images, keyed by the resource
+ * path passed to IPanel.setImage. Images are converted to the screen's
+ * native format when they are decoded, so painting a page is a plain copy
+ * without any per-frame colour conversion.
+ * 
+ * The cache is bounded by the memory the decoded pixels take up, set in
+ * megabytes by the erp.imageCache.maxMB system property.
+ * 
+ * @author Taylor
+ *
+ */
+public final class ImageCache {
+	private static final String RESOURCE_DIR = "resources";
+
+	private static final LruCache<String, BufferedImage> images = new LruCache<String, BufferedImage>(
+			Long.getLong("erp.imageCache.maxMB", 256) * 1024 * 1024, ImageCache::sizeOf);
+
+	// Images currently being decoded, so two pages asking for the same
+	// image at once only decode it once
+	private static final ConcurrentHashMap<String, CompletableFuture<BufferedImage>> loading = new ConcurrentHashMap<String, CompletableFuture<BufferedImage>>();
+
+	private ImageCache() {
+	}
+
+	/**
+	 * Gets a decoded image, decoding it if it is not already cached
+	 * 
+	 * @param path
+	 *            Path of the image, relative to the user_interface package
+	 * @return the decoded image
+	 * @throws IOException
+	 *             if the image does not exist or could not be decoded
+	 */
+	public static BufferedImage get(String path) throws IOException {
+		BufferedImage img = images.get(path);
+		if (img != null) { return img; }
+
+		CompletableFuture<BufferedImage> load = new CompletableFuture<BufferedImage>();
+		CompletableFuture<BufferedImage> existing = loading.putIfAbsent(path, load);
+
+		if (existing != null) {
+			return await(existing);
+		}
+
+		try {
+			img = decode(path);
+			images.put(path, img);
+			load.complete(img);
+			return img;
+		} catch (IOException | RuntimeException e) {
+			load.completeExceptionally(e);
+			throw e;
+		} finally {
+			loading.remove(path);
+		}
+	}
+
+	/**
+	 * Decodes every image in the resources directory in parallel, so that
+	 * the first pages opened do not have to wait for their backgrounds
+	 * 
+	 * @return a future completed once every image has been decoded
+	 */
+	public static CompletableFuture<Void> warm() {
+		List<CompletableFuture<Void>> loads = new ArrayList<CompletableFuture<Void>>();
+
+		for (String path : listResources()) {
+			loads.add(CompletableFuture.runAsync(() -> {
+				try {
+					get(path);
+				} catch (IOException e) {
+					Logger.warn("Could not preload image {}", path, e);
+				}
+			}));
+		}
+
+		return CompletableFuture.allOf(loads.toArray(new CompletableFuture<?>[0]));
+	}
+
+	/**
+	 * @return the hit and miss counts of the image cache
+	 */
+	public static CacheStats stats() {
+		return images.stats();
+	}
+
+	/*
+	 * Reads an image and copies it into an image compatible with the screen
+	 */
+	private static BufferedImage decode(String path) throws IOException {
+		URL url = ImageCache.class.getResource(path);
+		if (url == null) { throw new IOException("No image found at " + path); }
+
+		BufferedImage img = ImageIO.read(url);
+		if (img == null) { throw new IOException("Could not decode " + path); }
+
+		if (GraphicsEnvironment.isHeadless()) { return img; }
+
+		GraphicsConfiguration config = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+				.getDefaultConfiguration();
+		if (img.getColorModel().equals(config.getColorModel())) { return img; }
+
+		BufferedImage compatible = config.createCompatibleImage(img.getWidth(), img.getHeight(), img.getTransparency());
+		Graphics2D g = compatible.createGraphics();
+		try {
+			g.drawImage(img, 0, 0, null);
+		} finally {
+			g.dispose();
+		}
+
+		return compatible;
+	}
+
+	/*
+	 * Lists the images in the resources directory. Only works when the
+	 * classes are loaded from a directory rather than a jar, otherwise
+	 * nothing is preloaded.
+	 */
+	private static List<String> listResources() {
+		List<String> paths = new ArrayList<String>();
+		URL url = ImageCache.class.getResource(RESOURCE_DIR);
+
+		if (url == null || !"file".equals(url.getProtocol())) { return paths; }
+
+		try {
+			File[] files = new File(url.toURI()).listFiles((dir, name) -> name.toLowerCase().endsWith(".png"));
+			if (files != null) {
+				for (File file : files) {
+					paths.add(RESOURCE_DIR + "/" + file.getName());
+				}
+			}
+		} catch (URISyntaxException e) {
+			Logger.warn("Could not list {}", url, e);
+		}
+
+		return paths;
+	}
+
+	private static BufferedImage await(CompletableFuture<BufferedImage> load) throws IOException {
+		try {
+			return load.join();
+		} catch (RuntimeException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) { throw (IOException) cause; }
+			throw e;
+		}
+	}
+
+	private static long sizeOf(BufferedImage img) {
+		return (long) img.getWidth() * img.getHeight() * 4;
+	}
+}
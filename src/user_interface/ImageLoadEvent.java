@@ -0,0 +1,28 @@
+package user_interface;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Flight Recorder event covering getting a page background from the
+ * ImageCache, which decodes it the first time it is asked for
+ * 
+ * @author Taylor
+ *
+ */
+@Name("erp_manager.ImageLoad")
+@Label("Image Load")
+@Category({ "ERP Manager", "User Interface" })
+@Description("Loading a page background, decoding it if it is not cached")
+final class ImageLoadEvent extends Event {
+	@Label("Path")
+	String path;
+
+	@Label("Decoded Bytes")
+	@DataAmount
+	long bytes;
+}
@@ -0,0 +1,317 @@
+package user_interface;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import database.DBManager;
+import drivers.Logger;
+import user_interface.PageModel.ButtonModel;
+
+/**
+ * Turns the WindowBuilder-style layout files in resources/layout into
+ * stored pages without launching the user interface. Each file describes
+ * one page, named after the file without its extension.
+ * 
+ * The compiler understands the statements WindowBuilder generates for an
+ * IPanel and its buttons: constructing them, setImage, setBounds,
+ * setForeground, setBackground, setFont and add. Anything else is ignored.
+ * A plain JButton becomes a page link whose target is its text, unless its
+ * declaration is followed by a comment such as {@code // target=tk711 leaf}.
+ * 
+ * Only layouts whose SHA-256 differs from the one recorded when the page
+ * was last compiled are parsed, and every changed page is written in a
+ * single transaction.
+ * 
+ * @author Taylor
+ *
+ */
+public final class LayoutCompiler {
+	private static final String EXTENSION = ".txt";
+
+	private static final Pattern DECLARATION = Pattern
+			.compile("^(?:final\\s+)?(\\w+)\\s+(\\w+)\\s*=\\s*new\\s+(\\w+)\\((.*)\\)\\s*;\\s*(?://(.*))?$");
+	private static final Pattern CALL        = Pattern.compile("^(?:([\\w().]+)\\.)?(\\w+)\\((.*)\\)\\s*;\\s*(?://.*)?$");
+	private static final Pattern DIRECTIVE   = Pattern.compile("target\\s*=\\s*(\\S+)(\\s+leaf)?");
+	private static final Pattern NEW_OBJECT  = Pattern.compile("^new\\s+(\\w+)\\((.*)\\)$");
+
+	private LayoutCompiler() {
+	}
+
+	/**
+	 * Compiles every layout in a directory and stores the pages that have
+	 * changed
+	 * 
+	 * @param dir directory containing the layout files
+	 * @param dbman database to store the pages in
+	 * @return the number of pages written
+	 * @throws IOException if a layout could not be read or parsed
+	 * @throws SQLException if the pages could not be stored
+	 */
+	public static int compile(Path dir, DBManager dbman) throws IOException, SQLException {
+		long start = System.nanoTime();
+		Map<String, String> stored = dbman.getPageSourceHashes();
+		Map<String, PageModel> pages = new LinkedHashMap<String, PageModel>();
+		Map<String, String> hashes = new HashMap<String, String>();
+		int total = 0;
+
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + EXTENSION)) {
+			for (Path file : files) {
+				total++;
+				String name = file.getFileName().toString();
+				String id = name.substring(0, name.length() - EXTENSION.length());
+				byte[] source = Files.readAllBytes(file);
+				String hash = DBManager.hash(source);
+
+				if (hash.equals(stored.get(id))) {
+					Logger.debug("Layout {} is unchanged", name);
+					continue;
+				}
+
+				pages.put(id, parse(name, new String(source, StandardCharsets.UTF_8)));
+				hashes.put(id, hash);
+			}
+		}
+
+		int written = pages.isEmpty() ? 0 : dbman.addPages(pages, hashes);
+
+		Logger.info("Compiled {} layouts, {} changed, in {}ms", total, written, (System.nanoTime() - start) / 1000000);
+		return written;
+	}
+
+	/**
+	 * Parses a single layout
+	 * 
+	 * @param name file name, used in error messages
+	 * @param source contents of the layout file
+	 * @return the page the layout describes
+	 * @throws IOException if the layout does not declare a page, or a
+	 *             statement could not be understood
+	 */
+	static PageModel parse(String name, String source) throws IOException {
+		String page = null;
+		String imagePath = null;
+		Rectangle bounds = new Rectangle();
+		Map<String, ButtonBuilder> buttons = new LinkedHashMap<String, ButtonBuilder>();
+		List<ButtonModel> added = new ArrayList<ButtonModel>();
+
+		String[] lines = source.split("\\r?\\n");
+		for (int i = 0; i < lines.length; i++) {
+			String line = lines[i].trim();
+			if (line.isEmpty() || line.startsWith("//")) { continue; }
+
+			try {
+				Matcher declaration = DECLARATION.matcher(line);
+				if (declaration.matches()) {
+					String type = declaration.group(3);
+					List<Object> args = evaluateAll(declaration.group(4));
+
+					if (type.equals("IPanel") && page == null) {
+						page = declaration.group(2);
+						imagePath = args.isEmpty() ? null : imagePath((String) args.get(0));
+					} else if (type.equals("IButton")) {
+						buttons.put(declaration.group(2),
+								new ButtonBuilder((String) args.get(0), (String) args.get(1), (Boolean) args.get(2)));
+					} else if (type.equals("JButton")) {
+						String text = (String) args.get(0);
+						Matcher directive = DIRECTIVE.matcher(declaration.group(5) == null ? "" : declaration.group(5));
+						boolean annotated = directive.find();
+
+						buttons.put(declaration.group(2), new ButtonBuilder(text,
+								annotated ? directive.group(1) : text, annotated && directive.group(2) != null));
+					}
+					continue;
+				}
+
+				Matcher call = CALL.matcher(line);
+				if (!call.matches()) { continue; }
+
+				String target = call.group(1);
+				String method = call.group(2);
+
+				if (target != null && target.equals(page)) {
+					if (method.equals("setImage")) {
+						imagePath = imagePath((String) evaluate(call.group(3)));
+					} else if (method.equals("setBounds")) {
+						bounds = rectangle(evaluateAll(call.group(3)));
+					} else if (method.equals("add")) {
+						ButtonBuilder button = buttons.get(call.group(3).trim());
+						if (button != null) {
+							added.add(button.build());
+						}
+					}
+				} else if (target != null && buttons.containsKey(target)) {
+					buttons.get(target).set(method, evaluateAll(call.group(3)));
+				}
+			} catch (IOException | RuntimeException e) {
+				throw new IOException(name + ":" + (i + 1) + ": could not parse \"" + line + "\" (" + e.getMessage() + ")", e);
+			}
+		}
+
+		if (page == null) { throw new IOException(name + ": no IPanel is declared"); }
+
+		return new PageModel(imagePath, bounds, added);
+	}
+
+	/*
+	 * Layouts refer to images by their path in the source tree, pages by
+	 * their path relative to the user_interface package
+	 */
+	private static String imagePath(String path) {
+		String marker = "user_interface/";
+		int i = path.indexOf(marker);
+		return i == -1 ? path : path.substring(i + marker.length());
+	}
+
+	/*
+	 * Evaluates a comma separated list of arguments
+	 */
+	private static List<Object> evaluateAll(String args) throws IOException {
+		List<Object> values = new ArrayList<Object>();
+		for (String arg : split(args)) {
+			values.add(evaluate(arg));
+		}
+		return values;
+	}
+
+	/*
+	 * Evaluates a single constant expression: a string, int or boolean
+	 * literal, null, a static Color or Font constant, or a new Color or Font
+	 */
+	private static Object evaluate(String expr) throws IOException {
+		expr = expr.trim();
+
+		if (expr.startsWith("\"") && expr.endsWith("\"") && expr.length() >= 2) {
+			return unescape(expr.substring(1, expr.length() - 1));
+		} else if (expr.matches("-?\\d+")) {
+			return Integer.valueOf(expr);
+		} else if (expr.equals("true") || expr.equals("false")) {
+			return Boolean.valueOf(expr);
+		} else if (expr.equals("null")) {
+			return null;
+		} else if (expr.startsWith("Color.") || expr.startsWith("Font.")) {
+			Class<?> type = expr.startsWith("Color.") ? Color.class : Font.class;
+			try {
+				return type.getField(expr.substring(expr.indexOf('.') + 1)).get(null);
+			} catch (ReflectiveOperationException e) {
+				throw new IOException("unknown constant " + expr);
+			}
+		}
+
+		Matcher object = NEW_OBJECT.matcher(expr);
+		if (object.matches()) {
+			List<Object> args = evaluateAll(object.group(2));
+
+			if (object.group(1).equals("Color")) {
+				return args.size() == 4 ? new Color((Integer) args.get(0), (Integer) args.get(1), (Integer) args.get(2), (Integer) args.get(3))
+						: new Color((Integer) args.get(0), (Integer) args.get(1), (Integer) args.get(2));
+			} else if (object.group(1).equals("Font")) {
+				return new Font((String) args.get(0), (Integer) args.get(1), (Integer) args.get(2));
+			}
+		}
+
+		throw new IOException("unsupported expression " + expr);
+	}
+
+	/*
+	 * Splits arguments on the commas that are not inside brackets or quotes
+	 */
+	private static List<String> split(String args) {
+		List<String> parts = new ArrayList<String>();
+		int depth = 0, start = 0;
+		boolean quoted = false;
+
+		for (int i = 0; i < args.length(); i++) {
+			char c = args.charAt(i);
+
+			if (quoted) {
+				if (c == '\\') {
+					i++;
+				} else if (c == '"') {
+					quoted = false;
+				}
+			} else if (c == '"') {
+				quoted = true;
+			} else if (c == '(') {
+				depth++;
+			} else if (c == ')') {
+				depth--;
+			} else if (c == ',' && depth == 0) {
+				parts.add(args.substring(start, i));
+				start = i + 1;
+			}
+		}
+
+		if (!args.substring(start).trim().isEmpty()) {
+			parts.add(args.substring(start));
+		}
+
+		return parts;
+	}
+
+	private static String unescape(String s) {
+		StringBuilder sb = new StringBuilder(s.length());
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '\\' && i + 1 < s.length()) {
+				c = s.charAt(++i);
+				sb.append(c == 'n' ? '\n' : c == 't' ? '\t' : c);
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
+	private static Rectangle rectangle(List<Object> args) {
+		return new Rectangle((Integer) args.get(0), (Integer) args.get(1), (Integer) args.get(2), (Integer) args.get(3));
+	}
+
+	/*
+	 * Collects the properties set on a button before it is added to the page
+	 */
+	private static final class ButtonBuilder {
+		private final String text;
+		private final String target;
+		private final boolean leaf;
+		private Rectangle bounds = new Rectangle();
+		private Color foreground;
+		private Color background;
+		private Font font;
+
+		ButtonBuilder(String text, String target, boolean leaf) {
+			this.text = text;
+			this.target = target;
+			this.leaf = leaf;
+		}
+
+		void set(String method, List<Object> args) {
+			if (method.equals("setBounds")) {
+				bounds = rectangle(args);
+			} else if (method.equals("setForeground")) {
+				foreground = (Color) args.get(0);
+			} else if (method.equals("setBackground")) {
+				background = (Color) args.get(0);
+			} else if (method.equals("setFont")) {
+				font = (Font) args.get(0);
+			}
+		}
+
+		ButtonModel build() {
+			return new ButtonModel(text, target, leaf, bounds, foreground, background, font);
+		}
+	}
+}
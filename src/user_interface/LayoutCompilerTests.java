@@ -0,0 +1,122 @@
+package user_interface;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import database.DBManager;
+import drivers.CODES;
+import user_interface.PageModel.ButtonModel;
+
+/*
+ * Checks that the layout files are turned into the pages they describe, and
+ * that only changed layouts are stored again.
+ */
+class LayoutCompilerTests {
+	private static final Path FINNART = Paths.get("src/user_interface/resources/layout/finnart.txt");
+
+	static DBManager dbman;
+
+	@BeforeAll
+	static void setUpBeforeClass() {
+		dbman = new DBManager();
+		assertEquals(CODES.OK, dbman.initialize());
+	}
+
+	@AfterAll
+	static void tearDownAfterClass() {
+		dbman.shutdown();
+		dbman = null;
+	}
+
+	private static PageModel finnart() throws IOException {
+		return LayoutCompiler.parse("finnart.txt", new String(Files.readAllBytes(FINNART), StandardCharsets.UTF_8));
+	}
+
+	//Test whether the page, its image and the buttons added to it are read from a layout
+	@Test
+	void checkParsePage() throws IOException {
+		PageModel page = finnart();
+
+		assertEquals("resources/finnart.png", page.getImagePath());
+		assertEquals(new Rectangle(10, 99, 1300, 766), page.getBounds());
+		assertEquals(8, page.getButtons().size());
+	}
+
+	//Test whether the properties set on a button are read, in either order
+	@Test
+	void checkParseButtons() throws IOException {
+		ButtonModel jetty = finnart().getButtons().get(0);
+		assertEquals("Jetty 3", jetty.getText());
+		assertEquals("Jetty 3", jetty.getTarget()); //A plain JButton links to the page named by its text
+		assertFalse(jetty.isLeaf());
+		assertEquals(new Rectangle(510, 82, 221, 59), jetty.getBounds());
+		assertEquals(Color.WHITE, jetty.getForeground());
+		assertEquals(new Color(0, 153, 204), jetty.getBackground());
+		assertEquals(new Font("Arial", Font.BOLD, 20), jetty.getFont());
+
+		ButtonModel jetty2 = finnart().getButtons().get(1);
+		assertEquals(new Color(0, 153, 204), jetty2.getBackground());
+		assertEquals(new Rectangle(65, 266, 183, 59), jetty2.getBounds());
+
+		assertEquals("12\" Pipeline", finnart().getButtons().get(7).getText());
+	}
+
+	//Test whether a target comment turns a plain JButton into a link to an ERP
+	@Test
+	void checkParseTarget() throws IOException {
+		PageModel page = LayoutCompiler.parse("target.txt", String.join("\n",
+				"IPanel bodyPnl = new IPanel(\"src/user_interface/resources/main.png\");",
+				"JButton btnTank = new JButton(\"TK-711\"); // target=tk711 leaf",
+				"btnTank.setBounds(1, 2, 3, 4);",
+				"bodyPnl.add(btnTank);"));
+
+		assertEquals("resources/main.png", page.getImagePath());
+		assertEquals("tk711", page.getButtons().get(0).getTarget());
+		assertTrue(page.getButtons().get(0).isLeaf());
+		assertEquals(new Rectangle(1, 2, 3, 4), page.getButtons().get(0).getBounds());
+	}
+
+	//Test whether a layout without a page, or with a statement that cannot be understood, is rejected
+	@Test
+	void checkRejectLayout() {
+		assertThrows(IOException.class, () -> LayoutCompiler.parse("empty.txt", "JButton btn = new JButton(\"A\");"));
+		assertThrows(IOException.class, () -> LayoutCompiler.parse("bad.txt", String.join("\n",
+				"IPanel bodyPnl = new IPanel();",
+				"JButton btn = new JButton(\"A\");",
+				"btn.setForeground(Color.NOT_A_COLOUR);")));
+	}
+
+	//Test whether a layout is only stored again once it has changed
+	@Test
+	void checkUnchangedSkipped() throws IOException, SQLException {
+		Path dir = Files.createTempDirectory("layouts");
+		Path layout = dir.resolve("layoutTest.txt");
+
+		try {
+			Files.copy(FINNART, layout);
+			assertEquals(1, LayoutCompiler.compile(dir, dbman));
+			assertEquals(0, LayoutCompiler.compile(dir, dbman));
+
+			Files.write(layout, "\n// moved a button\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+			assertEquals(1, LayoutCompiler.compile(dir, dbman));
+		} finally {
+			dbman.query("DELETE FROM site WHERE id = 'layoutTest'");
+			Files.deleteIfExists(layout);
+			Files.delete(dir);
+		}
+	}
+}
@@ -0,0 +1,26 @@
+package user_interface;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Flight Recorder event covering swapping a page into the Window and
+ * laying it out, on the Event Dispatch Thread
+ * 
+ * @author Taylor
+ *
+ */
+@Name("erp_manager.Layout")
+@Label("Page Layout")
+@Category({ "ERP Manager", "User Interface" })
+@Description("Adding a page to the window and laying it out")
+final class LayoutEvent extends Event {
+	@Label("Page ID")
+	String pageId;
+
+	@Label("Components")
+	int components;
+}
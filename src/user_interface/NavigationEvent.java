@@ -0,0 +1,56 @@
+package user_interface;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Flight Recorder event covering one click in the site map, from the
+ * click until the page is shown or the ERP is opened. The database,
+ * decode, image and layout events recorded during it break the time down.
+ * 
+ * @author Taylor
+ *
+ */
+@Name("erp_manager.Navigation")
+@Label("Navigation")
+@Category({ "ERP Manager", "User Interface" })
+@Description("A page opened, a page gone back from, or an ERP opened from a button or a search")
+final class NavigationEvent extends Event {
+	@Label("Action")
+	String action;
+
+	@Label("From Page")
+	String from;
+
+	@Label("Target")
+	String target;
+
+	@Label("Succeeded")
+	boolean succeeded;
+
+	/**
+	 * Starts timing a navigation
+	 * 
+	 * @param action openPage, backAPage, openERP, searchERP or jumpERP
+	 * @param from id of the page the user is on
+	 * @param target id of the page or ERP being opened
+	 */
+	static NavigationEvent start(String action, String from, String target) {
+		NavigationEvent event = new NavigationEvent();
+		event.action = action;
+		event.from = from;
+		event.target = target;
+		event.begin();
+		return event;
+	}
+
+	void finish(boolean succeeded) {
+		if (shouldCommit()) {
+			this.succeeded = succeeded;
+			commit();
+		}
+	}
+}
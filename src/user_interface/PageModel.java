@@ -0,0 +1,320 @@
+package user_interface;
+
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Font;
+import java.awt.Rectangle;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import drivers.Logger;
+
+/**
+ * A compact description of a page: its background image and bounds, and the
+ * text, target, bounds, colours and font of each of its buttons. Pages are
+ * stored in the site table in this format rather than as serialized Swing
+ * components, and the IPanel is built from it when the page is opened.
+ * 
+ * The binary format starts with the MAGIC bytes and a version number, so
+ * stored pages can be told apart from the Java-serialized pages written by
+ * older versions.
+ * 
+ * @author Taylor
+ *
+ */
+public final class PageModel {
+	public static final int VERSION = 1;
+
+	private static final byte[] MAGIC = { 'E', 'R', 'P', 'G' };
+
+	private final String          imagePath;
+	private final Rectangle       bounds;
+	private final List<ButtonModel> buttons;
+
+	/**
+	 * @param imagePath path of the background image, relative to the
+	 *            user_interface package
+	 * @param bounds bounds of the page within the Window
+	 * @param buttons the buttons on the page
+	 */
+	public PageModel(String imagePath, Rectangle bounds, List<ButtonModel> buttons) {
+		this.imagePath = imagePath;
+		this.bounds = new Rectangle(bounds);
+		this.buttons = Collections.unmodifiableList(new ArrayList<ButtonModel>(buttons));
+	}
+
+	public String getImagePath() { return this.imagePath; }
+
+	public Rectangle getBounds() { return new Rectangle(this.bounds); }
+
+	public List<ButtonModel> getButtons() { return this.buttons; }
+
+	/**
+	 * Describes an existing page. Only the IButtons on the page are kept,
+	 * any other components are skipped with a warning; see
+	 * unsupportedComponents to check for them first.
+	 * 
+	 * @param panel page to describe
+	 * @return the model of the page
+	 */
+	public static PageModel fromPanel(IPanel panel) {
+		List<ButtonModel> buttons = new ArrayList<ButtonModel>();
+
+		for (Component c : panel.getComponents()) {
+			if (c instanceof IButton) {
+				buttons.add(ButtonModel.fromButton((IButton) c));
+			} else {
+				Logger.warn("Skipping {} when saving page {}", c.getClass().getSimpleName(), panel.getPageID());
+			}
+		}
+
+		return new PageModel(panel.getImagePath(), panel.getBounds(), buttons);
+	}
+
+	/**
+	 * Lists the components of a page that a PageModel cannot describe, and
+	 * that fromPanel would drop
+	 * 
+	 * @param panel page to check
+	 * @return the class names of the components other than IButtons, empty
+	 *         if the page can be converted without losing anything
+	 */
+	public static List<String> unsupportedComponents(IPanel panel) {
+		List<String> unsupported = new ArrayList<String>();
+
+		for (Component c : panel.getComponents()) {
+			if (!(c instanceof IButton)) {
+				unsupported.add(c.getClass().getSimpleName());
+			}
+		}
+
+		return unsupported;
+	}
+
+	/**
+	 * Builds the Swing components for this page
+	 * 
+	 * @return a new IPanel with its buttons added
+	 */
+	public IPanel toPanel() {
+		IPanel panel = imagePath == null ? new IPanel() : new IPanel(imagePath);
+		panel.setLayout(null);
+		panel.setBounds(bounds);
+
+		for (ButtonModel model : buttons) {
+			panel.add(model.toButton());
+		}
+
+		return panel;
+	}
+
+	/**
+	 * Checks whether stored page data is in this format
+	 * 
+	 * @param data the stored page
+	 * @return true if the data starts with the PageModel header
+	 */
+	public static boolean isPageModel(byte[] data) {
+		if (data == null || data.length < MAGIC.length) { return false; }
+
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (data[i] != MAGIC[i]) { return false; }
+		}
+
+		return true;
+	}
+
+	/**
+	 * @return the binary form of this page
+	 */
+	public byte[] toBytes() {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(64 + buttons.size() * 64);
+
+		try (DataOutputStream out = new DataOutputStream(baos)) {
+			out.write(MAGIC);
+			out.writeByte(VERSION);
+			writeNullable(out, imagePath);
+			writeRectangle(out, bounds);
+
+			out.writeShort(buttons.size());
+			for (ButtonModel button : buttons) {
+				button.write(out);
+			}
+		} catch (IOException e) {
+			/* ByteArrayOutputStream does not throw */
+			throw new IllegalStateException(e);
+		}
+
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Reads a page from its binary form
+	 * 
+	 * @param data bytes written by toBytes()
+	 * @return the page
+	 * @throws IOException if the data is not a page, or was written by a
+	 *             newer version
+	 */
+	public static PageModel fromBytes(byte[] data) throws IOException {
+		if (!isPageModel(data)) { throw new IOException("Not a stored page"); }
+
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, MAGIC.length, data.length))) {
+			int version = in.readUnsignedByte();
+			if (version > VERSION) { throw new IOException("Unsupported page version " + version); }
+
+			String imagePath = readNullable(in);
+			Rectangle bounds = readRectangle(in);
+
+			int count = in.readUnsignedShort();
+			List<ButtonModel> buttons = new ArrayList<ButtonModel>(count);
+			for (int i = 0; i < count; i++) {
+				buttons.add(ButtonModel.read(in));
+			}
+
+			return new PageModel(imagePath, bounds, buttons);
+		}
+	}
+
+	private static void writeNullable(DataOutputStream out, String s) throws IOException {
+		out.writeBoolean(s != null);
+		if (s != null) {
+			out.writeUTF(s);
+		}
+	}
+
+	private static String readNullable(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	private static void writeRectangle(DataOutputStream out, Rectangle r) throws IOException {
+		out.writeInt(r.x);
+		out.writeInt(r.y);
+		out.writeInt(r.width);
+		out.writeInt(r.height);
+	}
+
+	private static Rectangle readRectangle(DataInputStream in) throws IOException {
+		return new Rectangle(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+	}
+
+	/**
+	 * The stored description of a single IButton
+	 */
+	public static final class ButtonModel {
+		private final String    text;
+		private final String    targetID;
+		private final boolean   leaf;
+		private final Rectangle bounds;
+		private final Color     foreground;
+		private final Color     background;
+		private final Font      font;
+
+		/**
+		 * @param text label of the button
+		 * @param targetID id of the page or ERP the button opens
+		 * @param leaf true if the button opens an ERP rather than a page
+		 * @param bounds bounds of the button on its page
+		 * @param foreground text colour, or null for the default
+		 * @param background button colour, or null for the default
+		 * @param font font of the label, or null for the default
+		 */
+		public ButtonModel(String text, String targetID, boolean leaf, Rectangle bounds, Color foreground,
+				Color background, Font font) {
+			this.text = text;
+			this.targetID = targetID;
+			this.leaf = leaf;
+			this.bounds = new Rectangle(bounds);
+			this.foreground = foreground;
+			this.background = background;
+			this.font = font;
+		}
+
+		public String getText() { return this.text; }
+
+		public String getTarget() { return this.targetID; }
+
+		public boolean isLeaf() { return this.leaf; }
+
+		public Rectangle getBounds() { return new Rectangle(this.bounds); }
+
+		public Color getForeground() { return this.foreground; }
+
+		public Color getBackground() { return this.background; }
+
+		public Font getFont() { return this.font; }
+
+		static ButtonModel fromButton(IButton button) {
+			return new ButtonModel(button.getText(), button.getTarget(), button.isLeaf(), button.getBounds(),
+					button.isForegroundSet() ? button.getForeground() : null,
+					button.isBackgroundSet() ? button.getBackground() : null,
+					button.isFontSet() ? button.getFont() : null);
+		}
+
+		/**
+		 * @return a new IButton that opens its target when clicked
+		 */
+		IButton toButton() {
+			IButton button = new IButton(text, targetID, leaf);
+			button.setBounds(bounds);
+			button.addActionListener(button);
+
+			if (foreground != null) {
+				button.setForeground(foreground);
+			}
+			if (background != null) {
+				button.setBackground(background);
+			}
+			if (font != null) {
+				button.setFont(font);
+			}
+
+			return button;
+		}
+
+		void write(DataOutputStream out) throws IOException {
+			writeNullable(out, text);
+			writeNullable(out, targetID);
+			out.writeBoolean(leaf);
+			writeRectangle(out, bounds);
+			writeColor(out, foreground);
+			writeColor(out, background);
+
+			out.writeBoolean(font != null);
+			if (font != null) {
+				out.writeUTF(font.getName());
+				out.writeByte(font.getStyle());
+				out.writeShort(font.getSize());
+			}
+		}
+
+		static ButtonModel read(DataInputStream in) throws IOException {
+			String text = readNullable(in);
+			String targetID = readNullable(in);
+			boolean leaf = in.readBoolean();
+			Rectangle bounds = readRectangle(in);
+			Color foreground = readColor(in);
+			Color background = readColor(in);
+			Font font = in.readBoolean() ? new Font(in.readUTF(), in.readByte(), in.readShort()) : null;
+
+			return new ButtonModel(text, targetID, leaf, bounds, foreground, background, font);
+		}
+
+		private static void writeColor(DataOutputStream out, Color c) throws IOException {
+			out.writeBoolean(c != null);
+			if (c != null) {
+				out.writeInt(c.getRGB());
+			}
+		}
+
+		private static Color readColor(DataInputStream in) throws IOException {
+			return in.readBoolean() ? new Color(in.readInt(), true) : null;
+		}
+	}
+}
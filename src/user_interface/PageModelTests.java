@@ -0,0 +1,79 @@
+package user_interface;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.swing.JButton;
+import javax.swing.JLabel;
+
+import org.junit.jupiter.api.Test;
+
+import user_interface.PageModel.ButtonModel;
+
+/*
+ * Checks that pages survive being written to and read from the stored page
+ * format.
+ */
+class PageModelTests {
+	private static PageModel samplePage() {
+		return new PageModel(null, new Rectangle(10, 99, 1300, 766), Arrays.asList(
+				new ButtonModel("Jetty 3", "jetty3", false, new Rectangle(510, 82, 221, 59), Color.WHITE,
+						new Color(0, 153, 204), new Font("Arial", Font.BOLD, 20)),
+				new ButtonModel("TK-711", "tk711", true, new Rectangle(126, 462, 150, 59), null, null, null)));
+	}
+	
+	//Test whether a page reads back the same as it was written
+	@Test
+	void checkRoundTrip() throws IOException {
+		PageModel page = PageModel.fromBytes(samplePage().toBytes());
+		
+		assertEquals(new Rectangle(10, 99, 1300, 766), page.getBounds());
+		assertEquals(2, page.getButtons().size());
+		
+		ButtonModel jetty = page.getButtons().get(0);
+		assertEquals("Jetty 3", jetty.getText());
+		assertEquals("jetty3", jetty.getTarget());
+		assertFalse(jetty.isLeaf());
+		assertEquals(new Color(0, 153, 204), jetty.getBackground());
+		assertEquals(20, jetty.getFont().getSize());
+		
+		ButtonModel tank = page.getButtons().get(1);
+		assertTrue(tank.isLeaf());
+		assertNull(tank.getFont());
+	}
+	
+	//Test whether a page built from a model describes the same model
+	@Test
+	void checkPanelRoundTrip() {
+		PageModel page = PageModel.fromPanel(samplePage().toPanel());
+		
+		assertEquals(2, page.getButtons().size());
+		assertEquals("tk711", page.getButtons().get(1).getTarget());
+		assertEquals(new Rectangle(126, 462, 150, 59), page.getButtons().get(1).getBounds());
+	}
+	
+	//Test whether components a model cannot describe are reported before converting a page
+	@Test
+	void checkUnsupportedComponents() {
+		IPanel panel = samplePage().toPanel();
+		assertTrue(PageModel.unsupportedComponents(panel).isEmpty());
+		
+		panel.add(new JButton("Plain"));
+		panel.add(new JLabel("Note"));
+		assertEquals(Arrays.asList("JButton", "JLabel"), PageModel.unsupportedComponents(panel));
+	}
+	
+	//Test whether data that is not a stored page is rejected
+	@Test
+	void checkRejectSerializedPage() {
+		byte[] serialized = { (byte) 0xAC, (byte) 0xED, 0, 5 };
+		
+		assertFalse(PageModel.isPageModel(serialized));
+		assertThrows(IOException.class, () -> PageModel.fromBytes(serialized));
+	}
+}
@@ -5,20 +5,36 @@ import java.awt.Container;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 
+import database.DBManager;
+import database.Prefetcher;
+import database.SearchHit;
+import database.ZoneIndex.Zone;
+import drivers.CODES;
 import drivers.Driver;
+import drivers.Logger;
 
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 
 import java.awt.Font;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Stack;
+import java.util.concurrent.CompletableFuture;
 
 import javax.swing.JButton;
+import javax.swing.JMenuItem;
+import javax.swing.JPopupMenu;
+import javax.swing.JTextField;
 import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 
 
 import java.awt.Color;
 import java.awt.Component;
+import java.awt.Cursor;
 import java.awt.SystemColor;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
@@ -27,10 +43,20 @@ import java.awt.event.MouseEvent;
 
 @SuppressWarnings("serial")
 class Window extends JFrame {
+	private static final int MAX_SEARCH_RESULTS = 20;
+	private static final int MAX_JUMP_RESULTS   = 10;
+	
 	private Container contentPane;
 	private IPanel    body;
 	private JButton   btnBack;
 	private JButton   btnChangeERP;
+	private JButton   btnHome;
+	private JLabel    lblStatus;
+	private JTextField txtSearch;
+	private JPopupMenu searchResults = new JPopupMenu();
+	private JTextField txtJump;
+	private JPopupMenu jumpResults = new JPopupMenu();
+	private List<Zone> jumpMatches = new ArrayList<Zone>();
 	private Component frame = this;
 	private String currentERP = null;
 	
@@ -39,17 +65,26 @@ class Window extends JFrame {
 	// the user can return up their page history
 	private Stack<IPanel> pageOrder = new Stack<IPanel>();
 	
+	// Incremented for every page requested, so that only the page the user
+	// asked for most recently is shown once it has loaded
+	private int pageRequest;
+	
+	// Incremented for every search, so only the results of the latest are shown
+	private int searchRequest;
+	
 	Window() {
 		super();
 		getContentPane().setBackground(Color.GRAY);
 		setResizable(false);
 		setBackground(Color.GRAY);
 		mainFrame();
-		
-		openPage("main");
 	}
 
 	private void backAPage() {
+		pageRequest++; //Abandon any page that is still loading
+		setLoading(false);
+		
+		NavigationEvent event = NavigationEvent.start("backAPage", body.getPageID(), pageOrder.peek().getPageID());
 		remove(body);
 		body = pageOrder.pop();
 
@@ -59,20 +94,200 @@ class Window extends JFrame {
 		}
 
 		getContentPane().add(body);
+		event.finish(true);
 	}
 
+	/**
+	 * Loads a page in the background and shows it once it has loaded. The
+	 * window shows a loading state in the meantime.
+	 * 
+	 * @param page id of the page to open
+	 */
 	void openPage(String page) {
+		openPage(page, IPanel.loadPageAsync(page));
+	}
+	
+	/**
+	 * Shows a page that is already being loaded once it has finished
+	 * loading. The window shows a loading state in the meantime.
+	 * 
+	 * @param page id of the page being loaded
+	 * @param loading the load of the page
+	 * @return a future completed on the Event Dispatch Thread once the load
+	 *         has been handled
+	 */
+	CompletableFuture<IPanel> openPage(String page, CompletableFuture<IPanel> loading) {
+		int request = ++pageRequest;
+		NavigationEvent event = NavigationEvent.start("openPage", body == null ? null : body.getPageID(), page);
+		setLoading(true);
+		
+		return loading.whenCompleteAsync((panel, error) -> {
+			if (request != pageRequest) { return; } //Another page was requested while this one loaded
+			
+			setLoading(false);
+			
+			if (error != null) {
+				Logger.error("Page {} could not be loaded", page, error);
+				FrontendDriver.showErrCode(DBManager.errorCode(error));
+			} else if (panel == null) {
+				Logger.warn("No page found for {}", page);
+				FrontendDriver.showErrCode(CODES.ERROR);
+			} else {
+				showPage(panel);
+			}
+			
+			event.finish(error == null && panel != null);
+		}, SwingUtilities::invokeLater);
+	}
+	
+	/**
+	 * Replaces the current page with a loaded page. Must be called on the
+	 * Event Dispatch Thread.
+	 * 
+	 * @param page the page to show
+	 */
+	private void showPage(IPanel page) {
 		pageOrder.add(body);
 		if (body != null)
 			remove(body);
 
-		body = IPanel.loadPage(page);
+		Prefetcher prefetcher = Driver.DBManager().getPrefetcher();
+		if (body != null)
+			prefetcher.recordTransition(body.getPageID(), page.getPageID());
+
+		body = page;
 
 		btnBack.setEnabled(true);
 		btnBack.setToolTipText("Go back a page");
 
+		LayoutEvent layout = new LayoutEvent();
+		layout.begin();
+		
 		getContentPane().add(body);
 		refresh();
+		
+		if (layout.shouldCommit()) {
+			layout.pageId = page.getPageID();
+			layout.components = page.getComponentCount();
+			layout.commit();
+		}
+		
+		prefetchTargets(prefetcher, page);
+	}
+	
+	/**
+	 * Starts loading the pages and ERPs the buttons on a page point to, so
+	 * whichever the user opens next is likely to be ready
+	 */
+	private void prefetchTargets(Prefetcher prefetcher, IPanel page) {
+		List<String> pages = new ArrayList<String>();
+		List<String> erps = new ArrayList<String>();
+		
+		for (Component component : page.getComponents()) {
+			if (component instanceof IButton) {
+				IButton button = (IButton) component;
+				(button.isLeaf() ? erps : pages).add(button.getTarget());
+			}
+		}
+		
+		prefetcher.pageShown(page.getPageID(), pages, erps);
+	}
+
+	/**
+	 * Searches the text of the ERPs in the background, and lists the ERPs
+	 * found under the search box
+	 * 
+	 * @param query words to look for
+	 */
+	private void search(String query) {
+		int request = ++searchRequest;
+		searchResults.setVisible(false);
+		if (query.trim().isEmpty()) { return; }
+		
+		Driver.DBManager().searchERPsAsync(query, MAX_SEARCH_RESULTS).whenCompleteAsync((hits, error) -> {
+			if (request != searchRequest) { return; } //Another search was made while this one ran
+			
+			if (error != null) {
+				Logger.error("Search for {} failed", query, error);
+				FrontendDriver.showErrCode(DBManager.errorCode(error));
+			} else {
+				showSearchResults(query, hits);
+			}
+		}, SwingUtilities::invokeLater);
+	}
+	
+	private void showSearchResults(String query, List<SearchHit> hits) {
+		searchResults.removeAll();
+		
+		if (hits.isEmpty()) {
+			JMenuItem none = new JMenuItem("No ERPs mention \"" + query + "\"");
+			none.setEnabled(false);
+			searchResults.add(none);
+		}
+		
+		for (SearchHit hit : hits) {
+			JMenuItem item = new JMenuItem(hit.getId());
+			item.setToolTipText("Contains " + hit.getMatched() + (hit.getMatched() == 1 ? " word" : " words") + " of the search");
+			item.addActionListener(new ActionListener() {
+				@Override
+				public void actionPerformed(ActionEvent e) {
+					NavigationEvent event = NavigationEvent.start("searchERP", body == null ? null : body.getPageID(), hit.getId());
+					FrontendDriver.openERP(hit.getId()).thenAccept(event::finish);
+				}
+			});
+			searchResults.add(item);
+		}
+		
+		searchResults.show(txtSearch, 0, txtSearch.getHeight());
+	}
+
+	/**
+	 * Lists the zones and ERPs whose button labels or ids match what has
+	 * been typed into the jump box so far. The index is in memory, so this
+	 * runs on the Event Dispatch Thread as the user types.
+	 */
+	private void suggestZones() {
+		jumpMatches = Driver.DBManager().getZoneIndex().search(txtJump.getText(), MAX_JUMP_RESULTS);
+		jumpResults.setVisible(false);
+		jumpResults.removeAll();
+		if (txtJump.getText().trim().isEmpty()) { return; }
+		
+		if (jumpMatches.isEmpty()) {
+			JMenuItem none = new JMenuItem("No zones match \"" + txtJump.getText().trim() + "\"");
+			none.setEnabled(false);
+			jumpResults.add(none);
+		}
+		
+		for (Zone zone : jumpMatches) {
+			JMenuItem item = new JMenuItem(zone.toString());
+			item.setToolTipText((zone.isLeaf() ? "ERP" : "Page") + " linked from " + zone.getPage());
+			item.addActionListener(new ActionListener() {
+				@Override
+				public void actionPerformed(ActionEvent e) {
+					jumpTo(zone);
+				}
+			});
+			jumpResults.add(item);
+		}
+		
+		jumpResults.show(txtJump, 0, txtJump.getHeight());
+	}
+	
+	/**
+	 * Opens the page or ERP of a button found from the jump box
+	 * 
+	 * @param zone the button to follow
+	 */
+	private void jumpTo(Zone zone) {
+		jumpResults.setVisible(false);
+		txtJump.setText("");
+		
+		if (zone.isLeaf()) {
+			NavigationEvent event = NavigationEvent.start("jumpERP", body == null ? null : body.getPageID(), zone.getTarget());
+			FrontendDriver.openERP(zone.getTarget()).thenAccept(event::finish);
+		} else {
+			openPage(zone.getTarget());
+		}
 	}
 
 	private void mainFrame() {
@@ -99,12 +314,68 @@ class Window extends JFrame {
 		lblVersion.setBounds(1232, 11, 218, 19);
 		headerPnl.add(lblVersion);
 
+		lblStatus = new JLabel();
+		lblStatus.setHorizontalAlignment(SwingConstants.RIGHT);
+		lblStatus.setFont(new Font("Tahoma", Font.PLAIN, 14));
+		lblStatus.setBounds(1232, 41, 218, 19);
+		headerPnl.add(lblStatus);
+
 		JPanel sidebar = new JPanel();
 		sidebar.setBackground(Color.GRAY);
 		sidebar.setBounds(1317, 99, 165, 766);
 		getContentPane().add(sidebar);
 		sidebar.setLayout(null);
 
+		JLabel lblSearch = new JLabel("Search ERPs");
+		lblSearch.setFont(new Font("Tahoma", Font.PLAIN, 14));
+		lblSearch.setBounds(10, 11, 145, 19);
+		sidebar.add(lblSearch);
+
+		txtSearch = new JTextField();
+		txtSearch.setBounds(10, 35, 145, 26);
+		txtSearch.setToolTipText("Words to find in the ERPs, then press Enter");
+		txtSearch.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent arg0) {
+				search(txtSearch.getText());
+			}
+		});
+		sidebar.add(txtSearch);
+
+		JLabel lblJump = new JLabel("Go to zone");
+		lblJump.setFont(new Font("Tahoma", Font.PLAIN, 14));
+		lblJump.setBounds(10, 70, 145, 19);
+		sidebar.add(lblJump);
+
+		txtJump = new JTextField();
+		txtJump.setBounds(10, 94, 145, 26);
+		txtJump.setToolTipText("Type part of a zone's name or id, then press Enter to open the best match");
+		txtJump.getDocument().addDocumentListener(new DocumentListener() {
+			@Override
+			public void insertUpdate(DocumentEvent e) {
+				suggestZones();
+			}
+
+			@Override
+			public void removeUpdate(DocumentEvent e) {
+				suggestZones();
+			}
+
+			@Override
+			public void changedUpdate(DocumentEvent e) {
+			}
+		});
+		txtJump.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent arg0) {
+				if (!jumpMatches.isEmpty()) {
+					jumpTo(jumpMatches.get(0));
+				}
+			}
+		});
+		jumpResults.setFocusable(false); //Keep typing in the box while the matches are shown
+		sidebar.add(txtJump);
+
 		btnBack = new JButton("Back");
 		btnBack.addActionListener(new ActionListener() {
 			@Override
@@ -128,13 +399,13 @@ class Window extends JFrame {
 					JOptionPane.showMessageDialog(null, "You have not opened any ERP!");
 					return;
 				}
-				Driver.Log("Updating ERP for " + currentERP);
+				Logger.info("Updating ERP for {}", currentERP);
 				FrontendDriver.createFilePrompt(currentERP, frame);
 			}
 		});
 		sidebar.add(btnChangeERP);
 		
-		JButton btnHome = new JButton("Home");
+		btnHome = new JButton("Home");
 		btnHome.addMouseListener(new MouseAdapter() {
 			@Override
 			public void mouseClicked(MouseEvent arg0) {
@@ -152,6 +423,22 @@ class Window extends JFrame {
 		sidebar.add(btnHome);
 	}
 
+	/**
+	 * Enables the controls that use the database, which are disabled while
+	 * it is starting
+	 * 
+	 * @param ready true once the database has started
+	 */
+	void setDatabaseReady(boolean ready) {
+		btnHome.setEnabled(ready);
+		btnChangeERP.setEnabled(ready);
+		txtSearch.setEnabled(ready);
+		txtJump.setEnabled(ready);
+		if (!ready) {
+			btnBack.setEnabled(false);
+		}
+	}
+
 	public void refresh() {
 		contentPane.invalidate();
 		contentPane.validate();
@@ -180,6 +467,16 @@ class Window extends JFrame {
 		refresh();
 	}
 
+	/**
+	 * Shows or hides the loading indicator
+	 * 
+	 * @param loading true while a page is being loaded
+	 */
+	void setLoading(boolean loading) {
+		lblStatus.setText(loading ? "Loading..." : "");
+		setCursor(loading ? Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR) : Cursor.getDefaultCursor());
+	}
+
 	void close() {
 		dispose();
 	}